@@ -0,0 +1,59 @@
+package org.entur.haya.benchmark;
+
+import org.entur.haya.adminUnitsCache.AdminUnitsCache;
+import org.entur.haya.adminUnitsCache.AdminUnitsCacheSnapshot;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building the admin units cache from the NeTEx fixture, from a snapshot of it, and building its grids.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class AdminUnitsCacheBenchmark {
+
+    private byte[] adminUnitsNetex;
+    private byte[] snapshot;
+    private AdminUnitsCache adminUnitsCache;
+
+    @Setup
+    public void setUp() throws IOException {
+        adminUnitsNetex = BenchmarkFixtures.readAdminUnitsNetex();
+        adminUnitsCache = BenchmarkFixtures.buildAdminUnitsCache(adminUnitsNetex);
+        var outputStream = new ByteArrayOutputStream();
+        AdminUnitsCacheSnapshot.write(adminUnitsCache, outputStream);
+        snapshot = outputStream.toByteArray();
+    }
+
+    @Benchmark
+    public AdminUnitsCache buildFromNetex() {
+        return BenchmarkFixtures.buildAdminUnitsCache(adminUnitsNetex);
+    }
+
+    @Benchmark
+    public AdminUnitsCache readSnapshot() throws IOException {
+        return AdminUnitsCacheSnapshot.read(ByteBuffer.wrap(snapshot));
+    }
+
+    @Benchmark
+    public AdminUnitsCache buildGrids() {
+        return adminUnitsCache.withGrids(0.01);
+    }
+}
@@ -0,0 +1,41 @@
+package org.entur.haya.benchmark;
+
+import org.entur.haya.synthetic.SyntheticAdminUnits;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Generates the synthetic admin units NeTEx fixture of the benchmarks: 357 localities in 15 counties,
+ * with a vertex every few hundred meters of boundary.
+ * <p>
+ * Regenerate the checked-in fixture with:
+ * <pre>
+ * mvn -Pjmh test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=org.entur.haya.benchmark.AdminUnitsFixtureGenerator \
+ *     -Dexec.args=src/jmh/resources/fixtures/admin-units.xml.gz
+ * </pre>
+ */
+public final class AdminUnitsFixtureGenerator {
+
+    private static final int LOCALITIES = 357;
+    private static final int COUNTIES = 15;
+    private static final double DENSIFY_DISTANCE = 0.005;
+    private static final long SEED = 20221017L;
+
+    private AdminUnitsFixtureGenerator() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path output = Path.of(args.length > 0 ? args[0] : "src/jmh/resources/fixtures/admin-units.xml.gz");
+        var adminUnits = new SyntheticAdminUnits(LOCALITIES, COUNTIES, DENSIFY_DISTANCE, SEED);
+        try (Writer writer = new OutputStreamWriter(new GZIPOutputStream(Files.newOutputStream(output)), StandardCharsets.UTF_8)) {
+            adminUnits.writeNetex(writer);
+        }
+    }
+}
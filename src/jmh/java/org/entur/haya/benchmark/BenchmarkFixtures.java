@@ -0,0 +1,94 @@
+package org.entur.haya.benchmark;
+
+import org.entur.haya.adminUnitsCache.AdminUnit;
+import org.entur.haya.adminUnitsCache.AdminUnitsCache;
+import org.entur.haya.adminUnitsCache.TopographicPlaceReader;
+import org.entur.haya.synthetic.SyntheticAdminUnits;
+import org.entur.haya.synthetic.SyntheticPeliasDocuments;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.Point;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * The synthetic data of the benchmarks: the admin units NeTEx fixture generated by
+ * {@link AdminUnitsFixtureGenerator}, and random points and documents within its extent.
+ */
+final class BenchmarkFixtures {
+
+    static final String ADMIN_UNITS_FIXTURE = "/fixtures/admin-units.xml.gz";
+
+    /**
+     * Slightly larger than the fixture outline, so that some points are outside all admin units.
+     */
+    static final Envelope EXTENT = new Envelope(4.5, 31.5, 57.5, 71.5);
+
+    private static final GeometryFactory geometryFactory = new GeometryFactory();
+
+    private BenchmarkFixtures() {
+    }
+
+    static byte[] readAdminUnitsNetex() {
+        try (InputStream inputStream = new GZIPInputStream(BenchmarkFixtures.class.getResourceAsStream(ADMIN_UNITS_FIXTURE))) {
+            return inputStream.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static AdminUnitsCache buildAdminUnitsCache(byte[] adminUnitsNetex) {
+        try (var topographicPlaces = TopographicPlaceReader.read(new ByteArrayInputStream(adminUnitsNetex))) {
+            return AdminUnitsCache.buildNewCache(topographicPlaces);
+        }
+    }
+
+    static Point[] randomPoints(int count, long seed) {
+        var random = new Random(seed);
+        var points = new Point[count];
+        for (int i = 0; i < count; i++) {
+            points[i] = geometryFactory.createPoint(new Coordinate(
+                    EXTENT.getMinX() + random.nextDouble() * EXTENT.getWidth(),
+                    EXTENT.getMinY() + random.nextDouble() * EXTENT.getHeight()));
+        }
+        return points;
+    }
+
+    /**
+     * Writes a CSV file of documents at random points, all with the given parent, referencing
+     * the localities and counties of the cache.
+     */
+    static Path writePeliasDocuments(Path path, AdminUnitsCache adminUnitsCache,
+                                     SyntheticPeliasDocuments.Parent parent, int count, long seed) {
+        var peliasDocuments = new SyntheticPeliasDocuments(EXTENT,
+                toAdminUnitRefs(adminUnitsCache.localities().values()),
+                toAdminUnitRefs(adminUnitsCache.counties().values()),
+                Map.of(parent, 1.0),
+                seed);
+        try (Writer writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            peliasDocuments.writeCsv(writer, 0, count);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return path;
+    }
+
+    private static List<SyntheticAdminUnits.AdminUnitRef> toAdminUnitRefs(Collection<AdminUnit> adminUnits) {
+        return adminUnits.stream()
+                .map(adminUnit -> new SyntheticAdminUnits.AdminUnitRef(adminUnit.id(), adminUnit.name()))
+                .toList();
+    }
+}
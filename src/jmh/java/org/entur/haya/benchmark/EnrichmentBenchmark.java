@@ -0,0 +1,82 @@
+package org.entur.haya.benchmark;
+
+import org.entur.geocoder.csv.CSVReader;
+import org.entur.geocoder.model.PeliasDocument;
+import org.entur.haya.adminUnitsCache.AdminUnitsCache;
+import org.entur.haya.adminUnitsCache.ParentsInfoEnricher;
+import org.entur.haya.synthetic.SyntheticPeliasDocuments;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Parents info enrichment of documents coming with no parent, an UNKNOWN parent, a locality or a county,
+ * per document. The enrichment adds the parents to the documents, so they are read again before each batch.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class EnrichmentBenchmark {
+
+    private static final int DOCUMENTS = 10_000;
+
+    @Param({"ORPHAN", "UNKNOWN", "LOCALITY", "COUNTY"})
+    public SyntheticPeliasDocuments.Parent parent;
+
+    @Param({"false", "true"})
+    public boolean hierarchicalReverseGeocoding;
+
+    private Path documentsFile;
+    private ParentsInfoEnricher parentsInfoEnricher;
+    private List<PeliasDocument> peliasDocuments;
+
+    @Setup
+    public void setUp() throws IOException {
+        AdminUnitsCache adminUnitsCache = BenchmarkFixtures.buildAdminUnitsCache(BenchmarkFixtures.readAdminUnitsNetex());
+        parentsInfoEnricher = new ParentsInfoEnricher(adminUnitsCache, hierarchicalReverseGeocoding);
+        documentsFile = BenchmarkFixtures.writePeliasDocuments(
+                Files.createTempFile("haya-benchmark-", ".csv"), adminUnitsCache, parent, DOCUMENTS, 1);
+    }
+
+    @Setup(Level.Invocation)
+    public void readPeliasDocuments() {
+        try (Stream<PeliasDocument> documents = CSVReader.read(documentsFile)) {
+            peliasDocuments = documents.toList();
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(documentsFile);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(DOCUMENTS)
+    public void enrichParentsInfo(Blackhole blackhole) {
+        for (PeliasDocument peliasDocument : peliasDocuments) {
+            blackhole.consume(parentsInfoEnricher.enrichParentsInfo(peliasDocument));
+        }
+    }
+}
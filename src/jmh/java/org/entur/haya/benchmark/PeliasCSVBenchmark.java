@@ -0,0 +1,62 @@
+package org.entur.haya.benchmark;
+
+import org.entur.geocoder.csv.CSVReader;
+import org.entur.geocoder.model.PeliasDocument;
+import org.entur.haya.adminUnitsCache.AdminUnitsCache;
+import org.entur.haya.adminUnitsCache.ParentsInfoEnricher;
+import org.entur.haya.csv.PeliasCSV;
+import org.entur.haya.synthetic.SyntheticPeliasDocuments;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Encoding of enriched documents as CSV rows, per row.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class PeliasCSVBenchmark {
+
+    private static final int DOCUMENTS = 10_000;
+
+    private List<PeliasDocument> peliasDocuments;
+
+    @Setup
+    public void setUp() throws IOException {
+        AdminUnitsCache adminUnitsCache = BenchmarkFixtures.buildAdminUnitsCache(BenchmarkFixtures.readAdminUnitsNetex());
+        var parentsInfoEnricher = new ParentsInfoEnricher(adminUnitsCache);
+        Path documentsFile = BenchmarkFixtures.writePeliasDocuments(Files.createTempFile("haya-benchmark-", ".csv"),
+                adminUnitsCache, SyntheticPeliasDocuments.Parent.ORPHAN, DOCUMENTS, 1);
+        try (Stream<PeliasDocument> documents = CSVReader.read(documentsFile)) {
+            peliasDocuments = documents.map(parentsInfoEnricher::enrichParentsInfo).toList();
+        } finally {
+            Files.deleteIfExists(documentsFile);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(DOCUMENTS)
+    public long writeRows() throws IOException {
+        return PeliasCSV.writeRows(peliasDocuments.stream(), OutputStream.nullOutputStream());
+    }
+}
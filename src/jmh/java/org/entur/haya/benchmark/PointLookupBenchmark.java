@@ -0,0 +1,81 @@
+package org.entur.haya.benchmark;
+
+import org.entur.haya.adminUnitsCache.AdminUnitsCache;
+import org.locationtech.jts.geom.Point;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Point in polygon lookups of the localities, counties and countries, per point.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class PointLookupBenchmark {
+
+    private static final int POINTS = 10_000;
+
+    /**
+     * The cell size of the admin units grids, or 0 for the STRtree lookups.
+     */
+    @Param({"0", "0.01"})
+    public double gridCellSize;
+
+    private AdminUnitsCache adminUnitsCache;
+    private Point[] points;
+
+    @Setup
+    public void setUp() {
+        AdminUnitsCache cache = BenchmarkFixtures.buildAdminUnitsCache(BenchmarkFixtures.readAdminUnitsNetex());
+        adminUnitsCache = gridCellSize > 0 ? cache.withGrids(gridCellSize) : cache;
+        points = BenchmarkFixtures.randomPoints(POINTS, 1);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POINTS)
+    public void locality(Blackhole blackhole) {
+        for (Point point : points) {
+            blackhole.consume(adminUnitsCache.getLocalityForPoint(point));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POINTS)
+    public void county(Blackhole blackhole) {
+        for (Point point : points) {
+            blackhole.consume(adminUnitsCache.getCountyForPoint(point));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POINTS)
+    public void country(Blackhole blackhole) {
+        for (Point point : points) {
+            blackhole.consume(adminUnitsCache.getCountryForPoint(point));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POINTS)
+    public void hierarchy(Blackhole blackhole) {
+        for (Point point : points) {
+            blackhole.consume(adminUnitsCache.getAdminUnitsForPoint(point));
+        }
+    }
+}
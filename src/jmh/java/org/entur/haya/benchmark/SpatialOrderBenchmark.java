@@ -0,0 +1,131 @@
+package org.entur.haya.benchmark;
+
+import org.entur.geocoder.csv.CSVReader;
+import org.entur.geocoder.model.PeliasDocument;
+import org.entur.haya.adminUnitsCache.AdminUnitsCache;
+import org.entur.haya.adminUnitsCache.ParentsInfoEnricher;
+import org.entur.haya.adminUnitsCache.ReverseGeocodingCache;
+import org.entur.haya.spatialOrder.SpatialOrderSorter;
+import org.entur.haya.synthetic.SyntheticPeliasDocuments;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Reverse geocoding enrichment of documents with no parent, in the order they were written or sorted along
+ * the Hilbert curve by {@link SpatialOrderSorter}, and the reading of the documents with and without the sort,
+ * per document. The sort runs with a buffer of a quarter of the documents, so that it spills to disk.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class SpatialOrderBenchmark {
+
+    private static final int DOCUMENTS = 10_000;
+
+    @Param({"false", "true"})
+    public boolean spatialOrder;
+
+    @Param({"false", "true"})
+    public boolean reverseGeocodingCache;
+
+    private Path workDirectory;
+    private Path documentsFile;
+    private Path sortedDocumentsFile;
+    private AdminUnitsCache adminUnitsCache;
+
+    @Setup
+    public void setUp() throws IOException {
+        adminUnitsCache = BenchmarkFixtures.buildAdminUnitsCache(BenchmarkFixtures.readAdminUnitsNetex());
+        workDirectory = Files.createTempDirectory("haya-benchmark-");
+        documentsFile = BenchmarkFixtures.writePeliasDocuments(workDirectory.resolve("documents.csv"),
+                adminUnitsCache, SyntheticPeliasDocuments.Parent.ORPHAN, DOCUMENTS, 1);
+        sortedDocumentsFile = sort().get(0);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(workDirectory)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    private List<Path> sort() throws IOException {
+        return new SpatialOrderSorter(workDirectory.resolve("sort"), DOCUMENTS / 4).sort(List.of(documentsFile));
+    }
+
+    /**
+     * The documents to enrich, read again before each batch, as the enrichment adds their parents,
+     * with a new enricher, so that the reverse geocoding cache starts empty.
+     */
+    @State(Scope.Thread)
+    public static class Documents {
+
+        private ParentsInfoEnricher parentsInfoEnricher;
+        private List<PeliasDocument> peliasDocuments;
+
+        @Setup(Level.Invocation)
+        public void readPeliasDocuments(SpatialOrderBenchmark benchmark) {
+            var cache = benchmark.reverseGeocodingCache
+                    ? new ReverseGeocodingCache(benchmark.adminUnitsCache, 0.01, 100_000)
+                    : null;
+            parentsInfoEnricher = new ParentsInfoEnricher(benchmark.adminUnitsCache, false, cache);
+            try (Stream<PeliasDocument> documents = CSVReader.read(
+                    benchmark.spatialOrder ? benchmark.sortedDocumentsFile : benchmark.documentsFile)) {
+                peliasDocuments = documents.toList();
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(DOCUMENTS)
+    public void enrichParentsInfo(Documents documents, Blackhole blackhole) {
+        for (PeliasDocument peliasDocument : documents.peliasDocuments) {
+            blackhole.consume(documents.parentsInfoEnricher.enrichParentsInfo(peliasDocument));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(DOCUMENTS)
+    public void readPeliasDocuments(Blackhole blackhole) throws IOException {
+        List<Path> paths = spatialOrder ? sort() : List.of(documentsFile);
+        try {
+            for (Path path : paths) {
+                try (Stream<PeliasDocument> documents = CSVReader.read(path)) {
+                    documents.forEach(blackhole::consume);
+                }
+            }
+        } finally {
+            if (spatialOrder) {
+                for (Path path : paths) {
+                    Files.deleteIfExists(path);
+                }
+            }
+        }
+    }
+}
@@ -1,16 +1,35 @@
 package org.entur.haya;
 
+import org.entur.geocoder.blobStore.BlobStoreFiles;
 import org.entur.geocoder.model.PeliasDocument;
 import org.entur.haya.adminUnitsCache.AdminUnitsCache;
+import org.entur.haya.delta.DeltaExportService;
+import org.entur.haya.incremental.ImportManifest;
+import org.entur.haya.incremental.IncrementalImportService;
+import org.entur.haya.metrics.HayaMetrics;
+import org.entur.haya.shard.ShardService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.ApplicationArguments;
 import org.springframework.boot.ApplicationRunner;
 import org.springframework.boot.SpringApplication;
+import org.springframework.boot.WebApplicationType;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.context.event.ApplicationEnvironmentPreparedEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.core.env.ConfigurableEnvironment;
+import org.springframework.core.env.MapPropertySource;
 import org.springframework.retry.annotation.EnableRetry;
 
 import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
 import java.util.stream.Stream;
 
 @SpringBootApplication
@@ -20,42 +39,191 @@ public class HayaApplication implements ApplicationRunner {
     private static final Logger logger = LoggerFactory.getLogger(HayaApplication.class);
 
     private final HayaService hs;
+    private final ShardService shardService;
+    private final IncrementalImportService incrementalImportService;
+    private final DeltaExportService deltaExportService;
+    private final HayaMetrics metrics;
 
-    public HayaApplication(HayaService hs) {
+    @Value("${haya.download.parallelism:4}")
+    private int downloadParallelism;
+
+    @Value("${haya.mode:batch}")
+    private String mode;
+
+    public HayaApplication(HayaService hs,
+                           ShardService shardService,
+                           IncrementalImportService incrementalImportService,
+                           DeltaExportService deltaExportService,
+                           HayaMetrics metrics) {
         this.hs = hs;
+        this.shardService = shardService;
+        this.incrementalImportService = incrementalImportService;
+        this.deltaExportService = deltaExportService;
+        this.metrics = metrics;
     }
 
     public static void main(String[] args) {
-        SpringApplication.run(HayaApplication.class, args);
+        var application = new SpringApplication(HayaApplication.class);
+        application.addListeners((ApplicationListener<ApplicationEnvironmentPreparedEvent>) event ->
+                startWebServerInServerMode(event.getEnvironment()));
+        application.run(args);
+    }
+
+    /**
+     * The batch import runs without a web server, as set in the configmap, but the server mode needs one,
+     * so haya.mode=server takes precedence over spring.main.web-application-type, wherever they are set.
+     */
+    static void startWebServerInServerMode(ConfigurableEnvironment environment) {
+        if ("server".equals(environment.getProperty("haya.mode"))) {
+            environment.getPropertySources().addFirst(new MapPropertySource("hayaServerMode",
+                    Map.of("spring.main.web-application-type", WebApplicationType.SERVLET.name())));
+        }
     }
 
+    /**
+     * Runs the batch import, unless haya.mode is server, in which case the beans of the server package
+     * answer the reverse geocoding requests instead.
+     * Logs the summary of the run, with the time spent in each stage, also when the run fails.
+     */
     @Override
     public void run(ApplicationArguments args) throws Exception {
-        AdminUnitsCache adminUnitsCache = Stream.of(hs.loadAdminUnitsFile())
-                .map(hs::unzipAdminUnitsToWorkingDirectory)
-                .map(hs::parseAdminUnitsNetexFile)
-                .map(hs::buildAdminUnitCache)
-                .findFirst()
-                .orElseThrow(() -> new RuntimeException("Failed to create admin unit cache."));
+        if ("server".equals(mode)) {
+            logger.info("Running in server mode, without the batch import");
+            return;
+        }
+        try {
+            runImport();
+        } finally {
+            metrics.logSummary();
+        }
+    }
+
+    private void runImport() {
+        List<BlobStoreFiles.File> files = hs.listPeliasDocumentCSVFiles();
+        if (shardService.isSharded()) {
+            files = shardService.selectShardFiles(files);
+        }
+        AdminUnitsCache adminUnitsCache = loadAdminUnitsCacheWhileDownloadingPeliasDocuments(files);
 
-        hs.listPeliasDocumentCSVFiles().stream()
-                .map(hs::loadPeliasDocumentCSVFile)
-                .forEach(hs::unzipPeliasDocumentsCSVFileToWorkingDirectory);
+        if (hs.isSimplificationReport()) {
+            hs.reportSimplification(adminUnitsCache);
+        }
 
-        Stream<PeliasDocument> reduce = hs.listUnZippedFiles().stream()
-                .map(hs::readPeliasDocuments)
-                .map(peliasDocumentStream -> hs.enrichWithParentInfo(peliasDocumentStream, adminUnitsCache))
-                .reduce(Stream.empty(), Stream::concat);
+        if (incrementalImportService.isIncrementalImport()) {
+            runIncrementalImport(files, adminUnitsCache);
+            return;
+        }
 
-        InputStream peliasCSV = hs.createPeliasCSV(reduce);
-        zipAndUploadCSVFile(peliasCSV);
+        if (shardService.isSharded()) {
+            runShard(adminUnitsCache);
+            return;
+        }
+
+        try (Stream<PeliasDocument> enriched = hs.enrichWithParentInfo(readPeliasDocuments(), adminUnitsCache)) {
+            zipAndUploadCSVFile(outputFilename -> hs.createZippedPeliasCSV(enriched, outputFilename));
+        }
+    }
+
+    private Stream<PeliasDocument> readPeliasDocuments() {
+        return hs.readPeliasDocuments(hs.listPeliasDocumentsCSVPaths());
     }
 
-    private void zipAndUploadCSVFile(InputStream inputStream) {
+    /**
+     * Enriches the files of this shard, and uploads their CSV rows as a part. The first shard then waits for
+     * the parts of the other shards, uploads them put together as the CSV file, and deletes the parts.
+     */
+    private void runShard(AdminUnitsCache adminUnitsCache) {
+        Path part;
+        try (Stream<PeliasDocument> enriched = hs.enrichWithParentInfo(readPeliasDocuments(), adminUnitsCache)) {
+            part = shardService.writeShardPart(enriched);
+        }
+        shardService.uploadShardPart(part);
+        if (shardService.isMergeShard()) {
+            List<Path> parts = shardService.downloadShardParts(part);
+            zipAndUploadCSVFile(outputFilename -> shardService.createZippedPeliasCSVFromShardParts(parts, outputFilename));
+            shardService.deleteShardParts(parts);
+        }
+    }
+
+    /**
+     * Downloads the pelias documents files, up to haya.download.parallelism at a time,
+     * while the admin units file is downloaded and parsed on its own thread.
+     */
+    private AdminUnitsCache loadAdminUnitsCacheWhileDownloadingPeliasDocuments(List<BlobStoreFiles.File> files) {
+        ExecutorService adminUnitsExecutor = Executors.newSingleThreadExecutor();
+        ExecutorService downloadExecutor = Executors.newFixedThreadPool(downloadParallelism);
+        try {
+            CompletableFuture<AdminUnitsCache> adminUnitsCache = CompletableFuture.supplyAsync(() ->
+                    Stream.of(hs.loadAdminUnitsFile())
+                            .map(hs::copyAdminUnitsFileToWorkingDirectory)
+                            .map(hs::buildAdminUnitCacheFromZipFile)
+                            .findFirst()
+                            .orElseThrow(() -> new RuntimeException("Failed to create admin unit cache.")),
+                    adminUnitsExecutor);
+
+            CompletableFuture<?>[] downloads = files.stream()
+                    .map(file -> CompletableFuture.runAsync(
+                            () -> hs.storePeliasDocumentsFile(file, hs.loadPeliasDocumentCSVFile(file)),
+                            downloadExecutor))
+                    .toArray(CompletableFuture[]::new);
+
+            CompletableFuture.allOf(downloads).join();
+            return adminUnitsCache.join();
+        } finally {
+            adminUnitsExecutor.shutdownNow();
+            downloadExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * Enriches only the import files that have changed since the previous run, and reuses the stored
+     * enriched rows of the others. The manifest is saved once the CSV file is uploaded.
+     */
+    private void runIncrementalImport(List<BlobStoreFiles.File> files, AdminUnitsCache adminUnitsCache) {
+        String adminUnitsVersion = hs.getAdminUnitsVersion(hs.getAdminUnitsFilePath());
+        ImportManifest previousManifest = incrementalImportService.loadImportManifest();
+
+        List<ImportManifest.Input> inputs = files.stream()
+                .map(file -> incrementalImportService.prepareEnrichedRows(file, previousManifest, adminUnitsVersion, adminUnitsCache))
+                .toList();
+
+        zipAndUploadCSVFile(outputFilename -> incrementalImportService.createZippedPeliasCSV(inputs, outputFilename));
+        incrementalImportService.saveImportManifest(new ImportManifest(inputs));
+    }
+
+    private void zipAndUploadCSVFile(Function<String, InputStream> createZippedCSV) {
         String outputFilename = hs.getOutputFilename();
-        InputStream csvZipFile = hs.zipCSVFile(inputStream, outputFilename);
+        InputStream csvZipFile = createZippedCSV.apply(outputFilename);
         hs.uploadCSVFile(csvZipFile, outputFilename);
+        // The delta is made against the latest file, so before it is replaced.
+        boolean hasDelta = deltaExportService.isDeltaExport() && createAndUploadDeltaFile(outputFilename);
         hs.copyCSVFileAsLatestToConfiguredBucket(outputFilename);
+        if (hasDelta) {
+            copyDeltaFileAsLatest(outputFilename);
+        }
         logger.info("Uploaded zipped csv files to haya and moradin");
     }
+
+    /**
+     * A failing delta does not keep the CSV file from being published, without a delta then,
+     * as the latest delta file made against the previous file is deleted.
+     */
+    private boolean createAndUploadDeltaFile(String outputFilename) {
+        try {
+            return deltaExportService.createAndUploadDeltaFile(outputFilename);
+        } catch (Exception e) {
+            logger.warn("Failed to create the delta file, publishing the CSV file without it", e);
+            deltaExportService.deleteLatestDeltaFile();
+            return false;
+        }
+    }
+
+    private void copyDeltaFileAsLatest(String outputFilename) {
+        try {
+            deltaExportService.copyDeltaFileAsLatestToConfiguredBucket(outputFilename);
+        } catch (Exception e) {
+            logger.warn("Failed to copy the delta file to moradin", e);
+            deltaExportService.deleteLatestDeltaFile();
+        }
+    }
 }
@@ -1,17 +1,34 @@
 package org.entur.haya;
 
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.entur.geocoder.Utilities;
 import org.entur.geocoder.ZipUtilities;
 import org.entur.geocoder.blobStore.BlobStoreFiles;
 import org.entur.geocoder.csv.CSVReader;
 import org.entur.geocoder.model.PeliasDocument;
 import org.entur.haya.adminUnitsCache.AdminUnitsCache;
+import org.entur.haya.adminUnitsCache.AdminUnitsCacheSnapshot;
+import org.entur.haya.adminUnitsCache.EnrichmentStatistics;
+import org.entur.haya.adminUnitsCache.ParallelParentsInfoEnricher;
 import org.entur.haya.adminUnitsCache.ParentsInfoEnricher;
+import org.entur.haya.adminUnitsCache.PolygonSimplification;
+import org.entur.haya.adminUnitsCache.ReverseGeocodingCache;
+import org.entur.haya.adminUnitsCache.SimplificationReport;
+import org.entur.haya.adminUnitsCache.TopographicPlaceReader;
 import org.entur.haya.blobStore.HayaBlobStoreService;
 import org.entur.haya.blobStore.KakkaBlobStoreService;
 import org.entur.haya.csv.PeliasCSV;
+import org.entur.haya.io.MeteredOutputStream;
+import org.entur.haya.io.ParallelDeflateZipOutputStream;
+import org.entur.haya.io.ProducerInputStream;
+import org.entur.haya.metrics.HayaMetrics;
+import org.entur.haya.metrics.HayaMetrics.Stage;
+import org.entur.haya.spatialOrder.SpatialOrderSorter;
 import org.entur.netex.NetexParser;
 import org.entur.netex.index.api.NetexEntitiesIndex;
+import org.rutebanken.netex.model.TopographicPlace;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
@@ -19,13 +36,36 @@ import org.springframework.retry.annotation.Backoff;
 import org.springframework.retry.annotation.Retryable;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Comparator;
+import java.util.HexFormat;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.ToDoubleFunction;
 import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 @Service
 public class HayaService {
@@ -41,14 +81,108 @@ public class HayaService {
     @Value("${haya.workdir:/tmp/haya/geocoder}")
     private String hayaWorkDir;
 
+    @Value("${haya.adminUnits.streamingParser:true}")
+    private boolean streamingAdminUnitsParser;
+
+    @Value("${haya.adminUnits.snapshot.enabled:true}")
+    private boolean adminUnitsCacheSnapshotEnabled;
+
+    @Value("${blobstore.gcs.haya.adminUnits.snapshot.folder:adminUnitsCache}")
+    private String adminUnitsCacheSnapshotFolder;
+
+    @Value("${haya.adminUnits.grid.enabled:false}")
+    private boolean adminUnitsGridEnabled;
+
+    @Value("${haya.adminUnits.grid.cellSize:0.01}")
+    private double adminUnitsGridCellSize;
+
+    @Value("${haya.adminUnits.simplification.tolerance:0}")
+    private double adminUnitsSimplificationTolerance;
+
+    @Value("${haya.adminUnits.simplification.precisionScale:0}")
+    private double adminUnitsSimplificationPrecisionScale;
+
+    @Value("${haya.adminUnits.simplification.reportSampleSize:0}")
+    private long adminUnitsSimplificationReportSampleSize;
+
+    @Value("${haya.enrichment.hierarchicalReverseGeocoding:false}")
+    private boolean hierarchicalReverseGeocoding;
+
+    @Value("${haya.enrichment.reverseGeocodingCache.enabled:false}")
+    private boolean reverseGeocodingCacheEnabled;
+
+    @Value("${haya.enrichment.reverseGeocodingCache.precision:0.01}")
+    private double reverseGeocodingCachePrecision;
+
+    @Value("${haya.enrichment.reverseGeocodingCache.maximumSize:100000}")
+    private int reverseGeocodingCacheMaximumSize;
+
+    @Value("${haya.enrichment.workers:1}")
+    private int enrichmentWorkers;
+
+    @Value("${haya.enrichment.batchSize:1000}")
+    private int enrichmentBatchSize;
+
+    @Value("${haya.enrichment.queueCapacity:64}")
+    private int enrichmentQueueCapacity;
+
+    @Value("${haya.enrichment.ordered:true}")
+    private boolean enrichmentOrdered;
+
+    @Value("${haya.enrichment.spatialOrder.enabled:false}")
+    private boolean spatialOrderEnabled;
+
+    @Value("${haya.enrichment.spatialOrder.sortBufferSize:200000}")
+    private int spatialOrderSortBufferSize;
+
+    @Value("${haya.import.incremental:false}")
+    private boolean incrementalImport;
+
+    @Value("${haya.import.readFromZipArchives:false}")
+    private boolean readFromZipArchives;
+
+    @Value("${haya.shard.count:1}")
+    private int shardCount;
+
+    @Value("${haya.output.pipe.chunkSize:65536}")
+    private int outputPipeChunkSize;
+
+    @Value("${haya.output.pipe.capacity:64}")
+    private int outputPipeCapacity;
+
+    @Value("${haya.output.deflate.threads:1}")
+    private int outputDeflateThreads;
+
+    @Value("${haya.output.deflate.blockSize:131072}")
+    private int outputDeflateBlockSize;
+
     private final KakkaBlobStoreService kakkaBlobStoreService;
     private final HayaBlobStoreService hayaBlobStoreService;
+    private final HayaMetrics metrics;
+    private final AtomicReference<ReverseGeocodingCache> reverseGeocodingCache = new AtomicReference<>();
 
     public HayaService(
             KakkaBlobStoreService kakkaBlobStoreService,
-            HayaBlobStoreService hayaBlobStoreService) {
+            HayaBlobStoreService hayaBlobStoreService,
+            HayaMetrics metrics,
+            MeterRegistry meterRegistry) {
         this.kakkaBlobStoreService = kakkaBlobStoreService;
         this.hayaBlobStoreService = hayaBlobStoreService;
+        this.metrics = metrics;
+        registerReverseGeocodingCacheMetrics(meterRegistry);
+    }
+
+    /**
+     * The reverse geocoding cache looks up the localities, counties and countries on their own,
+     * so it would silently replace the hierarchical descent.
+     */
+    @PostConstruct
+    void checkEnrichmentSettings() {
+        if (hierarchicalReverseGeocoding && reverseGeocodingCacheEnabled) {
+            throw new IllegalStateException("haya.enrichment.hierarchicalReverseGeocoding and "
+                    + "haya.enrichment.reverseGeocodingCache.enabled cannot both be enabled, "
+                    + "the reverse geocoding cache does not support the hierarchical reverse geocoding");
+        }
     }
 
     @Retryable(
@@ -59,13 +193,181 @@ public class HayaService {
                     multiplierExpression = "${haya.retry.backoff.multiplier:3}"))
     protected InputStream loadAdminUnitsFile() {
         logger.info("Loading admin units file");
-        return kakkaBlobStoreService.getBlob(adminUnitsFile);
+        return metrics.countBytesIn(kakkaBlobStoreService.getBlob(adminUnitsFile));
+    }
+
+    /**
+     * Downloads the admin units file to the working directory, for the server mode to reload the cache when it changes.
+     */
+    @Retryable(
+            value = Exception.class,
+            maxAttemptsExpression = "${haya.retry.maxAttempts:3}",
+            backoff = @Backoff(
+                    delayExpression = "${haya.retry.maxDelay:5000}",
+                    multiplierExpression = "${haya.retry.backoff.multiplier:3}"))
+    public Path downloadAdminUnitsFile() {
+        return copyAdminUnitsFileToWorkingDirectory(loadAdminUnitsFile());
+    }
+
+    /**
+     * The update time and size of the admin units file, from the listing of the bucket, so that the server mode
+     * can tell whether the file has changed without downloading it. Null if the file is not listed.
+     */
+    @Retryable(
+            value = Exception.class,
+            maxAttemptsExpression = "${haya.retry.maxAttempts:3}",
+            backoff = @Backoff(
+                    delayExpression = "${haya.retry.maxDelay:5000}",
+                    multiplierExpression = "${haya.retry.backoff.multiplier:3}"))
+    public String getAdminUnitsFileMetadata() {
+        BlobStoreFiles blobStoreFiles = kakkaBlobStoreService.listBlobStoreFiles(adminUnitsFile);
+        return blobStoreFiles.getFiles().stream()
+                .filter(file -> adminUnitsFile.equals(file.getName()))
+                .findFirst()
+                .map(file -> file.getUpdated() + "_" + file.getFileSize())
+                .orElse(null);
+    }
+
+    protected Path copyAdminUnitsFileToWorkingDirectory(InputStream inputStream) {
+        logger.info("Copying admin units file");
+        return metrics.time(Stage.DOWNLOAD, () -> {
+            try (inputStream) {
+                Files.createDirectories(Paths.get(hayaWorkDir));
+                Path target = getAdminUnitsFilePath();
+                Files.copy(inputStream, target, StandardCopyOption.REPLACE_EXISTING);
+                return target;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    protected Path getAdminUnitsFilePath() {
+        return Paths.get(hayaWorkDir, "adminUnits.zip");
+    }
+
+    /**
+     * Loads the admin units cache from the snapshot made from the same admin units file in an earlier run,
+     * if any, and otherwise builds it from the NeTEx file, and saves a snapshot for the next runs.
+     */
+    public AdminUnitsCache buildAdminUnitCacheFromZipFile(Path zipFile) {
+        AdminUnitsCache adminUnitsCache;
+        if (adminUnitsCacheSnapshotEnabled) {
+            String snapshotName = getAdminUnitsCacheSnapshotName(zipFile);
+            adminUnitsCache = metrics.time(Stage.SNAPSHOT_LOAD, () -> loadAdminUnitsCacheSnapshot(snapshotName));
+            if (adminUnitsCache == null) {
+                adminUnitsCache = buildAdminUnitCacheFromNetexFile(unzipAdminUnitsToWorkingDirectory(zipFile));
+                saveAdminUnitsCacheSnapshot(adminUnitsCache, snapshotName);
+            }
+        } else {
+            adminUnitsCache = buildAdminUnitCacheFromNetexFile(unzipAdminUnitsToWorkingDirectory(zipFile));
+        }
+        if (adminUnitsGridEnabled) {
+            logger.info("Building admin units grids with cell size " + adminUnitsGridCellSize);
+            AdminUnitsCache cache = adminUnitsCache;
+            adminUnitsCache = metrics.time(Stage.CACHE_BUILD, () -> cache.withGrids(adminUnitsGridCellSize));
+        }
+        return adminUnitsCache;
+    }
+
+    protected String getAdminUnitsCacheSnapshotName(Path zipFile) {
+        // The snapshots of simplified caches are kept apart, one per simplification.
+        PolygonSimplification polygonSimplification = getPolygonSimplification();
+        return adminUnitsCacheSnapshotFolder + "/admin_units_cache_" + getAdminUnitsVersion(zipFile)
+                + (polygonSimplification.isEnabled() ? "_" + polygonSimplification.key() : "")
+                + "_v" + AdminUnitsCacheSnapshot.VERSION + ".bin";
+    }
+
+    protected PolygonSimplification getPolygonSimplification() {
+        return new PolygonSimplification(adminUnitsSimplificationTolerance, adminUnitsSimplificationPrecisionScale);
+    }
+
+    protected boolean isSimplificationReport() {
+        return getPolygonSimplification().isEnabled() && adminUnitsSimplificationReportSampleSize > 0;
+    }
+
+    /**
+     * Compares the reverse geocoding of up to haya.adminUnits.simplification.reportSampleSize downloaded
+     * documents with the given simplified cache, and with a cache built again from the original polygons.
+     */
+    protected SimplificationReport reportSimplification(AdminUnitsCache adminUnitsCache) {
+        logger.info("Building the admin units cache without simplification, for the simplification report");
+        AdminUnitsCache original = buildAdminUnitCacheFromNetexFile(
+                unzipAdminUnitsToWorkingDirectory(getAdminUnitsFilePath()), PolygonSimplification.NONE);
+        try (Stream<PeliasDocument> peliasDocuments = listPeliasDocumentsCSVPaths().stream()
+                .map(this::readPeliasDocuments)
+                .reduce(Stream.empty(), Stream::concat)) {
+            SimplificationReport report = SimplificationReport.compare(original, adminUnitsCache,
+                    peliasDocuments.limit(adminUnitsSimplificationReportSampleSize));
+            logger.info("Admin units simplification report: " + report);
+            return report;
+        }
+    }
+
+    /**
+     * The version of the admin units is the checksum of the admin units file.
+     */
+    public String getAdminUnitsVersion(Path zipFile) {
+        return md5Checksum(zipFile);
+    }
+
+    protected AdminUnitsCache loadAdminUnitsCacheSnapshot(String snapshotName) {
+        try (InputStream inputStream = hayaBlobStoreService.getBlob(snapshotName)) {
+            if (inputStream == null) {
+                logger.info("No admin units cache snapshot found: " + snapshotName);
+                return null;
+            }
+            Path snapshotFile = Paths.get(hayaWorkDir, "adminUnitsCache.bin");
+            Files.copy(inputStream, snapshotFile, StandardCopyOption.REPLACE_EXISTING);
+            AdminUnitsCache adminUnitsCache = AdminUnitsCacheSnapshot.read(snapshotFile);
+            logger.info("Loaded admin units cache snapshot " + snapshotName);
+            return adminUnitsCache;
+        } catch (Exception e) {
+            // Rebuilt from the NeTEx file, and saved again under the same name.
+            logger.warn("Failed to load admin units cache snapshot " + snapshotName, e);
+            return null;
+        }
+    }
+
+    protected void saveAdminUnitsCacheSnapshot(AdminUnitsCache adminUnitsCache, String snapshotName) {
+        logger.info("Saving admin units cache snapshot " + snapshotName);
+        Path snapshotFile = Paths.get(hayaWorkDir, "adminUnitsCache.bin");
+        try {
+            try (OutputStream outputStream = new BufferedOutputStream(Files.newOutputStream(snapshotFile))) {
+                AdminUnitsCacheSnapshot.write(adminUnitsCache, outputStream);
+            }
+            try (InputStream inputStream = Files.newInputStream(snapshotFile)) {
+                hayaBlobStoreService.uploadBlob(snapshotName, inputStream);
+            }
+        } catch (Exception e) {
+            // The snapshot only speeds up the next runs.
+            logger.warn("Failed to save admin units cache snapshot " + snapshotName, e);
+        }
+    }
+
+    public static String md5Checksum(Path path) {
+        try (InputStream inputStream = new DigestInputStream(Files.newInputStream(path), MessageDigest.getInstance("MD5"))) {
+            inputStream.transferTo(OutputStream.nullOutputStream());
+            return HexFormat.of().formatHex(((DigestInputStream) inputStream).getMessageDigest().digest());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    protected Path unzipAdminUnitsToWorkingDirectory(Path zipFile) {
+        try (InputStream inputStream = Files.newInputStream(zipFile)) {
+            return unzipAdminUnitsToWorkingDirectory(inputStream);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 
     protected Path unzipAdminUnitsToWorkingDirectory(InputStream inputStream) {
         logger.info("Unzipping admin units file");
         var targetFolder = hayaWorkDir + "/adminUnits";
-        ZipUtilities.unzipFile(inputStream, targetFolder);
+        metrics.time(Stage.UNZIP, () -> ZipUtilities.unzipFile(inputStream, targetFolder));
         try (Stream<Path> paths = Files.walk(Paths.get(targetFolder))) {
             return paths
                     .filter(Utilities::isValidFile)
@@ -76,6 +378,30 @@ public class HayaService {
         }
     }
 
+    protected AdminUnitsCache buildAdminUnitCacheFromNetexFile(Path path) {
+        return buildAdminUnitCacheFromNetexFile(path, getPolygonSimplification());
+    }
+
+    protected AdminUnitsCache buildAdminUnitCacheFromNetexFile(Path path, PolygonSimplification polygonSimplification) {
+        if (!streamingAdminUnitsParser) {
+            NetexEntitiesIndex netexEntitiesIndex = metrics.time(Stage.NETEX_PARSE, () -> parseAdminUnitsNetexFile(path));
+            return metrics.time(Stage.CACHE_BUILD, () -> buildAdminUnitCache(netexEntitiesIndex, polygonSimplification));
+        }
+        logger.info("Building admin units cache while streaming the admin units Netex file");
+        // The parsing is timed apart from the building, while the TopographicPlaces are read.
+        long start = System.nanoTime();
+        var parseNanos = new LongAdder();
+        try (InputStream inputStream = new BufferedInputStream(new FileInputStream(path.toFile()));
+             Stream<TopographicPlace> topographicPlaces = HayaMetrics.timed(TopographicPlaceReader.read(inputStream), parseNanos::add)) {
+            return AdminUnitsCache.buildNewCache(topographicPlaces, polygonSimplification);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            metrics.record(Stage.NETEX_PARSE, parseNanos.sum());
+            metrics.record(Stage.CACHE_BUILD, System.nanoTime() - start - parseNanos.sum());
+        }
+    }
+
     protected NetexEntitiesIndex parseAdminUnitsNetexFile(Path path) {
         logger.info("Parsing the admin units Netex file");
         var parser = new NetexParser();
@@ -86,9 +412,10 @@ public class HayaService {
         }
     }
 
-    protected AdminUnitsCache buildAdminUnitCache(NetexEntitiesIndex netexEntitiesIndex) {
+    protected AdminUnitsCache buildAdminUnitCache(NetexEntitiesIndex netexEntitiesIndex,
+                                                  PolygonSimplification polygonSimplification) {
         logger.info("Building admin units cache");
-        return AdminUnitsCache.buildNewCache(netexEntitiesIndex);
+        return AdminUnitsCache.buildNewCache(netexEntitiesIndex, polygonSimplification);
     }
 
     @Retryable(
@@ -111,58 +438,356 @@ public class HayaService {
                     multiplierExpression = "${haya.retry.backoff.multiplier:3}"))
     protected InputStream loadPeliasDocumentCSVFile(BlobStoreFiles.File file) {
         logger.info("Loading pelias documents file: " + file.getFileNameOnly());
-        return hayaBlobStoreService.getBlob(file.getName());
+        return metrics.countBytesIn(hayaBlobStoreService.getBlob(file.getName()));
+    }
+
+    /**
+     * Timed as a download, the documents being unzipped while they are downloaded.
+     */
+    protected void storePeliasDocumentsFile(BlobStoreFiles.File file, InputStream inputStream) {
+        metrics.time(Stage.DOWNLOAD, () -> {
+            if (isReadingFromZipArchives()) {
+                copyPeliasDocumentsZipFileToWorkingDirectory(file, inputStream);
+            } else {
+                unzipPeliasDocumentsCSVFileToWorkingDirectory(file, inputStream);
+            }
+        });
+    }
+
+    protected List<Path> listPeliasDocumentsCSVPaths() {
+        return isReadingFromZipArchives() ? listZippedFiles() : listUnZippedFiles();
+    }
+
+    /**
+     * The incremental import and the shards read the zip archives, in the order of their names.
+     */
+    private boolean isReadingFromZipArchives() {
+        return readFromZipArchives || incrementalImport || shardCount > 1;
     }
 
-    protected void unzipPeliasDocumentsCSVFileToWorkingDirectory(InputStream inputStream) {
-        logger.info("Unzipping the file");
-        ZipUtilities.unzipFile(inputStream, hayaWorkDir + "/pelias-document-csv");
+    /**
+     * Unzips each file into its own folder, as the files are unzipped in parallel, and their entries can have the same names.
+     */
+    protected void unzipPeliasDocumentsCSVFileToWorkingDirectory(BlobStoreFiles.File file, InputStream inputStream) {
+        logger.info("Unzipping the file " + file.getFileNameOnly());
+        ZipUtilities.unzipFile(inputStream, hayaWorkDir + "/pelias-document-csv/" + getLocalFileName(file.getName()));
     }
 
+    protected void copyPeliasDocumentsZipFileToWorkingDirectory(BlobStoreFiles.File file, InputStream inputStream) {
+        logger.info("Copying the zip file " + file.getFileNameOnly());
+        try (inputStream) {
+            Path targetFolder = Files.createDirectories(Paths.get(hayaWorkDir + "/pelias-document-zip"));
+            Files.copy(inputStream, targetFolder.resolve(getLocalFileName(file.getName())), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * The name of the local copy of a blob, made from its whole name, as the blobs of different
+     * import subfolders can have the same file name.
+     */
+    public static String getLocalFileName(String blobName) {
+        return URLEncoder.encode(blobName, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Lists the unzipped CSV files in the order of the local names of their import files, and then of their paths
+     * in them, the same order as {@link #listZippedFiles()}.
+     */
     protected List<Path> listUnZippedFiles() {
         logger.info("Listing unzipping the file");
-        try (Stream<Path> paths = Files.walk(Paths.get(hayaWorkDir + "/pelias-document-csv"))) {
-            return paths.filter(Utilities::isValidFile).toList();
+        Path folder = Paths.get(hayaWorkDir + "/pelias-document-csv");
+        // No file was downloaded.
+        if (!Files.isDirectory(folder)) {
+            return List.of();
+        }
+        try (Stream<Path> paths = Files.walk(folder)) {
+            return paths.filter(Utilities::isValidFile)
+                    .sorted(Comparator.comparing((Path path) -> folder.relativize(path).getName(0).toString())
+                            .thenComparing(path -> folder.relativize(path).toString()))
+                    .toList();
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
     }
 
+    /**
+     * Lists the CSV files inside the copied zip archives, as paths in zip file systems,
+     * so they can be read without being unzipped to disk, in the order of the local names of the archives, and then of the
+     * paths of the files in them. None if no archive was copied, as for a shard without files, which still uploads its empty part.
+     */
+    protected List<Path> listZippedFiles() {
+        logger.info("Listing the files in the zip archives");
+        Path folder = Paths.get(hayaWorkDir + "/pelias-document-zip");
+        if (!Files.isDirectory(folder)) {
+            return List.of();
+        }
+        try (Stream<Path> archives = Files.list(folder)) {
+            return archives.sorted(Comparator.comparing(archive -> archive.getFileName().toString()))
+                    .flatMap(HayaService::listZipArchiveEntries)
+                    .toList();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static Stream<Path> listZipArchiveEntries(Path archive) {
+        try {
+            // Closed together with the documents stream, see readPeliasDocuments.
+            FileSystem zipFileSystem = FileSystems.newFileSystem(archive);
+            try (Stream<Path> entries = Files.walk(zipFileSystem.getPath("/"))) {
+                return entries
+                        .filter(Files::isRegularFile)
+                        .filter(entry -> !entry.toString().startsWith("/__MACOSX/"))
+                        .filter(entry -> !entry.getFileName().toString().startsWith("."))
+                        .sorted(Comparator.comparing(Path::toString))
+                        .toList()
+                        .stream();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public Stream<PeliasDocument> readPeliasDocumentsFromZipArchive(Path archive) {
+        return readPeliasDocuments(listZipArchiveEntries(archive).toList());
+    }
+
+    /**
+     * Reads the documents of the given CSV files, sorted along a Hilbert curve by their center points
+     * if haya.enrichment.spatialOrder.enabled, so that the enrichment reverse geocodes nearby points one after the other.
+     */
+    protected Stream<PeliasDocument> readPeliasDocuments(List<Path> paths) {
+        if (!spatialOrderEnabled) {
+            return paths.stream()
+                    .map(this::readPeliasDocuments)
+                    .reduce(Stream.empty(), Stream::concat);
+        }
+        List<Path> sortedPaths = sortInSpatialOrder(paths);
+        return sortedPaths.stream()
+                .map(this::readPeliasDocuments)
+                .reduce(Stream.empty(), Stream::concat)
+                .onClose(() -> deleteSpatialOrderFiles(sortedPaths));
+    }
+
+    protected List<Path> sortInSpatialOrder(List<Path> paths) {
+        logger.info("Sorting the documents in spatial order");
+        long start = System.nanoTime();
+        try {
+            return new SpatialOrderSorter(Paths.get(hayaWorkDir, "spatial-order"), spatialOrderSortBufferSize).sort(paths);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            // The zip file systems are not read again, the sorted files are.
+            paths.stream()
+                    .map(Path::getFileSystem)
+                    .filter(fileSystem -> fileSystem != FileSystems.getDefault())
+                    .distinct()
+                    .forEach(HayaService::closeZipFileSystem);
+            metrics.record(Stage.SPATIAL_ORDER, System.nanoTime() - start);
+        }
+    }
+
+    private static void deleteSpatialOrderFiles(List<Path> sortedPaths) {
+        for (Path sortedPath : sortedPaths) {
+            try {
+                Files.deleteIfExists(sortedPath);
+            } catch (IOException e) {
+                logger.warn("Failed to delete " + sortedPath, e);
+            }
+        }
+    }
+
     protected Stream<PeliasDocument> readPeliasDocuments(Path path) {
         logger.info("Read CSV file " + path.getFileName());
-        return CSVReader.read(path);
+        Stream<PeliasDocument> peliasDocuments = CSVReader.read(path);
+        if (path.getFileSystem() != FileSystems.getDefault()) {
+            return peliasDocuments.onClose(() -> closeZipFileSystem(path.getFileSystem()));
+        }
+        return peliasDocuments;
+    }
+
+    private static void closeZipFileSystem(FileSystem zipFileSystem) {
+        try {
+            zipFileSystem.close();
+        } catch (IOException e) {
+            logger.warn("Failed to close zip file system", e);
+        }
     }
 
-    protected Stream<PeliasDocument> enrichWithParentInfo(Stream<PeliasDocument> peliasDocumentStream,
-                                                          AdminUnitsCache adminUnitsCache) {
+    public Stream<PeliasDocument> enrichWithParentInfo(Stream<PeliasDocument> peliasDocumentStream,
+                                                       AdminUnitsCache adminUnitsCache) {
         logger.info("Enriching the parent information");
-        ParentsInfoEnricher parentsInfoEnricher = new ParentsInfoEnricher(adminUnitsCache);
-        return peliasDocumentStream.map(parentsInfoEnricher::enrichParentsInfo);
+        ReverseGeocodingCache cache = getReverseGeocodingCache(adminUnitsCache);
+        EnrichmentStatistics statistics = metrics.enrichmentStatistics();
+        ParentsInfoEnricher parentsInfoEnricher = createParentsInfoEnricher(adminUnitsCache);
+        Stream<PeliasDocument> enriched;
+        if (enrichmentWorkers > 1) {
+            logger.info("Enriching with " + enrichmentWorkers + " workers");
+            enriched = new ParallelParentsInfoEnricher(parentsInfoEnricher,
+                    enrichmentWorkers,
+                    enrichmentBatchSize,
+                    enrichmentQueueCapacity,
+                    enrichmentOrdered).enrichParentsInfo(peliasDocumentStream);
+        } else {
+            enriched = peliasDocumentStream.map(parentsInfoEnricher::enrichParentsInfo);
+        }
+        long enrichmentNanos = statistics.nanos();
+        enriched = enriched.onClose(() -> metrics.record(Stage.ENRICHMENT, statistics.nanos() - enrichmentNanos));
+        if (cache != null) {
+            return enriched.onClose(() -> logger.info("Reverse geocoding cache: " + cache.hits() + " hits, "
+                    + cache.misses() + " misses, " + cache.boundaryLookups() + " boundary lookups, " + cache.size() + " cells"));
+        }
+        return enriched;
+    }
+
+    /**
+     * Creates the enricher configured by the haya.enrichment properties, counted in the run metrics.
+     */
+    public ParentsInfoEnricher createParentsInfoEnricher(AdminUnitsCache adminUnitsCache) {
+        return createParentsInfoEnricher(adminUnitsCache, metrics.enrichmentStatistics());
     }
 
-    protected InputStream createPeliasCSV(Stream<PeliasDocument> peliasDocumentStream) {
-        logger.info("Create Pelias CSV file");
-        return PeliasCSV.create(peliasDocumentStream);
+    /**
+     * Creates the enricher configured by the haya.enrichment properties, counted in the given statistics.
+     */
+    public ParentsInfoEnricher createParentsInfoEnricher(AdminUnitsCache adminUnitsCache, EnrichmentStatistics statistics) {
+        return new ParentsInfoEnricher(adminUnitsCache,
+                hierarchicalReverseGeocoding,
+                getReverseGeocodingCache(adminUnitsCache),
+                statistics);
+    }
+
+    /**
+     * Identifies the settings that change the enriched rows of the same documents with the same admin units,
+     * the polygon simplification included, and the row format. The reverse geocoding cache gives the same results
+     * as the lookups without it.
+     */
+    public String getEnrichmentKey() {
+        PolygonSimplification polygonSimplification = getPolygonSimplification();
+        return "csv" + PeliasCSV.FORMAT_VERSION
+                + (hierarchicalReverseGeocoding ? "_hierarchical" : "")
+                + (polygonSimplification.isEnabled() ? "_" + polygonSimplification.key() : "");
+    }
+
+    /**
+     * Returns the reverse geocoding cache of the given admin units cache, if enabled,
+     * shared by all the enrichments made with the same admin units cache.
+     */
+    protected ReverseGeocodingCache getReverseGeocodingCache(AdminUnitsCache adminUnitsCache) {
+        if (!reverseGeocodingCacheEnabled) {
+            return null;
+        }
+        return reverseGeocodingCache.updateAndGet(cache -> cache != null && cache.adminUnitsCache() == adminUnitsCache
+                ? cache
+                : new ReverseGeocodingCache(adminUnitsCache, reverseGeocodingCachePrecision, reverseGeocodingCacheMaximumSize));
+    }
+
+    private void registerReverseGeocodingCacheMetrics(MeterRegistry meterRegistry) {
+        FunctionCounter.builder("haya.reverse.geocoding.cache.hits", reverseGeocodingCache, cache -> statistic(cache, ReverseGeocodingCache::hits))
+                .description("Reverse geocoding lookups answered from a cached cell")
+                .register(meterRegistry);
+        FunctionCounter.builder("haya.reverse.geocoding.cache.misses", reverseGeocodingCache, cache -> statistic(cache, ReverseGeocodingCache::misses))
+                .description("Reverse geocoding lookups in a cell that was not cached yet")
+                .register(meterRegistry);
+        FunctionCounter.builder("haya.reverse.geocoding.cache.boundary.lookups", reverseGeocodingCache, cache -> statistic(cache, ReverseGeocodingCache::boundaryLookups))
+                .description("Reverse geocoding lookups done exactly, as their cell is crossed by a polygon boundary")
+                .register(meterRegistry);
+        Gauge.builder("haya.reverse.geocoding.cache.hit.ratio", reverseGeocodingCache, cache -> statistic(cache, ReverseGeocodingCache::hitRatio))
+                .description("Ratio of the reverse geocoding lookups answered from a cached cell")
+                .register(meterRegistry);
+        Gauge.builder("haya.reverse.geocoding.cache.size", reverseGeocodingCache, cache -> statistic(cache, ReverseGeocodingCache::size))
+                .description("Number of cells in the reverse geocoding cache")
+                .register(meterRegistry);
+    }
+
+    private static double statistic(AtomicReference<ReverseGeocodingCache> cache, ToDoubleFunction<ReverseGeocodingCache> statistic) {
+        ReverseGeocodingCache current = cache.get();
+        return current != null ? statistic.applyAsDouble(current) : 0;
     }
 
     protected String getOutputFilename() {
         return "haya_export_geocoder_" + System.currentTimeMillis();
     }
 
-    protected InputStream zipCSVFile(InputStream inputStream, String filename) {
-        logger.info("Zipping the created csv file");
-        return ZipUtilities.zipFile(inputStream, filename + ".csv");
+    /**
+     * Writes the CSV file into a zip archive on a separate thread, and returns the zipped bytes
+     * as they are produced, through a bounded pipe.
+     */
+    public InputStream createZippedPeliasCSV(Stream<PeliasDocument> peliasDocumentStream, String filename) {
+        logger.info("Create zipped Pelias CSV file");
+        var upstreamNanos = new LongAdder();
+        Stream<PeliasDocument> timedDocuments = HayaMetrics.timed(peliasDocumentStream, upstreamNanos::add);
+        return createZippedCSV(filename, upstreamNanos::sum,
+                outputStream -> metrics.addDocumentsWritten(PeliasCSV.write(timedDocuments, outputStream, metrics::addDocumentsDropped)));
     }
 
-    @Retryable(
-            value = Exception.class,
-            maxAttemptsExpression = "${haya.retry.maxAttempts:3}",
-            backoff = @Backoff(
-                    delayExpression = "${haya.retry.maxDelay:5000}",
-                    multiplierExpression = "${haya.retry.backoff.multiplier:3}"))
+    /**
+     * Same as above, with the CSV put together from files of gzipped CSV rows without header,
+     * the enriched rows of each import file of the incremental import, or the parts of the shards.
+     */
+    public InputStream createZippedPeliasCSVFromRows(List<Path> gzippedRowsFiles, String filename) {
+        return createZippedCSV(filename, () -> 0, outputStream -> {
+            PeliasCSV.writeHeader(outputStream);
+            for (Path gzippedRowsFile : gzippedRowsFiles) {
+                try (InputStream rows = new GZIPInputStream(Files.newInputStream(gzippedRowsFile), 65536)) {
+                    rows.transferTo(outputStream);
+                }
+            }
+        });
+    }
+
+    /**
+     * The CSV and zip stages are timed on the writer thread, leaving out the time spent waiting for the documents,
+     * given by upstreamNanos, and the time spent waiting for the upload to take the zipped bytes.
+     */
+    private InputStream createZippedCSV(String filename, LongSupplier upstreamNanos, ProducerInputStream.Producer csvWriter) {
+        return ProducerInputStream.start("pelias-csv-writer", outputPipeChunkSize, outputPipeCapacity, outputStream -> {
+            long start = System.nanoTime();
+            long csvWriterNanos;
+            var pipeOutputStream = new MeteredOutputStream(outputStream);
+            MeteredOutputStream csvOutputStream;
+            if (outputDeflateThreads > 1) {
+                try (var zipOutputStream = new ParallelDeflateZipOutputStream(
+                        pipeOutputStream, filename + ".csv", outputDeflateThreads, outputDeflateBlockSize)) {
+                    csvOutputStream = new MeteredOutputStream(zipOutputStream);
+                    csvWriterNanos = produce(csvWriter, csvOutputStream);
+                }
+            } else {
+                try (var zipOutputStream = new ZipOutputStream(pipeOutputStream)) {
+                    zipOutputStream.putNextEntry(new ZipEntry(filename + ".csv"));
+                    csvOutputStream = new MeteredOutputStream(zipOutputStream);
+                    csvWriterNanos = produce(csvWriter, csvOutputStream);
+                    zipOutputStream.closeEntry();
+                }
+            }
+            long zipNanos = System.nanoTime() - start - csvWriterNanos + csvOutputStream.nanos();
+            metrics.record(Stage.CSV, csvWriterNanos - csvOutputStream.nanos() - upstreamNanos.getAsLong());
+            metrics.record(Stage.ZIP, zipNanos - pipeOutputStream.nanos());
+            metrics.addCsvBytes(csvOutputStream.bytes());
+            metrics.addBytesOut(pipeOutputStream.bytes());
+        });
+    }
+
+    private static long produce(ProducerInputStream.Producer csvWriter, OutputStream outputStream) throws Exception {
+        long start = System.nanoTime();
+        csvWriter.produce(outputStream);
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Not retried, as the zipped CSV is streamed while it is produced, and cannot be read again.
+     */
     protected void uploadCSVFile(InputStream inputStream, String filename) {
         logger.info("Uploading the CSV file");
-        hayaBlobStoreService.uploadBlob(filename + ".zip", inputStream);
+        metrics.time(Stage.UPLOAD, () -> {
+            try (inputStream) {
+                hayaBlobStoreService.uploadBlob(filename + ".zip", inputStream);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
     }
 
     @Retryable(
@@ -20,11 +20,7 @@ import net.opengis.gml._3.AbstractRingPropertyType;
 import net.opengis.gml._3.DirectPositionListType;
 import net.opengis.gml._3.LinearRingType;
 import org.entur.geocoder.model.PeliasId;
-import org.locationtech.jts.geom.Coordinate;
-import org.locationtech.jts.geom.CoordinateSequence;
-import org.locationtech.jts.geom.GeometryFactory;
 import org.locationtech.jts.geom.Polygon;
-import org.locationtech.jts.geom.impl.CoordinateArraySequence;
 import org.rutebanken.netex.model.TopographicPlace;
 import org.rutebanken.netex.model.TopographicPlaceTypeEnumeration;
 
@@ -52,7 +48,7 @@ public record AdminUnit(
                         : null,
                 topographicPlace.getDescriptor().getName().getValue(),
                 topographicPlace.getCountryRef().getRef().name(),
-                new GeometryFactory().createPolygon(convertToCoordinateSequence(topographicPlace.getPolygon().getExterior())),
+                PackedPolygon.createPolygon(convertToCoordinates(topographicPlace.getPolygon().getExterior())),
                 getAdminUnitType(topographicPlace.getTopographicPlaceType())
         );
     }
@@ -61,7 +57,10 @@ public record AdminUnit(
         return new Locale("en", countryRef).getISO3Country();
     }
 
-    private static CoordinateSequence convertToCoordinateSequence(AbstractRingPropertyType abstractRingPropertyType) {
+    /**
+     * Converts the lat,lon positions of the ring into packed x,y doubles, without a Coordinate object per position.
+     */
+    private static double[] convertToCoordinates(AbstractRingPropertyType abstractRingPropertyType) {
         var coordinateValues = Optional.of(abstractRingPropertyType)
                 .map(AbstractRingPropertyType::getAbstractRing)
                 .map(JAXBElement::getValue)
@@ -69,13 +68,12 @@ public record AdminUnit(
                 .map(LinearRingType::getPosList)
                 .map(DirectPositionListType::getValue).orElse(Collections.emptyList());
 
-        var coordinates = new Coordinate[coordinateValues.size() / 2];
-        int coordinateIndex = 0;
-        for (int index = 0; index < coordinateValues.size(); index += 2) {
-            var coordinate = new Coordinate(coordinateValues.get(index + 1), coordinateValues.get(index));
-            coordinates[coordinateIndex++] = coordinate;
+        var coordinates = new double[coordinateValues.size() / 2 * 2];
+        for (int index = 0; index + 1 < coordinateValues.size(); index += 2) {
+            coordinates[index] = coordinateValues.get(index + 1);
+            coordinates[index + 1] = coordinateValues.get(index);
         }
-        return new CoordinateArraySequence(coordinates);
+        return coordinates;
     }
 
     private static AdminUnitType getAdminUnitType(TopographicPlaceTypeEnumeration topographicPlaceType) {
@@ -11,21 +11,83 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.time.LocalDateTime;
-import java.util.Collection;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.MissingResourceException;
 import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public record AdminUnitsCache(Map<PeliasId, AdminUnit> countries,
                               Map<PeliasId, AdminUnit> counties,
-                              Map<PeliasId, AdminUnit> localities) {
+                              Map<PeliasId, AdminUnit> localities,
+                              AdminUnitsIndex countriesIndex,
+                              AdminUnitsIndex countiesIndex,
+                              AdminUnitsIndex localitiesIndex,
+                              Map<PeliasId, ParentChain> parentChains,
+                              AdminUnitsHierarchy hierarchy) {
 
     private static final Logger logger = LoggerFactory.getLogger(AdminUnitsCache.class);
 
+    // TODO: Remove this when Assad adds Norway as TopographicPlace i NSR netex file.
+    private static final ParentChain.Parent NORWAY =
+            new ParentChain.Parent(new PeliasId("KVE", "TopographicPlace", "Norway"), "Norway", "NOR");
+
+    public AdminUnitsCache(Map<PeliasId, AdminUnit> countries,
+                           Map<PeliasId, AdminUnit> counties,
+                           Map<PeliasId, AdminUnit> localities) {
+        this(countries, counties, localities,
+                new AdminUnitsIndex(countries.values()),
+                new AdminUnitsIndex(counties.values()),
+                new AdminUnitsIndex(localities.values()),
+                buildParentChains(countries, counties, localities),
+                new AdminUnitsHierarchy(countries, counties, localities));
+    }
+
+    /**
+     * Returns the same cache, with the locality, county and country lookups by point answered from grids
+     * of the given cell size in degrees, so that only the points in cells crossed by a polygon boundary
+     * are tested against the polygons.
+     */
+    public AdminUnitsCache withGrids(double cellSize) {
+        var cache = new AdminUnitsCache(countries, counties, localities,
+                countriesIndex.withGrid(cellSize),
+                countiesIndex.withGrid(cellSize),
+                localitiesIndex.withGrid(cellSize),
+                parentChains,
+                hierarchy);
+        logger.info("Built admin units grids, boundary cells: "
+                + cache.localitiesIndex().grid().boundaryCells() + "/" + cache.localitiesIndex().grid().cells() + " for the localities, "
+                + cache.countiesIndex().grid().boundaryCells() + "/" + cache.countiesIndex().grid().cells() + " for the counties, "
+                + cache.countriesIndex().grid().boundaryCells() + "/" + cache.countriesIndex().grid().cells() + " for the countries");
+        return cache;
+    }
+
     public static AdminUnitsCache buildNewCache(NetexEntitiesIndex netexEntitiesIndex) {
+        return buildNewCache(netexEntitiesIndex, PolygonSimplification.NONE);
+    }
+
+    public static AdminUnitsCache buildNewCache(NetexEntitiesIndex netexEntitiesIndex,
+                                                PolygonSimplification polygonSimplification) {
+        return buildNewCache(netexEntitiesIndex.getSiteFrames().stream()
+                .flatMap(siteFrame -> siteFrame.getTopographicPlaces().getTopographicPlace().stream()),
+                polygonSimplification);
+    }
+
+    public static AdminUnitsCache buildNewCache(Stream<TopographicPlace> topographicPlaces) {
+        return buildNewCache(topographicPlaces, PolygonSimplification.NONE);
+    }
+
+    /**
+     * Builds the cache from a stream of TopographicPlaces, keeping only the admin units made
+     * out of them, so the TopographicPlaces can be discarded as they are read.
+     * The polygons are simplified as the admin units are made, if the simplification is enabled.
+     */
+    public static AdminUnitsCache buildNewCache(Stream<TopographicPlace> topographicPlaces,
+                                                PolygonSimplification polygonSimplification) {
+        var vertices = new long[2];
 
-        var allAdminUnits = netexEntitiesIndex.getSiteFrames().stream()
-                .flatMap(siteFrame -> siteFrame.getTopographicPlaces().getTopographicPlace().stream())
+        var allAdminUnits = topographicPlaces
                 .filter(AdminUnitsCache::isCurrent)
                 .filter(topographicPlace -> {
                     LocalDateTime toDate = topographicPlace.getValidBetween().get(0).getToDate();
@@ -33,8 +95,19 @@ public record AdminUnitsCache(Map<PeliasId, AdminUnit> countries,
                 })
                 .filter(topographicPlace -> topographicPlace.getPolygon() != null)
                 .map(AdminUnit::makeAdminUnit)
+                .map(adminUnit -> {
+                    var simplified = polygonSimplification.simplify(adminUnit);
+                    vertices[0] += adminUnit.geometry().getNumPoints();
+                    vertices[1] += simplified.geometry().getNumPoints();
+                    return simplified;
+                })
                 .toList();
 
+        if (polygonSimplification.isEnabled()) {
+            logger.info("Simplified the admin unit polygons with " + polygonSimplification
+                    + ", from " + vertices[0] + " to " + vertices[1] + " vertices");
+        }
+
         var localities = allAdminUnits.stream()
                 .filter(adminUnit -> adminUnit.adminUnitType() == AdminUnitType.LOCALITY)
                 .collect(Collectors.toMap(AdminUnit::id, Function.identity()));
@@ -51,6 +124,57 @@ public record AdminUnitsCache(Map<PeliasId, AdminUnit> countries,
         return new AdminUnitsCache(countries, counties, localities);
     }
 
+    /**
+     * Resolves the parents of every admin unit by reference, so that enriching a document with a known
+     * locality, county or country is a single lookup. Localities take precedence over counties, and
+     * counties over countries, in case of clashing ids.
+     */
+    private static Map<PeliasId, ParentChain> buildParentChains(Map<PeliasId, AdminUnit> countries,
+                                                                Map<PeliasId, AdminUnit> counties,
+                                                                Map<PeliasId, AdminUnit> localities) {
+        var parentChains = new HashMap<PeliasId, ParentChain>();
+        for (AdminUnit locality : localities.values()) {
+            var county = locality.parentId() != null ? counties.get(locality.parentId()) : null;
+            parentChains.putIfAbsent(locality.id(), new ParentChain(
+                    ParentChain.Parent.of(locality),
+                    ParentChain.Parent.of(county),
+                    getCountryParentForCountryRef(locality.countryRef(), countries)));
+        }
+        for (AdminUnit county : counties.values()) {
+            parentChains.putIfAbsent(county.id(), new ParentChain(
+                    null,
+                    ParentChain.Parent.of(county),
+                    getCountryParentForCountryRef(county.countryRef(), countries)));
+        }
+        for (AdminUnit country : countries.values()) {
+            parentChains.putIfAbsent(country.id(), new ParentChain(null, null, makeCountryParent(country)));
+        }
+        return Map.copyOf(parentChains);
+    }
+
+    private static ParentChain.Parent getCountryParentForCountryRef(String countryRef,
+                                                                    Map<PeliasId, AdminUnit> countries) {
+        if ("NO".equals(countryRef)) {
+            return NORWAY;
+        }
+        return countries.values().stream()
+                .filter(country -> country.countryRef() != null)
+                .filter(country -> country.countryRef().equals(countryRef))
+                .findFirst()
+                .map(AdminUnitsCache::makeCountryParent)
+                .orElse(null);
+    }
+
+    private static ParentChain.Parent makeCountryParent(AdminUnit country) {
+        String iso3CountryName = null;
+        try {
+            iso3CountryName = country.getISO3CountryName();
+        } catch (MissingResourceException e) {
+            logger.warn("No ISO3 country code found for country " + country.id() + " " + country.countryRef());
+        }
+        return new ParentChain.Parent(country.id(), country.name(), iso3CountryName);
+    }
+
     private static boolean isCurrent(TopographicPlace topographicPlace) {
         ValidBetween validBetween = null;
         if (!topographicPlace.getValidBetween().isEmpty()) {
@@ -76,6 +200,10 @@ public record AdminUnitsCache(Map<PeliasId, AdminUnit> countries,
         };
     }
 
+    public ParentChain getParentChain(PeliasId adminUnitId) {
+        return adminUnitId != null ? parentChains.get(adminUnitId) : null;
+    }
+
     public AdminUnit getCountryForCountryRef(String countryRef) {
         return countries.values().stream()
                 .filter(country -> country.countryRef() != null)
@@ -84,22 +212,44 @@ public record AdminUnitsCache(Map<PeliasId, AdminUnit> countries,
     }
 
     public AdminUnit getLocalityForPoint(Point point) {
-        return getAdminUnitForGivenPoint(point, localities.values());
+        return getLocalityForPoint(point, null);
+    }
+
+    /**
+     * @param statistics Counts the point in polygon tests of the lookup, or null.
+     */
+    public AdminUnit getLocalityForPoint(Point point, EnrichmentStatistics statistics) {
+        return localitiesIndex.getAdminUnitForPoint(point, statistics);
     }
 
     public AdminUnit getCountyForPoint(Point point) {
-        return getAdminUnitForGivenPoint(point, counties.values());
+        return getCountyForPoint(point, null);
+    }
+
+    public AdminUnit getCountyForPoint(Point point, EnrichmentStatistics statistics) {
+        return countiesIndex.getAdminUnitForPoint(point, statistics);
     }
 
     public AdminUnit getCountryForPoint(Point point) {
-        return getAdminUnitForGivenPoint(point, countries.values());
+        return getCountryForPoint(point, null);
+    }
+
+    public AdminUnit getCountryForPoint(Point point, EnrichmentStatistics statistics) {
+        return countriesIndex.getAdminUnitForPoint(point, statistics);
+    }
+
+    public AdminUnitsHierarchy.AdminUnitsForPoint getAdminUnitsForPoint(Point point) {
+        return getAdminUnitsForPoint(point, null);
+    }
+
+    public AdminUnitsHierarchy.AdminUnitsForPoint getAdminUnitsForPoint(Point point, EnrichmentStatistics statistics) {
+        return hierarchy.getAdminUnitsForPoint(point, statistics);
     }
 
-    private static AdminUnit getAdminUnitForGivenPoint(Point point,
-                                                       Collection<AdminUnit> adminUnits) {
-        return adminUnits.stream().filter(adminUnit -> {
-            var polygon = adminUnit.geometry();
-            return polygon != null && polygon.covers(point);
-        }).findFirst().orElse(null);
+    /**
+     * The county of the point, found top-down from its country, see {@link AdminUnitsHierarchy}.
+     */
+    public AdminUnit getCountyInCountryForPoint(Point point, EnrichmentStatistics statistics) {
+        return hierarchy.getCountyForPoint(point, statistics);
     }
 }
@@ -0,0 +1,164 @@
+package org.entur.haya.adminUnitsCache;
+
+import org.entur.geocoder.model.PeliasId;
+import org.locationtech.jts.geom.CoordinateSequence;
+import org.locationtech.jts.geom.Polygon;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Compact binary snapshot of the admin units of an {@link AdminUnitsCache}, so that the cache can be
+ * loaded without parsing the NeTEx file again.
+ * <p>
+ * The admin units are written in the iteration order of the cache maps, with their polygons as packed
+ * x,y doubles, and read back in the same order. The spatial indexes are rebuilt from the polygon envelopes
+ * when loading, which takes a few milliseconds.
+ */
+public final class AdminUnitsCacheSnapshot {
+
+    /**
+     * Part of the snapshot names, so the snapshots of older versions are not loaded. Must be bumped whenever
+     * the snapshot format or the contents of the cache built from the same admin units file change,
+     * as the filtering of the admin units or the polygons made of them, otherwise the runs would keep loading
+     * the snapshots of the previous cache.
+     */
+    public static final int VERSION = 1;
+
+    private static final int MAGIC = 0x48415941; // HAYA
+
+    private AdminUnitsCacheSnapshot() {
+    }
+
+    public static void write(AdminUnitsCache adminUnitsCache, OutputStream outputStream) throws IOException {
+        var output = new DataOutputStream(outputStream);
+        output.writeInt(MAGIC);
+        output.writeInt(VERSION);
+        writeAdminUnits(output, adminUnitsCache.countries().values());
+        writeAdminUnits(output, adminUnitsCache.counties().values());
+        writeAdminUnits(output, adminUnitsCache.localities().values());
+        output.flush();
+    }
+
+    /**
+     * Reads the snapshot from a memory mapped file.
+     */
+    public static AdminUnitsCache read(Path path) throws IOException {
+        try (var fileChannel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return read(fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, fileChannel.size()));
+        }
+    }
+
+    public static AdminUnitsCache read(ByteBuffer input) throws IOException {
+        if (input.getInt() != MAGIC) {
+            throw new IOException("Not an admin units cache snapshot");
+        }
+        int version = input.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported admin units cache snapshot version " + version);
+        }
+        var countries = readAdminUnits(input);
+        var counties = readAdminUnits(input);
+        var localities = readAdminUnits(input);
+        return new AdminUnitsCache(countries, counties, localities);
+    }
+
+    private static void writeAdminUnits(DataOutputStream output, Collection<AdminUnit> adminUnits) throws IOException {
+        output.writeInt(adminUnits.size());
+        for (AdminUnit adminUnit : adminUnits) {
+            writePeliasId(output, adminUnit.id());
+            writeString(output, adminUnit.isoCode());
+            writePeliasId(output, adminUnit.parentId());
+            writeString(output, adminUnit.name());
+            writeString(output, adminUnit.countryRef());
+            output.writeByte(adminUnit.adminUnitType().ordinal());
+            writePolygon(output, adminUnit.geometry());
+        }
+    }
+
+    private static Map<PeliasId, AdminUnit> readAdminUnits(ByteBuffer input) {
+        int count = input.getInt();
+        var adminUnits = new LinkedHashMap<PeliasId, AdminUnit>(count * 2);
+        for (int i = 0; i < count; i++) {
+            var id = readPeliasId(input);
+            var isoCode = readString(input);
+            var parentId = readPeliasId(input);
+            var name = readString(input);
+            var countryRef = readString(input);
+            var adminUnitType = AdminUnitType.values()[input.get()];
+            var adminUnit = new AdminUnit(id, isoCode, parentId, name, countryRef, readPolygon(input), adminUnitType);
+            adminUnits.put(adminUnit.id(), adminUnit);
+        }
+        return adminUnits;
+    }
+
+    private static void writePolygon(DataOutputStream output, Polygon polygon) throws IOException {
+        if (polygon == null) {
+            output.writeInt(-1);
+            return;
+        }
+        CoordinateSequence coordinates = polygon.getExteriorRing().getCoordinateSequence();
+        output.writeInt(coordinates.size());
+        for (int i = 0; i < coordinates.size(); i++) {
+            output.writeDouble(coordinates.getX(i));
+            output.writeDouble(coordinates.getY(i));
+        }
+    }
+
+    private static Polygon readPolygon(ByteBuffer input) {
+        int size = input.getInt();
+        if (size < 0) {
+            return null;
+        }
+        // The x,y doubles are read in bulk, in the packed layout of the polygon coordinates.
+        var coordinates = new double[size * 2];
+        input.asDoubleBuffer().get(coordinates);
+        input.position(input.position() + coordinates.length * Double.BYTES);
+        return PackedPolygon.createPolygon(coordinates);
+    }
+
+    private static void writePeliasId(DataOutputStream output, PeliasId peliasId) throws IOException {
+        output.writeBoolean(peliasId != null);
+        if (peliasId != null) {
+            writeString(output, peliasId.source());
+            writeString(output, peliasId.layer());
+            writeString(output, peliasId.id());
+        }
+    }
+
+    private static PeliasId readPeliasId(ByteBuffer input) {
+        if (input.get() == 0) {
+            return null;
+        }
+        return new PeliasId(readString(input), readString(input), readString(input));
+    }
+
+    private static void writeString(DataOutputStream output, String value) throws IOException {
+        if (value == null) {
+            output.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    private static String readString(ByteBuffer input) {
+        int length = input.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        input.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,177 @@
+package org.entur.haya.adminUnitsCache;
+
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.Point;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Grid of square cells over the extent of a set of admin units, where each cell records either
+ * the admin unit that all its points resolve to, possibly none, or the admin units to test for the points
+ * of the cell, when it is crossed by a polygon boundary.
+ * <p>
+ * The grid is classified top-down, in blocks of cells that are split in four until each block resolves to
+ * a single admin unit or is a single cell, each block only testing the admin units that touch its parent block.
+ * The candidate lists of the boundary cells are shared between the cells with the same candidates.
+ */
+final class AdminUnitsGrid {
+
+    private static final GeometryFactory geometryFactory = new GeometryFactory();
+
+    private static final int NO_ADMIN_UNIT = 0;
+
+    private final AdminUnitsIndex.IndexedAdminUnit[] adminUnits;
+    private final double minX;
+    private final double minY;
+    private final double cellSize;
+    private final int columns;
+    private final int rows;
+
+    /**
+     * NO_ADMIN_UNIT, the ordinal + 1 of the admin unit that covers the cell,
+     * or -(index of the candidate list + 1) for the boundary cells.
+     */
+    private final int[] cells;
+    private final List<AdminUnitsIndex.IndexedAdminUnit[]> candidateLists = new ArrayList<>();
+    private final Map<List<Integer>, Integer> candidateListIndexes = new HashMap<>();
+
+    AdminUnitsGrid(List<AdminUnitsIndex.IndexedAdminUnit> indexedAdminUnits, int ordinals, double cellSize) {
+        this.cellSize = cellSize;
+        this.adminUnits = new AdminUnitsIndex.IndexedAdminUnit[ordinals];
+        var extent = new Envelope();
+        for (var indexedAdminUnit : indexedAdminUnits) {
+            adminUnits[indexedAdminUnit.ordinal()] = indexedAdminUnit;
+            extent.expandToInclude(indexedAdminUnit.polygon().envelope());
+        }
+        if (extent.isNull()) {
+            this.minX = 0;
+            this.minY = 0;
+            this.columns = 0;
+            this.rows = 0;
+            this.cells = new int[0];
+            return;
+        }
+        this.minX = origin(extent.getMinX(), cellSize);
+        this.minY = origin(extent.getMinY(), cellSize);
+        this.columns = (int) Math.floor((extent.getMaxX() - minX) / cellSize) + 1;
+        this.rows = (int) Math.floor((extent.getMaxY() - minY) / cellSize) + 1;
+        this.cells = new int[Math.multiplyExact(columns, rows)];
+
+        int blockSize = Integer.highestOneBit(Math.max(columns, rows) - 1) << 1;
+        classify(0, 0, Math.max(blockSize, 1), indexedAdminUnits);
+    }
+
+    AdminUnit getAdminUnitForPoint(Point point, EnrichmentStatistics statistics) {
+        int column = (int) Math.floor((point.getX() - minX) / cellSize);
+        int row = (int) Math.floor((point.getY() - minY) / cellSize);
+        if (column < 0 || row < 0 || column >= columns || row >= rows) {
+            return null;
+        }
+        int cell = cells[row * columns + column];
+        if (cell > NO_ADMIN_UNIT) {
+            return adminUnits[cell - 1].adminUnit();
+        }
+        if (cell == NO_ADMIN_UNIT) {
+            return null;
+        }
+        for (var candidate : candidateLists.get(-cell - 1)) {
+            if (candidate.polygon().covers(point.getX(), point.getY(), statistics)) {
+                return candidate.adminUnit();
+            }
+        }
+        return null;
+    }
+
+    int boundaryCells() {
+        int boundaryCells = 0;
+        for (int cell : cells) {
+            if (cell < NO_ADMIN_UNIT) {
+                boundaryCells++;
+            }
+        }
+        return boundaryCells;
+    }
+
+    int cells() {
+        return cells.length;
+    }
+
+    /**
+     * The multiple of the cell size at or below the given minimum, so that the points at the minimum are in the grid,
+     * the product being rounded up past the minimum for some cell sizes, as 579 * 0.1 past 57.9.
+     */
+    private static double origin(double min, double cellSize) {
+        double origin = Math.floor(min / cellSize) * cellSize;
+        return origin > min ? origin - cellSize : origin;
+    }
+
+    /**
+     * @param candidates The admin units touching the parent block, in ordinal order.
+     */
+    private void classify(int column, int row, int size, List<AdminUnitsIndex.IndexedAdminUnit> candidates) {
+        if (column >= columns || row >= rows) {
+            return;
+        }
+        Envelope block = blockEnvelope(column, row, size);
+        Geometry blockPolygon = geometryFactory.toGeometry(block);
+
+        List<AdminUnitsIndex.IndexedAdminUnit> touching = new ArrayList<>();
+        for (var candidate : candidates) {
+            if (candidate.polygon().envelope().intersects(block)
+                    && candidate.polygon().preparedPolygon().intersects(blockPolygon)) {
+                touching.add(candidate);
+                // The later candidates are never reached for the points of the block.
+                if (candidate.polygon().preparedPolygon().covers(blockPolygon)) {
+                    break;
+                }
+            }
+        }
+
+        if (touching.isEmpty()) {
+            fill(column, row, size, NO_ADMIN_UNIT);
+        } else if (touching.size() == 1 && touching.get(0).polygon().preparedPolygon().covers(blockPolygon)) {
+            fill(column, row, size, touching.get(0).ordinal() + 1);
+        } else if (size == 1) {
+            fill(column, row, size, -internCandidateList(touching) - 1);
+        } else {
+            int half = size / 2;
+            classify(column, row, half, touching);
+            classify(column + half, row, half, touching);
+            classify(column, row + half, half, touching);
+            classify(column + half, row + half, half, touching);
+        }
+    }
+
+    /**
+     * The block, widened a little, so that it contains all the points rounded down to its cells
+     * in spite of the floating point errors.
+     */
+    private Envelope blockEnvelope(int column, int row, int size) {
+        double margin = cellSize * 1e-6;
+        return new Envelope(
+                minX + column * cellSize - margin, minX + (column + size) * cellSize + margin,
+                minY + row * cellSize - margin, minY + (row + size) * cellSize + margin);
+    }
+
+    private void fill(int column, int row, int size, int value) {
+        int lastColumn = Math.min(column + size, columns);
+        int lastRow = Math.min(row + size, rows);
+        for (int r = row; r < lastRow; r++) {
+            Arrays.fill(cells, r * columns + column, r * columns + lastColumn, value);
+        }
+    }
+
+    private int internCandidateList(List<AdminUnitsIndex.IndexedAdminUnit> candidates) {
+        List<Integer> ordinals = candidates.stream().map(AdminUnitsIndex.IndexedAdminUnit::ordinal).toList();
+        return candidateListIndexes.computeIfAbsent(ordinals, key -> {
+            candidateLists.add(candidates.toArray(AdminUnitsIndex.IndexedAdminUnit[]::new));
+            return candidateLists.size() - 1;
+        });
+    }
+}
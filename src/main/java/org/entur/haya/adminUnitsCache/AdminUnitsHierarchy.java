@@ -0,0 +1,110 @@
+package org.entur.haya.adminUnitsCache;
+
+import org.entur.geocoder.model.PeliasId;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Point;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Top-down reverse geocoding over the admin units: the containing country is found first, then
+ * only the counties of that country are tested, and then only the localities of the matching county.
+ * <p>
+ * Counties whose country has no polygon (Norway, for now) are tested when no country matches,
+ * and localities without a known county are tested when no county matches.
+ */
+public final class AdminUnitsHierarchy {
+
+    private static final AdminUnitsIndex EMPTY_INDEX = new AdminUnitsIndex(List.of());
+
+    private final Envelope extent = new Envelope();
+    private final AdminUnitsIndex countriesIndex;
+    private final Map<String, AdminUnitsIndex> countiesByCountryRef;
+    private final AdminUnitsIndex countiesWithoutCountry;
+    private final Map<PeliasId, AdminUnitsIndex> localitiesByCounty;
+    private final AdminUnitsIndex localitiesWithoutCounty;
+
+    AdminUnitsHierarchy(Map<PeliasId, AdminUnit> countries,
+                        Map<PeliasId, AdminUnit> counties,
+                        Map<PeliasId, AdminUnit> localities) {
+
+        Set<String> countryRefs = countries.values().stream()
+                .map(AdminUnit::countryRef)
+                .collect(Collectors.toSet());
+
+        this.countriesIndex = new AdminUnitsIndex(countries.values());
+        this.countiesByCountryRef = groupBy(counties.values(), AdminUnit::countryRef, countryRefs::contains);
+        this.countiesWithoutCountry = makeIndex(counties.values(), county -> !countryRefs.contains(county.countryRef()));
+        this.localitiesByCounty = groupBy(localities.values(), AdminUnit::parentId, counties::containsKey);
+        this.localitiesWithoutCounty = makeIndex(localities.values(),
+                locality -> locality.parentId() == null || !counties.containsKey(locality.parentId()));
+
+        Stream.of(countries, counties, localities)
+                .flatMap(adminUnits -> adminUnits.values().stream())
+                .filter(adminUnit -> adminUnit.geometry() != null)
+                .forEach(adminUnit -> extent.expandToInclude(adminUnit.geometry().getEnvelopeInternal()));
+    }
+
+    AdminUnitsForPoint getAdminUnitsForPoint(Point point, EnrichmentStatistics statistics) {
+        // A single envelope test rejects the points outside all admin units.
+        if (!extent.covers(point.getX(), point.getY())) {
+            return AdminUnitsForPoint.NONE;
+        }
+
+        var country = countriesIndex.getAdminUnitForPoint(point, statistics);
+        var county = getCountyForPoint(point, country, statistics);
+        var locality = county != null
+                ? localitiesByCounty.getOrDefault(county.id(), EMPTY_INDEX).getAdminUnitForPoint(point, statistics)
+                : localitiesWithoutCounty.getAdminUnitForPoint(point, statistics);
+
+        return new AdminUnitsForPoint(locality, county, country);
+    }
+
+    /**
+     * The county of the point, found by testing only the country and its counties, without going down to the localities.
+     */
+    AdminUnit getCountyForPoint(Point point, EnrichmentStatistics statistics) {
+        if (!extent.covers(point.getX(), point.getY())) {
+            return null;
+        }
+        return getCountyForPoint(point, countriesIndex.getAdminUnitForPoint(point, statistics), statistics);
+    }
+
+    private AdminUnit getCountyForPoint(Point point, AdminUnit country, EnrichmentStatistics statistics) {
+        AdminUnit county = null;
+        if (country != null) {
+            county = countiesByCountryRef.getOrDefault(country.countryRef(), EMPTY_INDEX).getAdminUnitForPoint(point, statistics);
+        }
+        if (county == null) {
+            county = countiesWithoutCountry.getAdminUnitForPoint(point, statistics);
+        }
+        return county;
+    }
+
+    private static <K> Map<K, AdminUnitsIndex> groupBy(Collection<AdminUnit> adminUnits,
+                                                       Function<AdminUnit, K> keyMapper,
+                                                       Predicate<K> keyFilter) {
+        return adminUnits.stream()
+                .filter(adminUnit -> keyMapper.apply(adminUnit) != null)
+                .filter(adminUnit -> keyFilter.test(keyMapper.apply(adminUnit)))
+                .collect(Collectors.groupingBy(keyMapper, LinkedHashMap::new, Collectors.toList()))
+                .entrySet().stream()
+                .collect(Collectors.toUnmodifiableMap(Map.Entry::getKey, entry -> new AdminUnitsIndex(entry.getValue())));
+    }
+
+    private static AdminUnitsIndex makeIndex(Collection<AdminUnit> adminUnits, Predicate<AdminUnit> filter) {
+        return new AdminUnitsIndex(adminUnits.stream().filter(filter).toList());
+    }
+
+    public record AdminUnitsForPoint(AdminUnit locality, AdminUnit county, AdminUnit country) {
+        static final AdminUnitsForPoint NONE = new AdminUnitsForPoint(null, null, null);
+    }
+}
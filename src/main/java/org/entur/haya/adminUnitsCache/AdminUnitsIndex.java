@@ -0,0 +1,118 @@
+package org.entur.haya.adminUnitsCache;
+
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.Point;
+import org.locationtech.jts.index.strtree.STRtree;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * STRtree index over the polygon envelopes of a set of admin units.
+ * Only the units whose envelope contains the point are tested, on their packed polygon coordinates.
+ */
+public final class AdminUnitsIndex {
+
+    private static final GeometryFactory geometryFactory = new GeometryFactory();
+
+    private final STRtree tree;
+    private final List<IndexedAdminUnit> indexedAdminUnits;
+    private final int ordinals;
+    private final AdminUnitsGrid grid;
+
+    AdminUnitsIndex(Collection<AdminUnit> adminUnits) {
+        this.tree = new STRtree();
+        var indexedAdminUnits = new ArrayList<IndexedAdminUnit>();
+        int ordinal = 0;
+        for (AdminUnit adminUnit : adminUnits) {
+            var polygon = adminUnit.geometry();
+            if (polygon != null) {
+                var indexedAdminUnit = new IndexedAdminUnit(ordinal, adminUnit, PackedPolygon.of(polygon));
+                tree.insert(indexedAdminUnit.polygon().envelope(), indexedAdminUnit);
+                indexedAdminUnits.add(indexedAdminUnit);
+            }
+            ordinal++;
+        }
+        // Building up front, as the tree is not safe for concurrent lazy building on first query.
+        tree.build();
+        this.indexedAdminUnits = List.copyOf(indexedAdminUnits);
+        this.ordinals = ordinal;
+        this.grid = null;
+    }
+
+    private AdminUnitsIndex(AdminUnitsIndex index, AdminUnitsGrid grid) {
+        this.tree = index.tree;
+        this.indexedAdminUnits = index.indexedAdminUnits;
+        this.ordinals = index.ordinals;
+        this.grid = grid;
+    }
+
+    /**
+     * Returns the same index, answering the point lookups from a grid of the given cell size in degrees.
+     */
+    AdminUnitsIndex withGrid(double cellSize) {
+        return new AdminUnitsIndex(this, new AdminUnitsGrid(indexedAdminUnits, ordinals, cellSize));
+    }
+
+    AdminUnitsGrid grid() {
+        return grid;
+    }
+
+    /**
+     * @param statistics Counts the point in polygon tests, or null.
+     */
+    AdminUnit getAdminUnitForPoint(Point point, EnrichmentStatistics statistics) {
+        if (grid != null) {
+            return grid.getAdminUnitForPoint(point, statistics);
+        }
+        @SuppressWarnings("unchecked")
+        List<IndexedAdminUnit> candidates = tree.query(point.getEnvelopeInternal());
+        if (candidates.size() > 1) {
+            // Test in the order of the given collection, so overlapping polygons resolve
+            // to the same admin unit as a linear scan over that collection.
+            candidates.sort(Comparator.comparingInt(IndexedAdminUnit::ordinal));
+        }
+        for (IndexedAdminUnit candidate : candidates) {
+            if (candidate.polygon().covers(point.getX(), point.getY(), statistics)) {
+                return candidate.adminUnit();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the admin unit that all the points of the given area resolve to, possibly none,
+     * or null if they do not all resolve to the same admin unit.
+     */
+    UniformAdminUnit getUniformAdminUnitForArea(Envelope area) {
+        @SuppressWarnings("unchecked")
+        List<IndexedAdminUnit> candidates = tree.query(area);
+        if (candidates.isEmpty()) {
+            return UniformAdminUnit.NONE;
+        }
+        candidates.sort(Comparator.comparingInt(IndexedAdminUnit::ordinal));
+        Geometry areaPolygon = geometryFactory.toGeometry(area);
+        for (IndexedAdminUnit candidate : candidates) {
+            // The first candidate touching the area must cover all of it,
+            // otherwise some points of the area resolve to a later candidate, or to none.
+            if (candidate.polygon().preparedPolygon().covers(areaPolygon)) {
+                return new UniformAdminUnit(candidate.adminUnit());
+            }
+            if (candidate.polygon().preparedPolygon().intersects(areaPolygon)) {
+                return null;
+            }
+        }
+        return UniformAdminUnit.NONE;
+    }
+
+    record UniformAdminUnit(AdminUnit adminUnit) {
+        static final UniformAdminUnit NONE = new UniformAdminUnit(null);
+    }
+
+    record IndexedAdminUnit(int ordinal, AdminUnit adminUnit, PackedPolygon polygon) {
+    }
+}
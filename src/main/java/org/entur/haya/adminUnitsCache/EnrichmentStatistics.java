@@ -0,0 +1,74 @@
+package org.entur.haya.adminUnitsCache;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts of the paths taken by the parents info enrichment, updated by all the enricher threads.
+ * <p>
+ * Each document is counted once, either as resolved from the parent chain of its given parent id,
+ * or by reverse geocoding its center point. The countries are counted per lookup, as the country of
+ * a document can be looked up more than once, from the parent chain by country code, or by reverse geocoding.
+ */
+public final class EnrichmentStatistics {
+
+    private final LongAdder documents = new LongAdder();
+    private final LongAdder parentChainHits = new LongAdder();
+    private final LongAdder reverseGeocoded = new LongAdder();
+    private final LongAdder countriesByCountryCode = new LongAdder();
+    private final LongAdder countriesByReverseGeocoding = new LongAdder();
+    private final LongAdder polygonTests = new LongAdder();
+    private final LongAdder nanos = new LongAdder();
+
+    void documentEnriched(boolean fromParentChain, long nanos) {
+        documents.increment();
+        (fromParentChain ? parentChainHits : reverseGeocoded).increment();
+        this.nanos.add(nanos);
+    }
+
+    void documentSkipped(long nanos) {
+        documents.increment();
+        this.nanos.add(nanos);
+    }
+
+    void countryFound(boolean byCountryCode) {
+        (byCountryCode ? countriesByCountryCode : countriesByReverseGeocoding).increment();
+    }
+
+    /**
+     * Counts a point in polygon test that got past the envelope of the polygon.
+     */
+    void polygonTested() {
+        polygonTests.increment();
+    }
+
+    public long documents() {
+        return documents.sum();
+    }
+
+    public long parentChainHits() {
+        return parentChainHits.sum();
+    }
+
+    public long reverseGeocoded() {
+        return reverseGeocoded.sum();
+    }
+
+    public long countriesByCountryCode() {
+        return countriesByCountryCode.sum();
+    }
+
+    public long countriesByReverseGeocoding() {
+        return countriesByReverseGeocoding.sum();
+    }
+
+    public long polygonTests() {
+        return polygonTests.sum();
+    }
+
+    /**
+     * The time spent enriching, summed over all the enricher threads.
+     */
+    public long nanos() {
+        return nanos.sum();
+    }
+}
@@ -0,0 +1,203 @@
+package org.entur.haya.adminUnitsCache;
+
+import org.locationtech.jts.algorithm.CGAlgorithmsDD;
+import org.locationtech.jts.algorithm.Orientation;
+import org.locationtech.jts.geom.CoordinateSequence;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.Polygon;
+import org.locationtech.jts.geom.impl.PackedCoordinateSequence;
+import org.locationtech.jts.geom.impl.PackedCoordinateSequenceFactory;
+import org.locationtech.jts.geom.prep.PreparedGeometry;
+import org.locationtech.jts.geom.prep.PreparedGeometryFactory;
+
+/**
+ * The exterior ring of an admin unit polygon as packed x,y doubles, with a point in polygon test
+ * working directly on them, instead of on a prepared polygon holding a segment object per edge.
+ * <p>
+ * The test counts the crossings of a ray to the right of the point, as the JTS RayCrossingCounter does,
+ * so a point covered by the prepared polygon is covered here as well, boundary included. The edges are
+ * bucketed by latitude on the first test, so that only the edges around the point are counted.
+ */
+final class PackedPolygon {
+
+    private static final GeometryFactory geometryFactory =
+            new GeometryFactory(PackedCoordinateSequenceFactory.DOUBLE_FACTORY);
+
+    private static final int EDGES_PER_BUCKET = 8;
+    private static final int ON_BOUNDARY = -1;
+
+    private final Polygon polygon;
+    private final double[] coordinates;
+    private final Envelope envelope;
+
+    private volatile EdgeBuckets edgeBuckets;
+    private volatile PreparedGeometry preparedPolygon;
+
+    private PackedPolygon(Polygon polygon, double[] coordinates) {
+        this.polygon = polygon;
+        this.coordinates = coordinates;
+        this.envelope = polygon.getEnvelopeInternal();
+    }
+
+    /**
+     * Creates a polygon backed by the given x,y coordinates of a closed ring, without copying them.
+     */
+    static Polygon createPolygon(double[] coordinates) {
+        return geometryFactory.createPolygon(new PackedCoordinateSequence.Double(coordinates, 2, 0));
+    }
+
+    /**
+     * Creates a polygon backed by a packed copy of the x,y coordinates of the given ring.
+     */
+    static Polygon createPolygon(CoordinateSequence ring) {
+        return createPolygon(toCoordinates(ring));
+    }
+
+    /**
+     * Shares the coordinates of the polygons created by {@link #createPolygon}, and copies them otherwise.
+     */
+    static PackedPolygon of(Polygon polygon) {
+        CoordinateSequence ring = polygon.getExteriorRing().getCoordinateSequence();
+        if (ring instanceof PackedCoordinateSequence.Double packedRing && packedRing.getDimension() == 2) {
+            return new PackedPolygon(polygon, packedRing.getRawCoordinates());
+        }
+        return new PackedPolygon(polygon, toCoordinates(ring));
+    }
+
+    private static double[] toCoordinates(CoordinateSequence ring) {
+        var coordinates = new double[ring.size() * 2];
+        for (int i = 0; i < ring.size(); i++) {
+            coordinates[2 * i] = ring.getX(i);
+            coordinates[2 * i + 1] = ring.getY(i);
+        }
+        return coordinates;
+    }
+
+    Envelope envelope() {
+        return envelope;
+    }
+
+    /**
+     * Tests whether the point is in the interior or on the boundary of the polygon.
+     *
+     * @param statistics Counts the tests that get past the envelope test, or null.
+     */
+    boolean covers(double x, double y, EnrichmentStatistics statistics) {
+        if (!envelope.covers(x, y)) {
+            return false;
+        }
+        if (statistics != null) {
+            statistics.polygonTested();
+        }
+        EdgeBuckets buckets = edgeBuckets;
+        if (buckets == null) {
+            buckets = new EdgeBuckets(coordinates, envelope);
+            edgeBuckets = buckets;
+        }
+        int bucket = buckets.bucket(y);
+        int crossings = 0;
+        for (int i = buckets.offsets[bucket]; i < buckets.offsets[bucket + 1]; i++) {
+            int crossing = countEdge(buckets.edges[i], x, y);
+            if (crossing == ON_BOUNDARY) {
+                return true;
+            }
+            crossings += crossing;
+        }
+        return (crossings & 1) == 1;
+    }
+
+    /**
+     * The prepared polygon, for the area tests, made on first use.
+     */
+    PreparedGeometry preparedPolygon() {
+        PreparedGeometry prepared = preparedPolygon;
+        if (prepared == null) {
+            prepared = PreparedGeometryFactory.prepare(polygon);
+            preparedPolygon = prepared;
+        }
+        return prepared;
+    }
+
+    /**
+     * @return 1 if the edge crosses the ray to the right of the point, 0 if not,
+     * or ON_BOUNDARY if the point is on the edge.
+     */
+    private int countEdge(int edge, double x, double y) {
+        double x1 = coordinates[2 * edge];
+        double y1 = coordinates[2 * edge + 1];
+        double x2 = coordinates[2 * edge + 2];
+        double y2 = coordinates[2 * edge + 3];
+
+        if (x1 < x && x2 < x) {
+            return 0;
+        }
+        if (x == x2 && y == y2) {
+            return ON_BOUNDARY;
+        }
+        if (y1 == y && y2 == y) {
+            return x >= Math.min(x1, x2) && x <= Math.max(x1, x2) ? ON_BOUNDARY : 0;
+        }
+        if ((y1 > y && y2 <= y) || (y2 > y && y1 <= y)) {
+            int orientation = CGAlgorithmsDD.orientationIndex(x1, y1, x2, y2, x, y);
+            if (orientation == Orientation.COLLINEAR) {
+                return ON_BOUNDARY;
+            }
+            // The crossing counts when the point is to the left of the edge going upwards.
+            if (y2 < y1) {
+                orientation = -orientation;
+            }
+            return orientation == Orientation.LEFT ? 1 : 0;
+        }
+        return 0;
+    }
+
+    /**
+     * The edges of the ring grouped in latitude buckets, each edge being listed in all the buckets
+     * its latitude range overlaps, so that the bucket of a point lists every edge the point can be on
+     * or whose crossing can count.
+     */
+    private static final class EdgeBuckets {
+
+        private final double minY;
+        private final double scale;
+        private final int[] offsets;
+        private final int[] edges;
+
+        EdgeBuckets(double[] coordinates, Envelope envelope) {
+            int edgeCount = Math.max(0, coordinates.length / 2 - 1);
+            int bucketCount = Math.max(1, edgeCount / EDGES_PER_BUCKET);
+            this.minY = envelope.getMinY();
+            this.scale = envelope.getHeight() > 0 ? bucketCount / envelope.getHeight() : 0;
+            this.offsets = new int[bucketCount + 1];
+
+            for (int edge = 0; edge < edgeCount; edge++) {
+                for (int bucket = firstBucket(coordinates, edge); bucket <= lastBucket(coordinates, edge); bucket++) {
+                    offsets[bucket + 1]++;
+                }
+            }
+            for (int bucket = 0; bucket < bucketCount; bucket++) {
+                offsets[bucket + 1] += offsets[bucket];
+            }
+            this.edges = new int[offsets[bucketCount]];
+            int[] positions = new int[bucketCount];
+            for (int edge = 0; edge < edgeCount; edge++) {
+                for (int bucket = firstBucket(coordinates, edge); bucket <= lastBucket(coordinates, edge); bucket++) {
+                    edges[offsets[bucket] + positions[bucket]++] = edge;
+                }
+            }
+        }
+
+        int bucket(double y) {
+            return Math.min(offsets.length - 2, Math.max(0, (int) ((y - minY) * scale)));
+        }
+
+        private int firstBucket(double[] coordinates, int edge) {
+            return bucket(Math.min(coordinates[2 * edge + 1], coordinates[2 * edge + 3]));
+        }
+
+        private int lastBucket(double[] coordinates, int edge) {
+            return bucket(Math.max(coordinates[2 * edge + 1], coordinates[2 * edge + 3]));
+        }
+    }
+}
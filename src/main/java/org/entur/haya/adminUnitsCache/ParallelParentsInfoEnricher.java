@@ -0,0 +1,248 @@
+package org.entur.haya.adminUnitsCache;
+
+import org.entur.geocoder.model.PeliasDocument;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Enriches the documents with parents info on a pool of worker threads.
+ * <p>
+ * A reader thread pulls the documents from the source stream in batches and hands them to the workers.
+ * The enriched batches are returned in the source order when ordered, or as soon as they are done otherwise.
+ * At most {@code queueCapacity} batches are in flight between the reader and the consumer of the returned stream,
+ * so the memory use does not depend on the number of documents.
+ * <p>
+ * All the workers share the same {@link AdminUnitsCache}, which is not modified after it is built.
+ */
+public final class ParallelParentsInfoEnricher {
+
+    private static final AtomicInteger poolNumber = new AtomicInteger();
+
+    private final ParentsInfoEnricher parentsInfoEnricher;
+    private final int workers;
+    private final int batchSize;
+    private final int queueCapacity;
+    private final boolean ordered;
+
+    public ParallelParentsInfoEnricher(ParentsInfoEnricher parentsInfoEnricher,
+                                       int workers,
+                                       int batchSize,
+                                       int queueCapacity,
+                                       boolean ordered) {
+        this.parentsInfoEnricher = parentsInfoEnricher;
+        this.workers = workers;
+        this.batchSize = batchSize;
+        this.queueCapacity = queueCapacity;
+        this.ordered = ordered;
+    }
+
+    public Stream<PeliasDocument> enrichParentsInfo(Stream<PeliasDocument> peliasDocuments) {
+        var pipeline = ordered ? new OrderedPipeline(peliasDocuments) : new UnorderedPipeline(peliasDocuments);
+        pipeline.start();
+        return StreamSupport.stream(
+                        Spliterators.spliteratorUnknownSize(pipeline, Spliterator.NONNULL | (ordered ? Spliterator.ORDERED : 0)),
+                        false)
+                .onClose(pipeline::stop)
+                .onClose(peliasDocuments::close);
+    }
+
+    private List<PeliasDocument> enrichBatch(List<PeliasDocument> batch) {
+        batch.replaceAll(parentsInfoEnricher::enrichParentsInfo);
+        return batch;
+    }
+
+    /**
+     * Reads the source stream on its own thread, and iterates over the enriched documents in batches.
+     */
+    private abstract class Pipeline implements Iterator<PeliasDocument> {
+
+        private final Stream<PeliasDocument> peliasDocuments;
+        private final int poolId = poolNumber.incrementAndGet();
+        protected final ExecutorService enrichers = Executors.newFixedThreadPool(workers, threadFactory("enricher"));
+        private final Thread reader = threadFactory("reader").newThread(this::read);
+
+        private Iterator<PeliasDocument> currentBatch = List.<PeliasDocument>of().iterator();
+        private boolean done;
+
+        Pipeline(Stream<PeliasDocument> peliasDocuments) {
+            this.peliasDocuments = peliasDocuments;
+        }
+
+        void start() {
+            reader.start();
+        }
+
+        void stop() {
+            reader.interrupt();
+            enrichers.shutdownNow();
+        }
+
+        private void read() {
+            try {
+                List<PeliasDocument> batch = new ArrayList<>(batchSize);
+                Iterator<PeliasDocument> iterator = peliasDocuments.iterator();
+                while (iterator.hasNext()) {
+                    batch.add(iterator.next());
+                    if (batch.size() == batchSize) {
+                        submit(batch);
+                        batch = new ArrayList<>(batchSize);
+                    }
+                }
+                if (!batch.isEmpty()) {
+                    submit(batch);
+                }
+                finish(null);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Throwable e) {
+                try {
+                    finish(e);
+                } catch (InterruptedException interruptedException) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (!currentBatch.hasNext() && !done) {
+                try {
+                    List<PeliasDocument> batch = takeBatch();
+                    if (batch == null) {
+                        done = true;
+                        enrichers.shutdown();
+                    } else {
+                        currentBatch = batch.iterator();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    stop();
+                    throw new IllegalStateException("Interrupted while waiting for enriched documents", e);
+                } catch (ExecutionException e) {
+                    stop();
+                    throw new IllegalStateException("Failed to enrich the documents", e.getCause());
+                }
+            }
+            return currentBatch.hasNext();
+        }
+
+        @Override
+        public PeliasDocument next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return currentBatch.next();
+        }
+
+        /**
+         * Hands a batch of documents over to the enrichers, blocking while too many batches are in flight.
+         */
+        abstract void submit(List<PeliasDocument> batch) throws InterruptedException;
+
+        /**
+         * Marks the end of the source stream, or the failure to read it.
+         */
+        abstract void finish(Throwable failure) throws InterruptedException;
+
+        /**
+         * Returns the next enriched batch, or null when there are no more batches.
+         */
+        abstract List<PeliasDocument> takeBatch() throws InterruptedException, ExecutionException;
+
+        private ThreadFactory threadFactory(String role) {
+            var threadNumber = new AtomicInteger();
+            return runnable -> {
+                var thread = new Thread(runnable, "parents-info-" + poolId + "-" + role + "-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            };
+        }
+    }
+
+    /**
+     * Keeps the futures of the batches in submission order, and waits for each of them in turn.
+     */
+    private final class OrderedPipeline extends Pipeline {
+
+        private static final Future<List<PeliasDocument>> END = CompletableFuture.completedFuture(null);
+
+        private final BlockingQueue<Future<List<PeliasDocument>>> batches = new ArrayBlockingQueue<>(queueCapacity);
+
+        OrderedPipeline(Stream<PeliasDocument> peliasDocuments) {
+            super(peliasDocuments);
+        }
+
+        @Override
+        void submit(List<PeliasDocument> batch) throws InterruptedException {
+            batches.put(enrichers.submit(() -> enrichBatch(batch)));
+        }
+
+        @Override
+        void finish(Throwable failure) throws InterruptedException {
+            batches.put(failure == null ? END : CompletableFuture.failedFuture(failure));
+        }
+
+        @Override
+        List<PeliasDocument> takeBatch() throws InterruptedException, ExecutionException {
+            return batches.take().get();
+        }
+    }
+
+    /**
+     * Collects the batches as they are done, with a semaphore limiting the number of batches in flight.
+     */
+    private final class UnorderedPipeline extends Pipeline {
+
+        private final BlockingQueue<Future<List<PeliasDocument>>> batches = new ArrayBlockingQueue<>(queueCapacity + 1);
+        private final Semaphore inFlight = new Semaphore(queueCapacity);
+
+        UnorderedPipeline(Stream<PeliasDocument> peliasDocuments) {
+            super(peliasDocuments);
+        }
+
+        @Override
+        void submit(List<PeliasDocument> batch) throws InterruptedException {
+            inFlight.acquire();
+            enrichers.execute(() -> {
+                Future<List<PeliasDocument>> enrichedBatch;
+                try {
+                    enrichedBatch = CompletableFuture.completedFuture(enrichBatch(batch));
+                } catch (Throwable e) {
+                    enrichedBatch = CompletableFuture.failedFuture(e);
+                }
+                batches.add(enrichedBatch);
+            });
+        }
+
+        @Override
+        void finish(Throwable failure) throws InterruptedException {
+            // Waits for the batches in flight, so the end is the last one to be taken.
+            inFlight.acquire(queueCapacity);
+            batches.add(failure == null ? CompletableFuture.completedFuture(null) : CompletableFuture.failedFuture(failure));
+        }
+
+        @Override
+        List<PeliasDocument> takeBatch() throws InterruptedException, ExecutionException {
+            var batch = batches.take();
+            inFlight.release();
+            return batch.get();
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package org.entur.haya.adminUnitsCache;
+
+import org.entur.geocoder.model.PeliasId;
+
+/**
+ * The locality, county and country of an admin unit, resolved once from the parent and country
+ * references when the cache is built. Parents that could not be resolved by reference are null,
+ * and must be found by reverse geocoding instead.
+ */
+public record ParentChain(Parent locality, Parent county, Parent country) {
+
+    public record Parent(PeliasId id, String name, String abbr) {
+
+        static Parent of(AdminUnit adminUnit) {
+            return adminUnit != null ? new Parent(adminUnit.id(), adminUnit.name(), null) : null;
+        }
+    }
+}
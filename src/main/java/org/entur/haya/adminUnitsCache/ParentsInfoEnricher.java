@@ -3,14 +3,56 @@ package org.entur.haya.adminUnitsCache;
 import org.entur.geocoder.model.*;
 import org.locationtech.jts.geom.Coordinate;
 import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.Point;
 
 public class ParentsInfoEnricher {
 
     private final AdminUnitsCache adminUnitsCache;
     private final GeometryFactory geometryFactory = new GeometryFactory();
+    private final boolean hierarchicalReverseGeocoding;
+    private final ReverseGeocodingCache reverseGeocodingCache;
+    private final EnrichmentStatistics statistics;
 
     public ParentsInfoEnricher(AdminUnitsCache adminUnitsCache) {
+        this(adminUnitsCache, false);
+    }
+
+    public ParentsInfoEnricher(AdminUnitsCache adminUnitsCache, boolean hierarchicalReverseGeocoding) {
+        this(adminUnitsCache, hierarchicalReverseGeocoding, null);
+    }
+
+    /**
+     * @param hierarchicalReverseGeocoding Find the parents top-down, testing only the counties of the
+     *                                     containing country and the localities of the containing county,
+     *                                     instead of testing every locality, county and country on their own.
+     * @param reverseGeocodingCache        Cache for the reverse geocoding of the localities, counties and countries
+     *                                     on their own, or null. It does not descend the hierarchy, so it cannot be
+     *                                     given with the hierarchical reverse geocoding.
+     */
+    public ParentsInfoEnricher(AdminUnitsCache adminUnitsCache,
+                               boolean hierarchicalReverseGeocoding,
+                               ReverseGeocodingCache reverseGeocodingCache) {
+        this(adminUnitsCache, hierarchicalReverseGeocoding, reverseGeocodingCache, new EnrichmentStatistics());
+    }
+
+    /**
+     * @param statistics Counts of the enrichment paths taken, which can be shared by several enrichers.
+     */
+    public ParentsInfoEnricher(AdminUnitsCache adminUnitsCache,
+                               boolean hierarchicalReverseGeocoding,
+                               ReverseGeocodingCache reverseGeocodingCache,
+                               EnrichmentStatistics statistics) {
+        if (hierarchicalReverseGeocoding && reverseGeocodingCache != null) {
+            throw new IllegalArgumentException("The reverse geocoding cache cannot be used with the hierarchical reverse geocoding");
+        }
         this.adminUnitsCache = adminUnitsCache;
+        this.hierarchicalReverseGeocoding = hierarchicalReverseGeocoding;
+        this.reverseGeocodingCache = reverseGeocodingCache;
+        this.statistics = statistics;
+    }
+
+    public EnrichmentStatistics statistics() {
+        return statistics;
     }
 
     public PeliasDocument enrichParentsInfo(PeliasDocument peliasDocument) {
@@ -20,137 +62,208 @@ public class ParentsInfoEnricher {
             throw new IllegalArgumentException("Parents is null in the given PeliasDocument");
         }
 
+        long start = System.nanoTime();
+        boolean fromParentChain;
         if (peliasDocument.getParents().isOrphan()) {
-            tryAddingParentsForGivenId(null, peliasDocument.getCenterPoint(), peliasDocument.getParents());
+            fromParentChain = tryAddingParentsForGivenId(null, peliasDocument.getCenterPoint(), peliasDocument.getParents());
         } else if (peliasDocument.getParents().hasParentType(ParentType.UNKNOWN)) {
-            tryAddingParentsForGivenId(peliasDocument.getParents().idFor(ParentType.UNKNOWN), peliasDocument.getCenterPoint(), peliasDocument.getParents());
+            fromParentChain = tryAddingParentsForGivenId(peliasDocument.getParents().idFor(ParentType.UNKNOWN), peliasDocument.getCenterPoint(), peliasDocument.getParents());
         } else if (peliasDocument.getParents().hasParentType(ParentType.LOCALITY)) {
-            tryAddingParentsOfLocality(peliasDocument.getParents().idFor(ParentType.LOCALITY), peliasDocument.getCenterPoint(), peliasDocument.getParents());
+            fromParentChain = tryAddingParentsOfLocality(peliasDocument.getParents().idFor(ParentType.LOCALITY), peliasDocument.getCenterPoint(), peliasDocument.getParents());
         } else if (peliasDocument.getParents().hasParentType(ParentType.COUNTY)) {
-            tryAddingParentsOfCounty(peliasDocument.getParents().idFor(ParentType.COUNTY), peliasDocument.getCenterPoint(), peliasDocument.getParents());
+            fromParentChain = tryAddingParentsOfCounty(peliasDocument.getParents().idFor(ParentType.COUNTY), peliasDocument.getCenterPoint(), peliasDocument.getParents());
+        } else {
+            statistics.documentSkipped(System.nanoTime() - start);
+            return peliasDocument;
         }
+        statistics.documentEnriched(fromParentChain, System.nanoTime() - start);
 
         return peliasDocument;
     }
 
-    private void tryAddingParentsForGivenId(PeliasId id, GeoPoint centerPoint, Parents parents) {
-        if (!tryAddParentsFromCacheForGivenId(id, centerPoint, parents)) {
-            tryAddParentsWithReverseGeoCodingForGivenCenterPoint(centerPoint, parents);
-        }
+    /**
+     * Finds the parents of a point on its own, as for an orphan document at that point.
+     */
+    public Parents findParents(GeoPoint centerPoint) {
+        long start = System.nanoTime();
+        var parents = new Parents();
+        boolean fromParentChain = tryAddingParentsForGivenId(null, centerPoint, parents);
+        statistics.documentEnriched(fromParentChain, System.nanoTime() - start);
+        return parents;
     }
 
-    private boolean tryAddParentsFromCacheForGivenId(PeliasId id, GeoPoint centerPoint, Parents parents) {
-        AdminUnit localityFromCache = adminUnitsCache.getAdminUnitForParentType(id, ParentType.LOCALITY);
-        if (localityFromCache != null) {
-            parents.addOrReplaceParent(ParentType.LOCALITY, localityFromCache.id(), localityFromCache.name());
-            addParentsOfLocality(localityFromCache, parents, centerPoint);
+    /**
+     * @return true if the parents were found from the parent chain of the given id, false if by reverse geocoding.
+     */
+    private boolean tryAddingParentsForGivenId(PeliasId id, GeoPoint centerPoint, Parents parents) {
+        if (tryAddParentsFromCacheForGivenId(id, centerPoint, parents)) {
             return true;
         }
+        tryAddParentsWithReverseGeoCodingForGivenCenterPoint(centerPoint, parents);
+        return false;
+    }
 
-        AdminUnit countyFromCache = adminUnitsCache.getAdminUnitForParentType(id, ParentType.COUNTY);
-        if (countyFromCache != null) {
-            parents.addOrReplaceParent(ParentType.COUNTY, countyFromCache.id(), countyFromCache.name());
-            tryAddingCountryWithCountryCode(countyFromCache.countryRef(), parents, centerPoint);
-            return true;
+    private boolean tryAddParentsFromCacheForGivenId(PeliasId id, GeoPoint centerPoint, Parents parents) {
+        ParentChain parentChain = adminUnitsCache.getParentChain(id);
+        if (parentChain == null) {
+            return false;
         }
 
-        AdminUnit countryFromCache = adminUnitsCache.getAdminUnitForParentType(id, ParentType.COUNTRY);
-        if (countryFromCache != null) {
-            addCountryToParents(countryFromCache, parents);
-            return true;
+        if (parentChain.locality() != null) {
+            addParent(ParentType.LOCALITY, parentChain.locality(), parents);
+            addParentsOfLocality(parentChain, parents, centerPoint);
+        } else if (parentChain.county() != null) {
+            addParent(ParentType.COUNTY, parentChain.county(), parents);
+            addCountryOfParentChain(parentChain, parents, centerPoint);
+        } else {
+            addCountryOfParentChain(parentChain, parents, centerPoint);
         }
-        return false;
+        return true;
     }
 
     private void tryAddParentsWithReverseGeoCodingForGivenCenterPoint(GeoPoint centerPoint, Parents parents) {
+        if (hierarchicalReverseGeocoding) {
+            tryAddParentsWithHierarchicalReverseGeocoding(centerPoint, parents);
+            return;
+        }
+
         AdminUnit locality = findAdminUnitByReverseGeocoding(ParentType.LOCALITY, centerPoint);
         if (locality != null) {
-            parents.addOrReplaceParent(ParentType.LOCALITY, locality.id(), locality.name());
-            addParentsOfLocality(locality, parents, centerPoint);
+            ParentChain parentChain = adminUnitsCache.getParentChain(locality.id());
+            addParent(ParentType.LOCALITY, parentChain.locality(), parents);
+            addParentsOfLocality(parentChain, parents, centerPoint);
         }
 
         AdminUnit county = findAdminUnitByReverseGeocoding(ParentType.COUNTY, centerPoint);
         if (county != null) {
-            parents.addOrReplaceParent(ParentType.COUNTY, county.id(), county.name());
-            tryAddingCountryWithCountryCode(county.countryRef(), parents, centerPoint);
+            ParentChain parentChain = adminUnitsCache.getParentChain(county.id());
+            addParent(ParentType.COUNTY, parentChain.county(), parents);
+            addCountryOfParentChain(parentChain, parents, centerPoint);
         }
 
         AdminUnit country = findAdminUnitByReverseGeocoding(ParentType.COUNTRY, centerPoint);
         if (country != null) {
-            addCountryToParents(country, parents);
+            addParent(ParentType.COUNTRY, adminUnitsCache.getParentChain(country.id()).country(), parents);
+            statistics.countryFound(false);
         }
     }
 
-    private void tryAddingParentsOfLocality(PeliasId localityId, GeoPoint centerPoint, Parents parents) {
-        var locality = findAdminUnitForPeliasId(ParentType.LOCALITY, localityId, centerPoint);
-        if (locality != null) {
-            addParentsOfLocality(locality, parents, centerPoint);
+    private void tryAddParentsWithHierarchicalReverseGeocoding(GeoPoint centerPoint, Parents parents) {
+        var adminUnits = adminUnitsCache.getAdminUnitsForPoint(toPoint(centerPoint), statistics);
+        var localityParentChain = adminUnits.locality() != null
+                ? adminUnitsCache.getParentChain(adminUnits.locality().id())
+                : null;
+        var countyParentChain = adminUnits.county() != null
+                ? adminUnitsCache.getParentChain(adminUnits.county().id())
+                : localityParentChain;
+
+        if (localityParentChain != null) {
+            addParent(ParentType.LOCALITY, localityParentChain.locality(), parents);
+        }
+        if (countyParentChain != null && countyParentChain.county() != null) {
+            addParent(ParentType.COUNTY, countyParentChain.county(), parents);
+        }
+
+        if (adminUnits.country() != null) {
+            addParent(ParentType.COUNTRY, adminUnitsCache.getParentChain(adminUnits.country().id()).country(), parents);
+            statistics.countryFound(false);
+        } else if (countyParentChain != null && countyParentChain.country() != null) {
+            addParent(ParentType.COUNTRY, countyParentChain.country(), parents);
+            statistics.countryFound(true);
+        } else if (localityParentChain != null && localityParentChain.country() != null) {
+            addParent(ParentType.COUNTRY, localityParentChain.country(), parents);
+            statistics.countryFound(true);
         }
     }
 
-    private void addParentsOfLocality(AdminUnit locality, Parents parents, GeoPoint centerPoint) {
+    private boolean tryAddingParentsOfLocality(PeliasId localityId, GeoPoint centerPoint, Parents parents) {
+        ParentChain parentChain = adminUnitsCache.getParentChain(localityId);
+        boolean fromParentChain = parentChain != null && parentChain.locality() != null;
+        if (!fromParentChain) {
+            var locality = findAdminUnitByReverseGeocoding(ParentType.LOCALITY, centerPoint);
+            parentChain = locality != null ? adminUnitsCache.getParentChain(locality.id()) : null;
+        }
+        if (parentChain != null) {
+            addParentsOfLocality(parentChain, parents, centerPoint);
+        }
+        return fromParentChain;
+    }
 
-        var countyForLocality = findAdminUnitForPeliasId(ParentType.COUNTY, locality.parentId(), centerPoint);
-        if (countyForLocality != null) {
-            parents.addOrReplaceParent(ParentType.COUNTY, countyForLocality.id(), countyForLocality.name());
+    private void addParentsOfLocality(ParentChain localityParentChain, Parents parents, GeoPoint centerPoint) {
+        if (localityParentChain.county() != null) {
+            addParent(ParentType.COUNTY, localityParentChain.county(), parents);
+        } else {
+            var county = findAdminUnitByReverseGeocoding(ParentType.COUNTY, centerPoint);
+            if (county != null) {
+                addParent(ParentType.COUNTY, adminUnitsCache.getParentChain(county.id()).county(), parents);
+            }
         }
 
-        tryAddingCountryWithCountryCode(locality.countryRef(), parents, centerPoint);
+        addCountryOfParentChain(localityParentChain, parents, centerPoint);
     }
 
-    private void tryAddingParentsOfCounty(PeliasId countyId, GeoPoint centerPoint, Parents parents) {
-        var county = findAdminUnitForPeliasId(ParentType.COUNTY, countyId, centerPoint);
-        if (county != null) {
-            tryAddingCountryWithCountryCode(county.countryRef(), parents, centerPoint);
+    private boolean tryAddingParentsOfCounty(PeliasId countyId, GeoPoint centerPoint, Parents parents) {
+        ParentChain parentChain = adminUnitsCache.getParentChain(countyId);
+        boolean fromParentChain = parentChain != null && parentChain.locality() == null && parentChain.county() != null;
+        if (!fromParentChain) {
+            var county = findAdminUnitByReverseGeocoding(ParentType.COUNTY, centerPoint);
+            parentChain = county != null ? adminUnitsCache.getParentChain(county.id()) : null;
+        }
+        if (parentChain != null) {
+            addCountryOfParentChain(parentChain, parents, centerPoint);
         }
+        return fromParentChain;
     }
 
-    private void tryAddingCountryWithCountryCode(String countryCode, Parents parents, GeoPoint centerPoint) {
-        if (countryCode.equals("NO")) {
-            // TODO: Remove this when Assad adds Norway as TopographicPlace i NSR netex file.
-            parents.addOrReplaceParent(
-                    ParentType.COUNTRY,
-                    new PeliasId("KVE", "TopographicPlace", "Norway"),
-                    "Norway",
-                    "NOR");
+    private void addCountryOfParentChain(ParentChain parentChain, Parents parents, GeoPoint centerPoint) {
+        if (parentChain.country() != null) {
+            addParent(ParentType.COUNTRY, parentChain.country(), parents);
+            statistics.countryFound(true);
             return;
         }
-        var country = findAdminUnitForCountryCode(countryCode, centerPoint);
-        addCountryToParents(country, parents);
-    }
-
-    private void addCountryToParents(AdminUnit country, Parents parents) {
+        // Try getting country info by reverse geocoding.
+        var country = findAdminUnitByReverseGeocoding(ParentType.COUNTRY, centerPoint);
         if (country != null) {
-            parents.addOrReplaceParent(
-                    ParentType.COUNTRY,
-                    country.id(),
-                    country.name(),
-                    country.getISO3CountryName());
+            addParent(ParentType.COUNTRY, adminUnitsCache.getParentChain(country.id()).country(), parents);
+            statistics.countryFound(false);
         }
     }
 
-    private AdminUnit findAdminUnitForPeliasId(ParentType parentType, PeliasId id, GeoPoint centerPoint) {
-        // Try getting parent info by id.
-        var adminUnit = id != null ? adminUnitsCache.getAdminUnitForParentType(id, parentType) : null;
-        // Try getting parent info by reverse geocoding.
-        return adminUnit != null ? adminUnit : findAdminUnitByReverseGeocoding(parentType, centerPoint);
-    }
-
-    private AdminUnit findAdminUnitForCountryCode(String countryCode, GeoPoint centerPoint) {
-        // Try getting parent info by id.
-        var adminUnit = countryCode != null ? adminUnitsCache.getCountryForCountryRef(countryCode) : null;
-
-        // Try getting parent info by reverse geocoding.
-        return adminUnit != null ? adminUnit : findAdminUnitByReverseGeocoding(ParentType.COUNTRY, centerPoint);
+    private static void addParent(ParentType parentType, ParentChain.Parent parent, Parents parents) {
+        if (parentType == ParentType.COUNTRY) {
+            parents.addOrReplaceParent(parentType, parent.id(), parent.name(), parent.abbr());
+        } else {
+            parents.addOrReplaceParent(parentType, parent.id(), parent.name());
+        }
     }
 
+    /**
+     * Finds the admin unit of a single level. The hierarchical descent stops at the requested level:
+     * the countries are at the top of it, so they are looked up on their own either way.
+     */
     private AdminUnit findAdminUnitByReverseGeocoding(ParentType parentType, GeoPoint centerPoint) {
-        var point = geometryFactory.createPoint(new Coordinate(centerPoint.lon(), centerPoint.lat()));
+        if (reverseGeocodingCache != null) {
+            return switch (parentType) {
+                case LOCALITY -> reverseGeocodingCache.getLocalityForPoint(centerPoint, statistics);
+                case COUNTY -> reverseGeocodingCache.getCountyForPoint(centerPoint, statistics);
+                case COUNTRY -> reverseGeocodingCache.getCountryForPoint(centerPoint, statistics);
+                default -> null;
+            };
+        }
+        var point = toPoint(centerPoint);
         return switch (parentType) {
-            case LOCALITY -> adminUnitsCache.getLocalityForPoint(point);
-            case COUNTY -> adminUnitsCache.getCountyForPoint(point);
-            case COUNTRY -> adminUnitsCache.getCountryForPoint(point);
+            case LOCALITY -> hierarchicalReverseGeocoding
+                    ? adminUnitsCache.getAdminUnitsForPoint(point, statistics).locality()
+                    : adminUnitsCache.getLocalityForPoint(point, statistics);
+            case COUNTY -> hierarchicalReverseGeocoding
+                    ? adminUnitsCache.getCountyInCountryForPoint(point, statistics)
+                    : adminUnitsCache.getCountyForPoint(point, statistics);
+            case COUNTRY -> adminUnitsCache.getCountryForPoint(point, statistics);
             default -> null;
         };
     }
-}
\ No newline at end of file
+
+    private Point toPoint(GeoPoint centerPoint) {
+        return geometryFactory.createPoint(new Coordinate(centerPoint.lon(), centerPoint.lat()));
+    }
+}
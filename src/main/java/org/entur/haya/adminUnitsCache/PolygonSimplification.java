@@ -0,0 +1,78 @@
+package org.entur.haya.adminUnitsCache;
+
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.Polygon;
+import org.locationtech.jts.geom.PrecisionModel;
+import org.locationtech.jts.precision.GeometryPrecisionReducer;
+import org.locationtech.jts.simplify.TopologyPreservingSimplifier;
+
+import java.math.BigDecimal;
+
+/**
+ * Simplification of the admin unit polygons when the cache is built, trading some accuracy
+ * of the reverse geocoding for fewer vertices to test.
+ *
+ * @param tolerance      The distance tolerance of the topology preserving simplification, in degrees,
+ *                       or 0 to not simplify.
+ * @param precisionScale The scale of the fixed precision model the coordinates are snapped to,
+ *                       e.g. 100000 for 5 decimals, or 0 to keep the full precision.
+ */
+public record PolygonSimplification(double tolerance, double precisionScale) {
+
+    public static final PolygonSimplification NONE = new PolygonSimplification(0, 0);
+
+    public boolean isEnabled() {
+        return tolerance > 0 || precisionScale > 0;
+    }
+
+    /**
+     * Returns the admin unit with its polygon simplified, or the same admin unit when the simplification
+     * does not give a single non-empty polygon.
+     */
+    public AdminUnit simplify(AdminUnit adminUnit) {
+        if (!isEnabled() || adminUnit.geometry() == null) {
+            return adminUnit;
+        }
+        Polygon polygon = simplify(adminUnit.geometry());
+        if (polygon == adminUnit.geometry()) {
+            return adminUnit;
+        }
+        return new AdminUnit(adminUnit.id(),
+                adminUnit.isoCode(),
+                adminUnit.parentId(),
+                adminUnit.name(),
+                adminUnit.countryRef(),
+                polygon,
+                adminUnit.adminUnitType());
+    }
+
+    private Polygon simplify(Polygon polygon) {
+        Geometry simplified = polygon;
+        if (tolerance > 0) {
+            simplified = keepPolygon(TopologyPreservingSimplifier.simplify(simplified, tolerance), simplified);
+        }
+        if (precisionScale > 0) {
+            simplified = keepPolygon(GeometryPrecisionReducer.reduce(simplified, new PrecisionModel(precisionScale)), simplified);
+        }
+        if (simplified == polygon) {
+            return polygon;
+        }
+        // Only the exterior ring is kept, as for the polygons of the NeTEx file.
+        return PackedPolygon.createPolygon(((Polygon) simplified).getExteriorRing().getCoordinateSequence());
+    }
+
+    private static Geometry keepPolygon(Geometry simplified, Geometry previous) {
+        return simplified instanceof Polygon && !simplified.isEmpty() ? simplified : previous;
+    }
+
+    /**
+     * Identifies the simplification in the names of the snapshots of simplified caches.
+     */
+    public String key() {
+        return "t" + plain(tolerance) + "_p" + plain(precisionScale);
+    }
+
+    private static String plain(double value) {
+        return BigDecimal.valueOf(value).stripTrailingZeros().toPlainString();
+    }
+}
@@ -0,0 +1,153 @@
+package org.entur.haya.adminUnitsCache;
+
+import org.entur.geocoder.model.GeoPoint;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.GeometryFactory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Caches the reverse geocoding results by grid cell, the cells being the coordinates rounded down
+ * to the given precision in degrees.
+ * <p>
+ * A cell is only answered from the cache when all its points resolve to the same admin unit,
+ * that is when the first admin unit touching the cell covers it entirely, or when no admin unit touches it.
+ * The points of the cells crossed by a polygon boundary are looked up exactly, so the results are the same
+ * as without the cache.
+ * <p>
+ * Each admin unit level keeps at most {@code maximumSize} cells, and starts over when it is full.
+ */
+public final class ReverseGeocodingCache {
+
+    // Compared by identity, it is equal to UniformAdminUnit.NONE.
+    private static final AdminUnitsIndex.UniformAdminUnit BOUNDARY = new AdminUnitsIndex.UniformAdminUnit(null);
+
+    private final GeometryFactory geometryFactory = new GeometryFactory();
+    private final AdminUnitsCache adminUnitsCache;
+    private final double precision;
+    private final int maximumSize;
+
+    private final CellCache localities;
+    private final CellCache counties;
+    private final CellCache countries;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder boundaryLookups = new LongAdder();
+
+    public ReverseGeocodingCache(AdminUnitsCache adminUnitsCache, double precision, int maximumSize) {
+        this.adminUnitsCache = adminUnitsCache;
+        this.precision = precision;
+        this.maximumSize = maximumSize;
+        this.localities = new CellCache(adminUnitsCache.localitiesIndex());
+        this.counties = new CellCache(adminUnitsCache.countiesIndex());
+        this.countries = new CellCache(adminUnitsCache.countriesIndex());
+    }
+
+    public AdminUnit getLocalityForPoint(GeoPoint point) {
+        return getLocalityForPoint(point, null);
+    }
+
+    /**
+     * @param statistics Counts the point in polygon tests of the lookups in boundary cells, or null.
+     */
+    public AdminUnit getLocalityForPoint(GeoPoint point, EnrichmentStatistics statistics) {
+        return localities.getAdminUnitForPoint(point, statistics);
+    }
+
+    public AdminUnit getCountyForPoint(GeoPoint point) {
+        return getCountyForPoint(point, null);
+    }
+
+    public AdminUnit getCountyForPoint(GeoPoint point, EnrichmentStatistics statistics) {
+        return counties.getAdminUnitForPoint(point, statistics);
+    }
+
+    public AdminUnit getCountryForPoint(GeoPoint point) {
+        return getCountryForPoint(point, null);
+    }
+
+    public AdminUnit getCountryForPoint(GeoPoint point, EnrichmentStatistics statistics) {
+        return countries.getAdminUnitForPoint(point, statistics);
+    }
+
+    public AdminUnitsCache adminUnitsCache() {
+        return adminUnitsCache;
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    public double hitRatio() {
+        long hits = hits();
+        long lookups = hits + misses();
+        return lookups > 0 ? (double) hits / lookups : 0;
+    }
+
+    /**
+     * The number of lookups in cells crossed by a polygon boundary, which are done exactly.
+     */
+    public long boundaryLookups() {
+        return boundaryLookups.sum();
+    }
+
+    public int size() {
+        return localities.cells.size() + counties.cells.size() + countries.cells.size();
+    }
+
+    private final class CellCache {
+
+        private final AdminUnitsIndex index;
+        private final Map<Long, AdminUnitsIndex.UniformAdminUnit> cells = new ConcurrentHashMap<>();
+
+        private CellCache(AdminUnitsIndex index) {
+            this.index = index;
+        }
+
+        private AdminUnit getAdminUnitForPoint(GeoPoint point, EnrichmentStatistics statistics) {
+            int x = (int) Math.floor(point.lon() / precision);
+            int y = (int) Math.floor(point.lat() / precision);
+            long key = (long) x << 32 | y & 0xFFFFFFFFL;
+
+            var cell = cells.get(key);
+            if (cell != null) {
+                hits.increment();
+            } else {
+                misses.increment();
+                cell = index.getUniformAdminUnitForArea(cellEnvelope(x, y));
+                if (cell == null) {
+                    cell = BOUNDARY;
+                }
+                if (cells.size() >= maximumSize) {
+                    cells.clear();
+                }
+                cells.put(key, cell);
+            }
+
+            if (cell == BOUNDARY) {
+                boundaryLookups.increment();
+                return index.getAdminUnitForPoint(geometryFactory.createPoint(new Coordinate(point.lon(), point.lat())), statistics);
+            }
+            return cell.adminUnit();
+        }
+
+        /**
+         * The cell, widened a little, so that it contains all the points rounded down to it
+         * in spite of the floating point errors.
+         */
+        private Envelope cellEnvelope(int x, int y) {
+            double margin = precision * 1e-6;
+            return new Envelope(
+                    x * precision - margin, (x + 1) * precision + margin,
+                    y * precision - margin, (y + 1) * precision + margin);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package org.entur.haya.adminUnitsCache;
+
+import org.entur.geocoder.model.PeliasDocument;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.Point;
+
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.stream.Stream;
+
+/**
+ * How many documents get another locality, county or country by reverse geocoding
+ * with the simplified admin unit polygons than with the original ones.
+ */
+public record SimplificationReport(long documents,
+                                   long changedDocuments,
+                                   long changedLocalities,
+                                   long changedCounties,
+                                   long changedCountries) {
+
+    private static final GeometryFactory geometryFactory = new GeometryFactory();
+
+    /**
+     * Reverse geocodes the center points of the documents with both caches. The documents
+     * without a center point are left out.
+     */
+    public static SimplificationReport compare(AdminUnitsCache original,
+                                               AdminUnitsCache simplified,
+                                               Stream<PeliasDocument> peliasDocuments) {
+        long documents = 0;
+        long changedDocuments = 0;
+        long changedLocalities = 0;
+        long changedCounties = 0;
+        long changedCountries = 0;
+        Iterator<PeliasDocument> iterator = peliasDocuments
+                .filter(peliasDocument -> peliasDocument.getCenterPoint() != null)
+                .iterator();
+        while (iterator.hasNext()) {
+            var centerPoint = iterator.next().getCenterPoint();
+            Point point = geometryFactory.createPoint(new Coordinate(centerPoint.lon(), centerPoint.lat()));
+            boolean changedLocality = isChanged(original.getLocalityForPoint(point), simplified.getLocalityForPoint(point));
+            boolean changedCounty = isChanged(original.getCountyForPoint(point), simplified.getCountyForPoint(point));
+            boolean changedCountry = isChanged(original.getCountryForPoint(point), simplified.getCountryForPoint(point));
+            documents++;
+            changedLocalities += changedLocality ? 1 : 0;
+            changedCounties += changedCounty ? 1 : 0;
+            changedCountries += changedCountry ? 1 : 0;
+            changedDocuments += changedLocality || changedCounty || changedCountry ? 1 : 0;
+        }
+        return new SimplificationReport(documents, changedDocuments, changedLocalities, changedCounties, changedCountries);
+    }
+
+    private static boolean isChanged(AdminUnit original, AdminUnit simplified) {
+        return !Objects.equals(original != null ? original.id() : null, simplified != null ? simplified.id() : null);
+    }
+
+    @Override
+    public String toString() {
+        return changedDocuments + " of " + documents + " documents changed parent ("
+                + changedLocalities + " localities, " + changedCounties + " counties, " + changedCountries + " countries)";
+    }
+}
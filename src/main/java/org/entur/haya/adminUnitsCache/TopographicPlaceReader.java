@@ -0,0 +1,132 @@
+package org.entur.haya.adminUnitsCache;
+
+import org.rutebanken.netex.model.PublicationDeliveryStructure;
+import org.rutebanken.netex.model.TopographicPlace;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Streams the TopographicPlaces out of a NeTEx file with StAX, unmarshalling only the
+ * TopographicPlace elements of the topographicPlaces lists, instead of the whole NeTEx document.
+ */
+public final class TopographicPlaceReader {
+
+    private static final String NETEX_NAMESPACE = "http://www.netex.org.uk/netex";
+    private static final String TOPOGRAPHIC_PLACES = "topographicPlaces";
+    private static final String TOPOGRAPHIC_PLACE = "TopographicPlace";
+
+    private static JAXBContext jaxbContext;
+
+    private TopographicPlaceReader() {
+    }
+
+    public static Stream<TopographicPlace> read(InputStream inputStream) {
+        try {
+            var xmlInputFactory = XMLInputFactory.newFactory();
+            xmlInputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+            xmlInputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+            XMLStreamReader xmlStreamReader = xmlInputFactory.createXMLStreamReader(inputStream);
+            var iterator = new TopographicPlaceIterator(xmlStreamReader, getJaxbContext().createUnmarshaller());
+            return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                    .onClose(iterator::close);
+        } catch (XMLStreamException | JAXBException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static synchronized JAXBContext getJaxbContext() throws JAXBException {
+        if (jaxbContext == null) {
+            jaxbContext = JAXBContext.newInstance(PublicationDeliveryStructure.class);
+        }
+        return jaxbContext;
+    }
+
+    private static final class TopographicPlaceIterator implements Iterator<TopographicPlace> {
+
+        private final XMLStreamReader xmlStreamReader;
+        private final Unmarshaller unmarshaller;
+
+        private boolean inTopographicPlaces;
+        private TopographicPlace nextTopographicPlace;
+
+        private TopographicPlaceIterator(XMLStreamReader xmlStreamReader, Unmarshaller unmarshaller) {
+            this.xmlStreamReader = xmlStreamReader;
+            this.unmarshaller = unmarshaller;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (nextTopographicPlace == null) {
+                try {
+                    nextTopographicPlace = readNextTopographicPlace();
+                } catch (XMLStreamException | JAXBException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            return nextTopographicPlace != null;
+        }
+
+        @Override
+        public TopographicPlace next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            var topographicPlace = nextTopographicPlace;
+            nextTopographicPlace = null;
+            return topographicPlace;
+        }
+
+        private TopographicPlace readNextTopographicPlace() throws XMLStreamException, JAXBException {
+            while (true) {
+                switch (xmlStreamReader.getEventType()) {
+                    case XMLStreamConstants.START_ELEMENT -> {
+                        if (isNetexElement(TOPOGRAPHIC_PLACE) && inTopographicPlaces) {
+                            // Leaves the reader at the event right after the end of the element.
+                            return unmarshaller.unmarshal(xmlStreamReader, TopographicPlace.class).getValue();
+                        }
+                        if (isNetexElement(TOPOGRAPHIC_PLACES)) {
+                            inTopographicPlaces = true;
+                        }
+                    }
+                    case XMLStreamConstants.END_ELEMENT -> {
+                        if (isNetexElement(TOPOGRAPHIC_PLACES)) {
+                            inTopographicPlaces = false;
+                        }
+                    }
+                    case XMLStreamConstants.END_DOCUMENT -> {
+                        return null;
+                    }
+                    default -> {
+                    }
+                }
+                xmlStreamReader.next();
+            }
+        }
+
+        private boolean isNetexElement(String localName) {
+            return localName.equals(xmlStreamReader.getLocalName())
+                    && NETEX_NAMESPACE.equals(xmlStreamReader.getNamespaceURI());
+        }
+
+        private void close() {
+            try {
+                xmlStreamReader.close();
+            } catch (XMLStreamException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+}
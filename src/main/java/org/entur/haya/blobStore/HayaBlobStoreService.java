@@ -18,13 +18,30 @@ public class HayaBlobStoreService extends BlobStoreService {
     @Value("${blobstore.gcs.moradin.import.folder:import}")
     private String targetFolder;
 
+    /**
+     * The repository of this service only, as the repositories are prototype beans, one per bucket.
+     */
+    private final BlobStoreRepository repository;
+
     public HayaBlobStoreService(
             @Value("${blobstore.gcs.haya.bucket.name:haya-dev}") String bucketName,
             @Autowired BlobStoreRepository repository) {
         super(bucketName, repository);
+        this.repository = repository;
     }
 
     public void copyBlobAsLatestToTargetBucket(String sourceName) {
         super.copyBlob(sourceName, targetBucketName, targetFolder + "/" + targetFilename + ".zip");
     }
-}
\ No newline at end of file
+
+    public void copyBlobAsLatestDeltaToTargetBucket(String sourceName) {
+        super.copyBlob(sourceName, targetBucketName, targetFolder + "/" + targetFilename + "_delta.zip");
+    }
+
+    /**
+     * @return false if there was no such blob.
+     */
+    public boolean deleteBlob(String name) {
+        return repository.delete(name);
+    }
+}
@@ -6,12 +6,37 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.io.InputStream;
+
 @Service
 public class MoradinBlobStoreService extends BlobStoreService {
 
+    @Value("${blobstore.gcs.moradin.latest.filename_without_extension:haya_latest}")
+    private String latestFilename;
+
+    @Value("${blobstore.gcs.moradin.import.folder:import}")
+    private String importFolder;
+
+    /**
+     * The repository of this service only, as the repositories are prototype beans, one per bucket.
+     */
+    private final BlobStoreRepository repository;
+
     public MoradinBlobStoreService(
             @Value("${blobstore.gcs.moradin.bucket.name:moradin-dev}") String bucketName,
             @Autowired BlobStoreRepository repository) {
         super(bucketName, repository);
+        this.repository = repository;
+    }
+
+    public InputStream getLatestBlob() {
+        return super.getBlob(importFolder + "/" + latestFilename + ".zip");
+    }
+
+    /**
+     * @return false if there was no latest delta blob.
+     */
+    public boolean deleteLatestDeltaBlob() {
+        return repository.delete(importFolder + "/" + latestFilename + "_delta.zip");
     }
-}
\ No newline at end of file
+}
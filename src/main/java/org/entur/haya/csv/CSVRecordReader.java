@@ -0,0 +1,104 @@
+package org.entur.haya.csv;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads the raw records of a CSV file as written by {@link PeliasCSV}, with their line ending,
+ * keeping the quoted line breaks inside the records.
+ */
+public final class CSVRecordReader implements Iterator<String> {
+
+    private final Reader reader;
+    private final StringBuilder record = new StringBuilder();
+    private final char[] buffer = new char[8192];
+
+    private int position;
+    private int length;
+    private String nextRecord;
+
+    public CSVRecordReader(Reader reader) {
+        this.reader = reader;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (nextRecord == null) {
+            try {
+                nextRecord = readRecord();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return nextRecord != null;
+    }
+
+    @Override
+    public String next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        String current = nextRecord;
+        nextRecord = null;
+        return current;
+    }
+
+    private String readRecord() throws IOException {
+        record.setLength(0);
+        boolean quoted = false;
+        while (true) {
+            if (position == length) {
+                length = reader.read(buffer);
+                position = 0;
+                if (length < 0) {
+                    length = 0;
+                    return record.isEmpty() ? null : record.toString();
+                }
+            }
+            char c = buffer[position++];
+            record.append(c);
+            if (c == '"') {
+                quoted = !quoted;
+            } else if (c == '\n' && !quoted) {
+                return record.toString();
+            }
+        }
+    }
+
+    /**
+     * Splits a record into its cells, unquoting the quoted cells.
+     */
+    public static List<String> cells(String record) {
+        List<String> cells = new ArrayList<>();
+        var cell = new StringBuilder();
+        boolean quoted = false;
+        int end = record.endsWith("\r\n") ? record.length() - 2 : record.endsWith("\n") ? record.length() - 1 : record.length();
+        for (int i = 0; i < end; i++) {
+            char c = record.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < end && record.charAt(i + 1) == '"') {
+                    cell.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    cell.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                cells.add(cell.toString());
+                cell.setLength(0);
+            } else {
+                cell.append(c);
+            }
+        }
+        cells.add(cell.toString());
+        return cells;
+    }
+}
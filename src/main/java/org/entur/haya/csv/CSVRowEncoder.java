@@ -0,0 +1,83 @@
+package org.entur.haya.csv;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Writes CSV rows as UTF-8 into a reused byte buffer, with every cell quoted and the quotes doubled,
+ * which is byte for byte what OpenCSV's CSVWriter with its defaults writes through a UTF-8 writer.
+ * Unpaired surrogates are written as '?', like the UTF-8 encoder of the writer does,
+ * and null cells are left empty, without quotes, like CSVWriter does.
+ */
+final class CSVRowEncoder {
+
+    private static final int FLUSH_THRESHOLD = 64 * 1024;
+
+    private final OutputStream outputStream;
+
+    private byte[] buffer = new byte[2 * FLUSH_THRESHOLD];
+    private int count;
+    private boolean firstCell = true;
+
+    CSVRowEncoder(OutputStream outputStream) {
+        this.outputStream = outputStream;
+    }
+
+    void writeCell(String value) {
+        ensureCapacity(value != null ? 3 * value.length() + 3 : 1);
+        if (!firstCell) {
+            buffer[count++] = ',';
+        }
+        firstCell = false;
+        if (value == null) {
+            return;
+        }
+        buffer[count++] = '"';
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                if (c == '"') {
+                    buffer[count++] = '"';
+                }
+                buffer[count++] = (byte) c;
+            } else if (c < 0x800) {
+                buffer[count++] = (byte) (0xC0 | c >> 6);
+                buffer[count++] = (byte) (0x80 | c & 0x3F);
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                buffer[count++] = (byte) (0xF0 | codePoint >> 18);
+                buffer[count++] = (byte) (0x80 | codePoint >> 12 & 0x3F);
+                buffer[count++] = (byte) (0x80 | codePoint >> 6 & 0x3F);
+                buffer[count++] = (byte) (0x80 | codePoint & 0x3F);
+            } else if (Character.isSurrogate(c)) {
+                buffer[count++] = '?';
+            } else {
+                buffer[count++] = (byte) (0xE0 | c >> 12);
+                buffer[count++] = (byte) (0x80 | c >> 6 & 0x3F);
+                buffer[count++] = (byte) (0x80 | c & 0x3F);
+            }
+        }
+        buffer[count++] = '"';
+    }
+
+    void endRow() throws IOException {
+        ensureCapacity(1);
+        buffer[count++] = '\n';
+        firstCell = true;
+        if (count >= FLUSH_THRESHOLD) {
+            flush();
+        }
+    }
+
+    void flush() throws IOException {
+        outputStream.write(buffer, 0, count);
+        count = 0;
+    }
+
+    private void ensureCapacity(int length) {
+        if (count + length > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(2 * buffer.length, count + length));
+        }
+    }
+}
@@ -18,6 +18,10 @@ public record CSVValue(Object value, boolean json) {
         if (value == null) {
             return "";
         } else if (json) {
+            String fastJson = JsonStrings.toJson(value);
+            if (fastJson != null) {
+                return fastJson;
+            }
             try {
                 return mapper.writeValueAsString(value);
             } catch (IOException e) {
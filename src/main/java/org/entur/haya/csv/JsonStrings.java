@@ -0,0 +1,89 @@
+package org.entur.haya.csv;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes the small JSON values of the CSV cells, that is strings, lists of strings and maps of strings,
+ * exactly as the shared ObjectMapper would, without the overhead of going through Jackson for every cell.
+ */
+final class JsonStrings {
+
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+    private JsonStrings() {
+    }
+
+    /**
+     * Returns the JSON for the given value, or null if the value is not one of the supported shapes,
+     * or contains nulls, in which case it should be written with Jackson.
+     */
+    static String toJson(Object value) {
+        if (value instanceof String string) {
+            var json = new StringBuilder(string.length() + 2);
+            appendString(json, string);
+            return json.toString();
+        } else if (value instanceof List<?> list) {
+            return toJson(list);
+        } else if (value instanceof Map<?, ?> map) {
+            return toJson(map);
+        }
+        return null;
+    }
+
+    private static String toJson(List<?> list) {
+        var json = new StringBuilder(16 * list.size() + 2).append('[');
+        for (Object element : list) {
+            if (!(element instanceof String string)) {
+                return null;
+            }
+            if (json.length() > 1) {
+                json.append(',');
+            }
+            appendString(json, string);
+        }
+        return json.append(']').toString();
+    }
+
+    private static String toJson(Map<?, ?> map) {
+        var json = new StringBuilder(32 * map.size() + 2).append('{');
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            if (!(entry.getKey() instanceof String key) || !(entry.getValue() instanceof String value)) {
+                return null;
+            }
+            if (json.length() > 1) {
+                json.append(',');
+            }
+            appendString(json, key);
+            json.append(':');
+            appendString(json, value);
+        }
+        return json.append('}').toString();
+    }
+
+    /**
+     * Appends the quoted string with the same escapes as Jackson's default character escapes.
+     */
+    private static void appendString(StringBuilder json, String string) {
+        json.append('"');
+        int start = 0;
+        for (int i = 0; i < string.length(); i++) {
+            char c = string.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\') {
+                continue;
+            }
+            json.append(string, start, i).append('\\');
+            switch (c) {
+                case '"', '\\' -> json.append(c);
+                case '\b' -> json.append('b');
+                case '\t' -> json.append('t');
+                case '\n' -> json.append('n');
+                case '\f' -> json.append('f');
+                case '\r' -> json.append('r');
+                default -> json.append("u00").append(HEX_DIGITS[c >> 4]).append(HEX_DIGITS[c & 0xF]);
+            }
+            start = i + 1;
+        }
+        json.append(string, start, string.length()).append('"');
+    }
+}
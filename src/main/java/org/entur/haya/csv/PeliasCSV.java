@@ -1,6 +1,5 @@
 package org.entur.haya.csv;
 
-import com.opencsv.CSVWriter;
 import org.entur.geocoder.model.ParentFields;
 import org.entur.geocoder.model.ParentType;
 import org.entur.geocoder.model.PeliasDocument;
@@ -8,8 +7,14 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.LongConsumer;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -18,6 +23,14 @@ import static org.entur.haya.csv.CSVHeaders.*;
 public final class PeliasCSV {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(PeliasCSV.class);
+
+    /**
+     * To be increased with any change of the columns or of their values, as the rows written by earlier runs
+     * are reused by the incremental import as long as this version is the same.
+     */
+    public static final int FORMAT_VERSION = 1;
+    private static final int PARENT_JSON_CACHE_SIZE = 100_000;
+    private static final Map<Map<ParentType, ParentFields>, String> parentJsonCache = new ConcurrentHashMap<>();
     private static final List<String> availableLanguageCodes = List.of("en", "et", "fi", "fr", "no", "ru", "se", "sv", "fk");
     private static final List<String> csvHeaders = Stream.of(
                     ID, INDEX, TYPE, NAME, ALIAS,
@@ -34,55 +47,124 @@ public final class PeliasCSV {
                             availableLanguageCodes.stream().map(code -> makeCsvHeaderForLanguageCode(ALIAS, code))))
             .toList();
 
-    public static InputStream create(Stream<PeliasDocument> peliasDocuments) {
-        LOGGER.debug("Creating CSV file for pelias documents");
-
-        try {
-            File file = File.createTempFile("output", "csv");
-            try (CSVWriter writer = new CSVWriter(new FileWriter(file.toPath().toString()))) {
-                writer.writeNext(allHeaders.toArray(String[]::new));
-                writer.writeAll(peliasDocuments
-                        .filter(doc -> !doc.getParents().hasParentType(ParentType.UNKNOWN))
-                        .map(PeliasCSV::createStringArray)
-                        .toList());
-            }
-            return new FileInputStream(file);
-        } catch (Exception ex) {
-            throw new RuntimeException(ex);
+    /**
+     * The value of each column, in the order of the headers, decided once.
+     */
+    private static final List<Function<PeliasDocument, String>> columns = Stream.concat(
+                    csvHeaders.stream().map(PeliasCSV::getColumnForHeader),
+                    Stream.concat(
+                            availableLanguageCodes.stream().map(PeliasCSV::getAlternativeNameColumn),
+                            availableLanguageCodes.stream().map(PeliasCSV::getAlternativeAliasColumn)))
+            .toList();
+
+    /**
+     * Writes the CSV rows as they come out of the given stream, as UTF-8 in a reused buffer,
+     * so that memory use does not grow with the number of documents.
+     *
+     * @return the number of rows written, leaving out the documents whose parent is still unknown.
+     */
+    public static long write(Stream<PeliasDocument> peliasDocuments, OutputStream outputStream) throws IOException {
+        return write(peliasDocuments, outputStream, droppedDocuments -> {
+        });
+    }
+
+    /**
+     * @param droppedDocuments Given the number of documents left out, as their parent is still unknown,
+     *                         once all the rows are written.
+     */
+    public static long write(Stream<PeliasDocument> peliasDocuments, OutputStream outputStream, LongConsumer droppedDocuments) throws IOException {
+        writeHeader(outputStream);
+        return writeRows(peliasDocuments, outputStream, droppedDocuments);
+    }
+
+    public static void writeHeader(OutputStream outputStream) throws IOException {
+        var rowEncoder = new CSVRowEncoder(outputStream);
+        for (String header : allHeaders) {
+            rowEncoder.writeCell(header);
         }
+        rowEncoder.endRow();
+        rowEncoder.flush();
+    }
+
+    /**
+     * Writes the rows only, without the header, so that the rows of several writes can be put together.
+     */
+    public static long writeRows(Stream<PeliasDocument> peliasDocuments, OutputStream outputStream) throws IOException {
+        return writeRows(peliasDocuments, outputStream, droppedDocuments -> {
+        });
     }
 
-    private static String[] createStringArray(PeliasDocument peliasDocument) {
-        return Stream.concat(
-                csvHeaders.stream().map(header -> getCSVValueForHeader(peliasDocument, header)),
-                Stream.concat(
-                        availableLanguageCodes.stream().map(code -> CSVValue(peliasDocument.getAlternativeNames().get(code))),
-                        availableLanguageCodes.stream().map(code -> CSVJsonValue(peliasDocument.getAlternativeAlias().get(code)))
-                )).map(CSVValue::toString).toArray(String[]::new);
+    /**
+     * @param droppedDocuments Given the number of documents left out, as their parent is still unknown,
+     *                         once all the rows are written.
+     */
+    public static long writeRows(Stream<PeliasDocument> peliasDocuments, OutputStream outputStream, LongConsumer droppedDocuments) throws IOException {
+        var rowEncoder = new CSVRowEncoder(outputStream);
+        long rowCount = 0;
+        long droppedCount = 0;
+        Iterator<PeliasDocument> iterator = peliasDocuments.iterator();
+        while (iterator.hasNext()) {
+            PeliasDocument peliasDocument = iterator.next();
+            if (peliasDocument.getParents().hasParentType(ParentType.UNKNOWN)) {
+                droppedCount++;
+                continue;
+            }
+            for (Function<PeliasDocument, String> column : columns) {
+                rowEncoder.writeCell(column.apply(peliasDocument));
+            }
+            rowEncoder.endRow();
+            rowCount++;
+        }
+        rowEncoder.flush();
+        LOGGER.debug("Wrote " + rowCount + " pelias documents to CSV, dropped " + droppedCount + " with an unknown parent");
+        droppedDocuments.accept(droppedCount);
+        return rowCount;
     }
 
-    private static CSVValue getCSVValueForHeader(PeliasDocument peliasDocument, String header) {
-        CSVValue csvValue = switch (header) {
-            case ID, SOURCE_ID -> CSVValue(peliasDocument.getPeliasId().id());
-            case INDEX -> CSVValue(peliasDocument.getIndex());
-            case TYPE, LAYER -> CSVValue(peliasDocument.getPeliasId().layer());
-            case SOURCE -> CSVValue(peliasDocument.getPeliasId().source());
-            case POPULARITY -> CSVValue(peliasDocument.getPopularity());
-            case NAME -> CSVValue(peliasDocument.getDefaultName());
-            case CATEGORY -> peliasDocument.getCategories().isEmpty() ? null : CSVJsonValue(peliasDocument.getCategories());
-            case DESCRIPTION -> peliasDocument.getDescriptionMap().isEmpty() ? null : CSVJsonValue(peliasDocument.getDescriptionMap());
-//            case TARIFF_ZONE -> peliasDocument.getTariffZones().isEmpty() ? null : CSVJsonValue(peliasDocument.getTariffZones());
-//            case TARIFF_ZONE_AUTHORITIES -> peliasDocument.getTariffZoneAuthorities().isEmpty() ? null : CSVJsonValue(peliasDocument.getTariffZoneAuthorities());
-            case ALIAS -> peliasDocument.getDefaultAlias() != null ? CSVJsonValue(List.of(peliasDocument.getDefaultAlias())) : null;
-            case LATITUDE -> peliasDocument.getCenterPoint() != null ? CSVValue(peliasDocument.getCenterPoint().lat()) : null;
-            case LONGITUDE -> peliasDocument.getCenterPoint() != null ? CSVValue(peliasDocument.getCenterPoint().lon()) : null;
-            case PARENT -> peliasDocument.getParents() != null ? CSVJsonValue(transformParentFieldsToPeliasParent(peliasDocument.getParents().parents())) : null;
-            case ADDRESS_STREET -> peliasDocument.getAddressParts() != null ? CSVValue(peliasDocument.getAddressParts().street()) : null;
-            case ADDRESS_NUMBER -> peliasDocument.getAddressParts() != null ? CSVValue(peliasDocument.getAddressParts().number()) : null;
-            case ADDRESS_ZIP -> peliasDocument.getAddressParts() != null ? CSVValue(peliasDocument.getAddressParts().zip()) : null;
-            default -> null;
+    private static Function<PeliasDocument, String> getColumnForHeader(String header) {
+        return switch (header) {
+            case ID, SOURCE_ID -> doc -> value(doc.getPeliasId().id());
+            case INDEX -> doc -> value(doc.getIndex());
+            case TYPE, LAYER -> doc -> value(doc.getPeliasId().layer());
+            case SOURCE -> doc -> value(doc.getPeliasId().source());
+            case POPULARITY -> doc -> value(doc.getPopularity());
+            case NAME -> doc -> value(doc.getDefaultName());
+            case CATEGORY -> doc -> doc.getCategories().isEmpty() ? "" : jsonValue(doc.getCategories());
+            case DESCRIPTION -> doc -> doc.getDescriptionMap().isEmpty() ? "" : jsonValue(doc.getDescriptionMap());
+//            case TARIFF_ZONE -> doc -> doc.getTariffZones().isEmpty() ? "" : jsonValue(doc.getTariffZones());
+//            case TARIFF_ZONE_AUTHORITIES -> doc -> doc.getTariffZoneAuthorities().isEmpty() ? "" : jsonValue(doc.getTariffZoneAuthorities());
+            case ALIAS -> doc -> doc.getDefaultAlias() != null ? jsonValue(List.of(doc.getDefaultAlias())) : "";
+            case LATITUDE -> doc -> doc.getCenterPoint() != null ? value(doc.getCenterPoint().lat()) : "";
+            case LONGITUDE -> doc -> doc.getCenterPoint() != null ? value(doc.getCenterPoint().lon()) : "";
+            case PARENT -> doc -> doc.getParents() != null ? getParentJson(doc.getParents().parents()) : "";
+            case ADDRESS_STREET -> doc -> doc.getAddressParts() != null ? value(doc.getAddressParts().street()) : "";
+            case ADDRESS_NUMBER -> doc -> doc.getAddressParts() != null ? value(doc.getAddressParts().number()) : "";
+            case ADDRESS_ZIP -> doc -> doc.getAddressParts() != null ? value(doc.getAddressParts().zip()) : "";
+            default -> doc -> "";
         };
-        return csvValue != null ? csvValue : CSVValue("");
+    }
+
+    private static Function<PeliasDocument, String> getAlternativeNameColumn(String languageCode) {
+        return doc -> value(doc.getAlternativeNames().get(languageCode));
+    }
+
+    private static Function<PeliasDocument, String> getAlternativeAliasColumn(String languageCode) {
+        return doc -> jsonValue(doc.getAlternativeAlias().get(languageCode));
+    }
+
+    /**
+     * The documents share a few thousand distinct parent combinations at most,
+     * so the parent_json of each combination is serialized once and reused.
+     */
+    private static String getParentJson(Map<ParentType, ParentFields> parentFields) {
+        String parentJson = parentJsonCache.get(parentFields);
+        if (parentJson == null) {
+            parentJson = jsonValue(transformParentFieldsToPeliasParent(parentFields));
+            if (parentJsonCache.size() < PARENT_JSON_CACHE_SIZE) {
+                parentJsonCache.put(Collections.unmodifiableMap(new HashMap<>(parentFields)), parentJson);
+            }
+        }
+        return parentJson;
     }
 
     private static String makeCsvHeaderForLanguageCode(String prefix, String languageCode) {
@@ -102,17 +184,17 @@ public final class PeliasCSV {
                 );
     }
 
-    record PeliasParent(String source, String id, String name, String abbr) {
+    public record PeliasParent(String source, String id, String name, String abbr) {
         public PeliasParent(ParentFields parentFields) {
             this(parentFields.peliasId().source(), parentFields.peliasId().id(), parentFields.name(), parentFields.abbr());
         }
     }
 
-    private static CSVValue CSVValue(Object value) {
-        return new CSVValue(value, false);
+    private static String value(Object value) {
+        return value != null ? value.toString() : "";
     }
 
-    private static CSVValue CSVJsonValue(Object value) {
-        return new CSVValue(value, true);
+    private static String jsonValue(Object value) {
+        return new CSVValue(value, true).toString();
     }
 }
@@ -0,0 +1,220 @@
+package org.entur.haya.delta;
+
+import org.entur.haya.csv.CSVHeaders;
+import org.entur.haya.csv.CSVRecordReader;
+import org.entur.haya.io.ExternalSorter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Compares the rows of the new export with the rows of the previous one, by the source, layer and id
+ * of their pelias documents and by the hash of the rows, and writes the added, changed and deleted rows
+ * into a zip archive, each in its own CSV file with the same header as the exports.
+ * <p>
+ * The rows of both exports are sorted by their ids with an {@link ExternalSorter}, which spills to the
+ * working directory, so the comparison does not need to hold the exports in memory.
+ */
+public final class DeltaExport {
+
+    private static final Logger logger = LoggerFactory.getLogger(DeltaExport.class);
+
+    public static final String ADDED = "added.csv";
+    public static final String CHANGED = "changed.csv";
+    public static final String DELETED = "deleted.csv";
+
+    public record Counts(long added, long changed, long deleted) {
+    }
+
+    private record Row(String id, long hash, String record) {
+    }
+
+    private static final Comparator<Row> byId = Comparator.comparing(Row::id);
+
+    private static final ExternalSorter.Codec<Row> rowCodec = new ExternalSorter.Codec<>() {
+        @Override
+        public void write(DataOutputStream outputStream, Row row) throws IOException {
+            writeString(outputStream, row.id());
+            outputStream.writeLong(row.hash());
+            writeString(outputStream, row.record());
+        }
+
+        @Override
+        public Row read(DataInputStream inputStream) throws IOException {
+            return new Row(readString(inputStream), inputStream.readLong(), readString(inputStream));
+        }
+    };
+
+    private final Path workDirectory;
+    private final int sortBufferSize;
+
+    public DeltaExport(Path workDirectory, int sortBufferSize) {
+        this.workDirectory = workDirectory;
+        this.sortBufferSize = sortBufferSize;
+    }
+
+    /**
+     * Writes the delta between the zipped CSV exports to the given output stream, as a zip archive.
+     */
+    public Counts write(InputStream previousZippedCSV, InputStream newZippedCSV, OutputStream outputStream) throws IOException {
+        Files.createDirectories(workDirectory);
+        Path added = Files.createTempFile(workDirectory, "added-", ".csv");
+        Path changed = Files.createTempFile(workDirectory, "changed-", ".csv");
+        Path deleted = Files.createTempFile(workDirectory, "deleted-", ".csv");
+        try {
+            var previousRecords = new CSVRecordReader(openZippedCSV(previousZippedCSV));
+            var newRecords = new CSVRecordReader(openZippedCSV(newZippedCSV));
+            if (!previousRecords.hasNext() || !newRecords.hasNext()) {
+                throw new IOException("Missing CSV header");
+            }
+            String previousHeader = previousRecords.next();
+            String header = newRecords.next();
+
+            Counts counts;
+            var sorter = new ExternalSorter<>(byId, rowCodec, sortBufferSize, workDirectory);
+            try (Stream<Row> previousRows = sorter.sort(toRows(previousHeader, previousRecords));
+                 Stream<Row> newRows = sorter.sort(toRows(header, newRecords));
+                 Writer addedWriter = Files.newBufferedWriter(added);
+                 Writer changedWriter = Files.newBufferedWriter(changed);
+                 Writer deletedWriter = Files.newBufferedWriter(deleted)) {
+                addedWriter.write(header);
+                changedWriter.write(header);
+                deletedWriter.write(previousHeader);
+                counts = compare(previousRows.iterator(), newRows.iterator(), addedWriter, changedWriter, deletedWriter);
+            }
+
+            var zipOutputStream = new ZipOutputStream(outputStream);
+            addZipEntry(zipOutputStream, ADDED, added);
+            addZipEntry(zipOutputStream, CHANGED, changed);
+            addZipEntry(zipOutputStream, DELETED, deleted);
+            zipOutputStream.finish();
+            logger.info("Delta: " + counts.added() + " added, " + counts.changed() + " changed and " + counts.deleted() + " deleted rows");
+            return counts;
+        } finally {
+            Files.deleteIfExists(added);
+            Files.deleteIfExists(changed);
+            Files.deleteIfExists(deleted);
+        }
+    }
+
+    /**
+     * Walks through both sorted exports at the same time. Rows with the same id are paired in order,
+     * in case an id is not unique.
+     */
+    private static Counts compare(Iterator<Row> previousRows, Iterator<Row> newRows,
+                                  Writer added, Writer changed, Writer deleted) throws IOException {
+        long addedCount = 0;
+        long changedCount = 0;
+        long deletedCount = 0;
+        Row previousRow = nextOrNull(previousRows);
+        Row newRow = nextOrNull(newRows);
+        while (previousRow != null || newRow != null) {
+            int comparison = previousRow == null ? 1 : newRow == null ? -1 : previousRow.id().compareTo(newRow.id());
+            if (comparison < 0) {
+                deleted.write(previousRow.record());
+                deletedCount++;
+                previousRow = nextOrNull(previousRows);
+            } else if (comparison > 0) {
+                added.write(newRow.record());
+                addedCount++;
+                newRow = nextOrNull(newRows);
+            } else {
+                if (previousRow.hash() != newRow.hash() || !previousRow.record().equals(newRow.record())) {
+                    changed.write(newRow.record());
+                    changedCount++;
+                }
+                previousRow = nextOrNull(previousRows);
+                newRow = nextOrNull(newRows);
+            }
+        }
+        return new Counts(addedCount, changedCount, deletedCount);
+    }
+
+    private static Iterator<Row> toRows(String header, Iterator<String> records) throws IOException {
+        List<String> headers = CSVRecordReader.cells(header);
+        int source = headers.indexOf(CSVHeaders.SOURCE);
+        int layer = headers.indexOf(CSVHeaders.LAYER);
+        int id = headers.indexOf(CSVHeaders.ID);
+        if (source < 0 || layer < 0 || id < 0) {
+            throw new IOException("Missing the source, layer or id column in the CSV header");
+        }
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return records.hasNext();
+            }
+
+            @Override
+            public Row next() {
+                String record = records.next();
+                List<String> cells = CSVRecordReader.cells(record);
+                if (cells.size() <= Math.max(source, Math.max(layer, id))) {
+                    throw new IllegalStateException("Malformed CSV row: " + record);
+                }
+                return new Row(cells.get(source) + ":" + cells.get(layer) + ":" + cells.get(id), hash(record), record);
+            }
+        };
+    }
+
+    /**
+     * A 64-bit hash of the row, so that unchanged rows are mostly told apart without comparing them.
+     */
+    private static long hash(String record) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < record.length(); i++) {
+            hash = (hash ^ record.charAt(i)) * 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private static Row nextOrNull(Iterator<Row> rows) {
+        return rows.hasNext() ? rows.next() : null;
+    }
+
+    private static Reader openZippedCSV(InputStream inputStream) throws IOException {
+        var zipInputStream = new ZipInputStream(inputStream);
+        if (zipInputStream.getNextEntry() == null) {
+            throw new IOException("Empty zip archive");
+        }
+        return new InputStreamReader(zipInputStream, StandardCharsets.UTF_8);
+    }
+
+    private static void addZipEntry(ZipOutputStream zipOutputStream, String name, Path file) throws IOException {
+        zipOutputStream.putNextEntry(new ZipEntry(name));
+        Files.copy(file, zipOutputStream);
+        zipOutputStream.closeEntry();
+    }
+
+    /**
+     * The rows may be longer than the 64 KB writeUTF allows.
+     */
+    private static void writeString(DataOutputStream outputStream, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        outputStream.writeInt(bytes.length);
+        outputStream.write(bytes);
+    }
+
+    private static String readString(DataInputStream inputStream) throws IOException {
+        byte[] bytes = new byte[inputStream.readInt()];
+        inputStream.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
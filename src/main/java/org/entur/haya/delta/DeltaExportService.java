@@ -0,0 +1,110 @@
+package org.entur.haya.delta;
+
+import org.entur.haya.blobStore.HayaBlobStoreService;
+import org.entur.haya.blobStore.MoradinBlobStoreService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.retry.annotation.Backoff;
+import org.springframework.retry.annotation.Retryable;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Publishes the rows added, changed and deleted since the latest file in moradin, next to the full file.
+ */
+@Service
+public class DeltaExportService {
+
+    private static final Logger logger = LoggerFactory.getLogger(DeltaExportService.class);
+
+    @Value("${haya.workdir:/tmp/haya/geocoder}")
+    private String hayaWorkDir;
+
+    @Value("${haya.delta.enabled:false}")
+    private boolean deltaExport;
+
+    @Value("${haya.delta.sortBufferSize:200000}")
+    private int deltaSortBufferSize;
+
+    private final HayaBlobStoreService hayaBlobStoreService;
+    private final MoradinBlobStoreService moradinBlobStoreService;
+
+    public DeltaExportService(HayaBlobStoreService hayaBlobStoreService, MoradinBlobStoreService moradinBlobStoreService) {
+        this.hayaBlobStoreService = hayaBlobStoreService;
+        this.moradinBlobStoreService = moradinBlobStoreService;
+    }
+
+    public boolean isDeltaExport() {
+        return deltaExport;
+    }
+
+    /**
+     * Compares the uploaded CSV file with the latest one in the moradin bucket, which must not have been
+     * replaced yet, and uploads the added, changed and deleted rows as a separate zip file.
+     * Returns false when there is no latest file to compare with, after deleting the latest delta file,
+     * which was made against another file.
+     */
+    @Retryable(
+            value = Exception.class,
+            maxAttemptsExpression = "${haya.retry.maxAttempts:3}",
+            backoff = @Backoff(
+                    delayExpression = "${haya.retry.maxDelay:5000}",
+                    multiplierExpression = "${haya.retry.backoff.multiplier:3}"))
+    public boolean createAndUploadDeltaFile(String filename) {
+        logger.info("Creating the delta file against the latest file in moradin");
+        Path deltaFolder = Paths.get(hayaWorkDir, "delta");
+        Path deltaFile = deltaFolder.resolve(filename + "_delta.zip");
+        try (InputStream previousZippedCSV = moradinBlobStoreService.getLatestBlob()) {
+            if (previousZippedCSV == null) {
+                logger.info("No latest file in moradin to compare with, skipping the delta file");
+                deleteLatestDeltaFile();
+                return false;
+            }
+            Files.createDirectories(deltaFolder);
+            try (InputStream newZippedCSV = hayaBlobStoreService.getBlob(filename + ".zip");
+                 OutputStream outputStream = new BufferedOutputStream(Files.newOutputStream(deltaFile))) {
+                new DeltaExport(deltaFolder, deltaSortBufferSize).write(previousZippedCSV, newZippedCSV, outputStream);
+            }
+            try (InputStream inputStream = Files.newInputStream(deltaFile)) {
+                hayaBlobStoreService.uploadBlob(filename + "_delta.zip", inputStream);
+            }
+            return true;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Retryable(
+            value = Exception.class,
+            maxAttemptsExpression = "${haya.retry.maxAttempts:3}",
+            backoff = @Backoff(
+                    delayExpression = "${haya.retry.maxDelay:5000}",
+                    multiplierExpression = "${haya.retry.backoff.multiplier:3}"))
+    public void copyDeltaFileAsLatestToConfiguredBucket(String filename) {
+        logger.info("Coping latest delta file to moradin");
+        hayaBlobStoreService.copyBlobAsLatestDeltaToTargetBucket(filename + "_delta.zip");
+    }
+
+    /**
+     * Deletes the latest delta file in moradin, when there is no delta for the new latest file.
+     * A failure is only logged, not to keep the new latest file from being published.
+     */
+    public void deleteLatestDeltaFile() {
+        try {
+            if (moradinBlobStoreService.deleteLatestDeltaBlob()) {
+                logger.info("Deleted the latest delta file in moradin");
+            }
+        } catch (Exception e) {
+            logger.warn("Failed to delete the latest delta file in moradin", e);
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package org.entur.haya.incremental;
+
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * What the previous run made out of each import file, so that the next run can reuse the enriched rows
+ * of the files that have not changed since, as long as neither the admin units nor the enrichment settings
+ * and the row format have changed.
+ */
+public record ImportManifest(List<Input> inputs) {
+
+    public static final ImportManifest EMPTY = new ImportManifest(List.of());
+
+    /**
+     * @param name              The blob name of the import file.
+     * @param checksum          The MD5 checksum of the import file.
+     * @param adminUnitsVersion The MD5 checksum of the admin units file the rows were enriched with.
+     * @param enrichment        The key of the enrichment settings and of the row format the rows were made with,
+     *                          null in the manifests written before it was recorded.
+     * @param enrichedRows      The blob name of the gzipped CSV rows, without header, or null if they could not be stored.
+     */
+    public record Input(String name, String checksum, String adminUnitsVersion, String enrichment, String enrichedRows) {
+
+        public boolean isReusableFor(String checksum, String adminUnitsVersion, String enrichment) {
+            return enrichedRows != null
+                    && this.checksum.equals(checksum)
+                    && this.adminUnitsVersion.equals(adminUnitsVersion)
+                    && enrichment.equals(this.enrichment);
+        }
+    }
+
+    public Optional<Input> findInput(String name) {
+        return inputs.stream().filter(input -> input.name().equals(name)).findFirst();
+    }
+}
@@ -0,0 +1,172 @@
+package org.entur.haya.incremental;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.entur.geocoder.blobStore.BlobStoreFiles;
+import org.entur.geocoder.model.PeliasDocument;
+import org.entur.haya.HayaService;
+import org.entur.haya.adminUnitsCache.AdminUnitsCache;
+import org.entur.haya.blobStore.HayaBlobStoreService;
+import org.entur.haya.csv.PeliasCSV;
+import org.entur.haya.metrics.HayaMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.retry.annotation.Backoff;
+import org.springframework.retry.annotation.Retryable;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Enriches only the import files that have changed since the previous run, and reuses the enriched rows
+ * stored by the previous runs for the others, as listed in the {@link ImportManifest}.
+ */
+@Service
+public class IncrementalImportService {
+
+    private static final Logger logger = LoggerFactory.getLogger(IncrementalImportService.class);
+
+    private static final String IMPORT_MANIFEST = "manifest.json";
+
+    private static final ObjectMapper manifestMapper = new ObjectMapper();
+
+    @Value("${haya.workdir:/tmp/haya/geocoder}")
+    private String hayaWorkDir;
+
+    @Value("${haya.import.incremental:false}")
+    private boolean incrementalImport;
+
+    @Value("${blobstore.gcs.haya.incremental.folder:incremental}")
+    private String incrementalFolder;
+
+    private final HayaService hayaService;
+    private final HayaBlobStoreService hayaBlobStoreService;
+    private final HayaMetrics metrics;
+
+    public IncrementalImportService(HayaService hayaService, HayaBlobStoreService hayaBlobStoreService, HayaMetrics metrics) {
+        this.hayaService = hayaService;
+        this.hayaBlobStoreService = hayaBlobStoreService;
+        this.metrics = metrics;
+    }
+
+    public boolean isIncrementalImport() {
+        return incrementalImport;
+    }
+
+    public ImportManifest loadImportManifest() {
+        String manifestName = incrementalFolder + "/" + IMPORT_MANIFEST;
+        try (InputStream inputStream = hayaBlobStoreService.getBlob(manifestName)) {
+            if (inputStream == null) {
+                logger.info("No import manifest found: " + manifestName);
+                return ImportManifest.EMPTY;
+            }
+            return manifestMapper.readValue(inputStream, ImportManifest.class);
+        } catch (Exception e) {
+            logger.warn("Failed to load import manifest " + manifestName + ", enriching all the import files", e);
+            return ImportManifest.EMPTY;
+        }
+    }
+
+    @Retryable(
+            value = Exception.class,
+            maxAttemptsExpression = "${haya.retry.maxAttempts:3}",
+            backoff = @Backoff(
+                    delayExpression = "${haya.retry.maxDelay:5000}",
+                    multiplierExpression = "${haya.retry.backoff.multiplier:3}"))
+    public void saveImportManifest(ImportManifest importManifest) {
+        logger.info("Saving the import manifest");
+        try {
+            byte[] manifest = manifestMapper.writerWithDefaultPrettyPrinter().writeValueAsBytes(importManifest);
+            hayaBlobStoreService.uploadBlob(incrementalFolder + "/" + IMPORT_MANIFEST, new ByteArrayInputStream(manifest));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Makes the enriched CSV rows of the given import file available in the working directory,
+     * reusing the rows stored by an earlier run when neither the file, the admin units, the enrichment settings
+     * nor the row format have changed, and otherwise enriching the documents of the file, and storing the rows
+     * for the next runs.
+     */
+    public ImportManifest.Input prepareEnrichedRows(BlobStoreFiles.File file,
+                                                    ImportManifest previousManifest,
+                                                    String adminUnitsVersion,
+                                                    AdminUnitsCache adminUnitsCache) {
+        Path archive = Paths.get(hayaWorkDir, "pelias-document-zip", HayaService.getLocalFileName(file.getName()));
+        Path enrichedRows = getEnrichedRowsFile(file.getName());
+        String checksum = HayaService.md5Checksum(archive);
+        String enrichment = hayaService.getEnrichmentKey();
+
+        var previousInput = previousManifest.findInput(file.getName())
+                .filter(input -> input.isReusableFor(checksum, adminUnitsVersion, enrichment));
+        if (previousInput.isPresent() && loadEnrichedRows(previousInput.get().enrichedRows(), enrichedRows)) {
+            logger.info("Reusing the enriched rows of unchanged " + file.getFileNameOnly());
+            return previousInput.get();
+        }
+
+        logger.info("Enriching the documents of " + file.getFileNameOnly());
+        try (Stream<PeliasDocument> peliasDocuments = hayaService.enrichWithParentInfo(hayaService.readPeliasDocumentsFromZipArchive(archive), adminUnitsCache);
+             OutputStream outputStream = new GZIPOutputStream(Files.newOutputStream(enrichedRows), 65536)) {
+            metrics.addDocumentsWritten(PeliasCSV.writeRows(peliasDocuments, outputStream, metrics::addDocumentsDropped));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        String enrichedRowsName = incrementalFolder + "/enriched/" + checksum + "_" + adminUnitsVersion + "_" + enrichment + ".csv.gz";
+        return new ImportManifest.Input(file.getName(), checksum, adminUnitsVersion, enrichment,
+                storeEnrichedRows(enrichedRows, enrichedRowsName) ? enrichedRowsName : null);
+    }
+
+    /**
+     * Zips the CSV header and the enriched rows of each import file.
+     */
+    public InputStream createZippedPeliasCSV(List<ImportManifest.Input> inputs, String filename) {
+        logger.info("Create zipped Pelias CSV file from the enriched rows");
+        return hayaService.createZippedPeliasCSVFromRows(inputs.stream().map(input -> getEnrichedRowsFile(input.name())).toList(), filename);
+    }
+
+    protected Path getEnrichedRowsFile(String inputName) {
+        try {
+            Path folder = Files.createDirectories(Paths.get(hayaWorkDir, "enriched-rows"));
+            return folder.resolve(HayaService.getLocalFileName(inputName) + ".csv.gz");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private boolean loadEnrichedRows(String enrichedRowsName, Path enrichedRows) {
+        try (InputStream inputStream = hayaBlobStoreService.getBlob(enrichedRowsName)) {
+            if (inputStream == null) {
+                logger.info("Stored enriched rows not found: " + enrichedRowsName);
+                return false;
+            }
+            Files.copy(inputStream, enrichedRows, StandardCopyOption.REPLACE_EXISTING);
+            return true;
+        } catch (Exception e) {
+            logger.warn("Failed to load stored enriched rows " + enrichedRowsName, e);
+            return false;
+        }
+    }
+
+    private boolean storeEnrichedRows(Path enrichedRows, String enrichedRowsName) {
+        try (InputStream inputStream = Files.newInputStream(enrichedRows)) {
+            hayaBlobStoreService.uploadBlob(enrichedRowsName, inputStream);
+            return true;
+        } catch (Exception e) {
+            // The file is enriched again in the next run.
+            logger.warn("Failed to store enriched rows " + enrichedRowsName, e);
+            return false;
+        }
+    }
+}
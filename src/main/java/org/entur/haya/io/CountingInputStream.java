@@ -0,0 +1,46 @@
+package org.entur.haya.io;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.function.LongConsumer;
+
+/**
+ * Input stream handing the number of bytes of each read to the given consumer.
+ */
+public final class CountingInputStream extends FilterInputStream {
+
+    private final LongConsumer byteCounter;
+
+    public CountingInputStream(InputStream inputStream, LongConsumer byteCounter) {
+        super(inputStream);
+        this.byteCounter = byteCounter;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b >= 0) {
+            byteCounter.accept(1);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+        int count = super.read(bytes, offset, length);
+        if (count > 0) {
+            byteCounter.accept(count);
+        }
+        return count;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = super.skip(n);
+        if (skipped > 0) {
+            byteCounter.accept(skipped);
+        }
+        return skipped;
+    }
+}
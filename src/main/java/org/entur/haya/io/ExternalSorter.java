@@ -0,0 +1,175 @@
+package org.entur.haya.io;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Sorts more values than fit in memory, by sorting them in runs of at most {@code maxInMemory} values,
+ * spilling the sorted runs to temporary files, and merging the runs while they are read back.
+ * The sort is stable.
+ */
+public final class ExternalSorter<T> {
+
+    /**
+     * Writes and reads back the values spilled to disk.
+     */
+    public interface Codec<T> {
+        void write(DataOutputStream outputStream, T value) throws IOException;
+
+        T read(DataInputStream inputStream) throws IOException;
+    }
+
+    private final Comparator<? super T> comparator;
+    private final Codec<T> codec;
+    private final int maxInMemory;
+    private final Path tempDirectory;
+
+    public ExternalSorter(Comparator<? super T> comparator, Codec<T> codec, int maxInMemory, Path tempDirectory) {
+        this.comparator = comparator;
+        this.codec = codec;
+        this.maxInMemory = maxInMemory;
+        this.tempDirectory = tempDirectory;
+    }
+
+    /**
+     * Returns the values in order. The returned stream must be closed, to delete the temporary files.
+     */
+    public Stream<T> sort(Iterator<T> values) throws IOException {
+        List<Path> runs = new ArrayList<>();
+        try {
+            List<T> run = new ArrayList<>();
+            while (values.hasNext()) {
+                run.add(values.next());
+                if (run.size() == maxInMemory) {
+                    runs.add(spill(run));
+                    run.clear();
+                }
+            }
+            run.sort(comparator);
+            if (runs.isEmpty()) {
+                return run.stream();
+            }
+            if (!run.isEmpty()) {
+                runs.add(spill(run));
+            }
+            var merge = new Merge(runs);
+            return StreamSupport.stream(Spliterators.spliteratorUnknownSize(merge, Spliterator.ORDERED), false)
+                    .onClose(merge::close);
+        } catch (IOException | RuntimeException e) {
+            deleteRuns(runs);
+            throw e;
+        }
+    }
+
+    private Path spill(List<T> run) throws IOException {
+        run.sort(comparator);
+        Files.createDirectories(tempDirectory);
+        Path file = Files.createTempFile(tempDirectory, "sort-run-", ".bin");
+        try (var outputStream = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 65536))) {
+            for (T value : run) {
+                outputStream.writeBoolean(true);
+                codec.write(outputStream, value);
+            }
+            outputStream.writeBoolean(false);
+        }
+        return file;
+    }
+
+    private static void deleteRuns(List<Path> runs) {
+        for (Path run : runs) {
+            try {
+                Files.deleteIfExists(run);
+            } catch (IOException e) {
+                // Left to the cleaning of the working directory.
+            }
+        }
+    }
+
+    private record Head<T>(T value, int run) {
+    }
+
+    /**
+     * Merges the sorted runs, taking the run with the smallest next value, or the earliest run on ties.
+     */
+    private final class Merge implements Iterator<T> {
+
+        private final List<Path> runs;
+        private final List<DataInputStream> readers = new ArrayList<>();
+        private final PriorityQueue<Head<T>> heads;
+
+        private Merge(List<Path> runs) throws IOException {
+            this.runs = runs;
+            Comparator<Head<T>> byValue = Comparator.comparing(Head::value, comparator);
+            this.heads = new PriorityQueue<>(runs.size(), byValue.thenComparingInt(Head::run));
+            try {
+                for (int i = 0; i < runs.size(); i++) {
+                    readers.add(new DataInputStream(new BufferedInputStream(Files.newInputStream(runs.get(i)), 65536)));
+                    readHead(i);
+                }
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !heads.isEmpty();
+        }
+
+        @Override
+        public T next() {
+            Head<T> head = heads.poll();
+            if (head == null) {
+                throw new NoSuchElementException();
+            }
+            try {
+                readHead(head.run());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return head.value();
+        }
+
+        private void readHead(int run) throws IOException {
+            DataInputStream reader = readers.get(run);
+            boolean hasValue;
+            try {
+                hasValue = reader.readBoolean();
+            } catch (EOFException e) {
+                throw new IOException("Truncated sort run " + runs.get(run), e);
+            }
+            if (hasValue) {
+                heads.add(new Head<>(codec.read(reader), run));
+            }
+        }
+
+        private void close() {
+            for (DataInputStream reader : readers) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    // Nothing more to read.
+                }
+            }
+            deleteRuns(runs);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package org.entur.haya.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Output stream counting the bytes written through it, and the time spent in the writes and flushes
+ * of the underlying stream, that is the time the writer waited for the stages after it.
+ * Closing it does not close the underlying stream.
+ */
+public final class MeteredOutputStream extends OutputStream {
+
+    private final OutputStream outputStream;
+
+    private long bytes;
+    private long nanos;
+
+    public MeteredOutputStream(OutputStream outputStream) {
+        this.outputStream = outputStream;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        long start = System.nanoTime();
+        outputStream.write(b);
+        nanos += System.nanoTime() - start;
+        bytes++;
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        long start = System.nanoTime();
+        outputStream.write(bytes, offset, length);
+        nanos += System.nanoTime() - start;
+        this.bytes += length;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        long start = System.nanoTime();
+        outputStream.flush();
+        nanos += System.nanoTime() - start;
+    }
+
+    public long bytes() {
+        return bytes;
+    }
+
+    public long nanos() {
+        return nanos;
+    }
+}
@@ -0,0 +1,324 @@
+package org.entur.haya.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a zip archive with a single deflated entry, compressing the data in blocks on a pool of threads,
+ * the way pigz does.
+ * <p>
+ * Each block is deflated on its own, with the last 32 KB of the previous block as the dictionary,
+ * and ends with a sync flush, so that the compressed blocks put together form a single deflate stream.
+ * The CRC is computed on the writing thread, and the compressed blocks are written in order.
+ * <p>
+ * The archive layout is the one {@link java.util.zip.ZipOutputStream} writes for an entry of unknown size,
+ * with a data descriptor and the Zip64 extensions when the sizes or offsets need them.
+ */
+public final class ParallelDeflateZipOutputStream extends OutputStream {
+
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+
+    private static final int LOCSIG = 0x04034b50;
+    private static final int EXTSIG = 0x08074b50;
+    private static final int CENSIG = 0x02014b50;
+    private static final int ENDSIG = 0x06054b50;
+    private static final int ZIP64_ENDSIG = 0x06064b50;
+    private static final int ZIP64_LOCSIG = 0x07064b50;
+    private static final long ZIP64_MAGICVAL = 0xFFFFFFFFL;
+    private static final int ZIP64_EXTID = 0x0001;
+
+    private static final int FLAG_DATA_DESCRIPTOR = 0x08;
+    private static final int FLAG_UTF8 = 0x800;
+    private static final int DEFLATED = 8;
+
+    private static final AtomicInteger poolNumber = new AtomicInteger();
+
+    private final OutputStream outputStream;
+    private final byte[] entryName;
+    private final int dosTime;
+    private final int level;
+    private final int blockSize;
+    private final int maxBlocksInFlight;
+    private final ExecutorService deflaters;
+    private final Deque<Future<byte[]>> blocksInFlight = new ArrayDeque<>();
+    private final CRC32 crc = new CRC32();
+
+    private byte[] block;
+    private int blockLength;
+    private byte[] dictionary;
+    private long size;
+    private long compressedSize;
+    private long written;
+    private boolean closed;
+
+    public ParallelDeflateZipOutputStream(OutputStream outputStream, String entryName, int threads, int blockSize) throws IOException {
+        this(outputStream, entryName, threads, blockSize, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    public ParallelDeflateZipOutputStream(OutputStream outputStream, String entryName, int threads, int blockSize, int level) throws IOException {
+        if (blockSize < DICTIONARY_SIZE) {
+            throw new IllegalArgumentException("The block size must be at least " + DICTIONARY_SIZE + " bytes");
+        }
+        this.outputStream = outputStream;
+        this.entryName = entryName.getBytes(StandardCharsets.UTF_8);
+        this.dosTime = toDosTime(LocalDateTime.now());
+        this.level = level;
+        this.blockSize = blockSize;
+        this.maxBlocksInFlight = 2 * threads;
+        this.block = new byte[blockSize];
+        int pool = poolNumber.incrementAndGet();
+        var threadNumber = new AtomicInteger();
+        this.deflaters = Executors.newFixedThreadPool(threads, runnable -> {
+            var thread = new Thread(runnable, "parallel-deflate-" + pool + "-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        writeLocalHeader();
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        while (length > 0) {
+            int copied = Math.min(length, blockSize - blockLength);
+            System.arraycopy(bytes, offset, block, blockLength, copied);
+            blockLength += copied;
+            offset += copied;
+            length -= copied;
+            if (blockLength == blockSize) {
+                submitBlock(false);
+            }
+        }
+    }
+
+    /**
+     * Compresses the last block, and writes the end of the archive.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            submitBlock(true);
+            while (!blocksInFlight.isEmpty()) {
+                writeNextCompressedBlock();
+            }
+            writeDataDescriptor();
+            writeEnd(writeCentralHeader());
+            outputStream.close();
+        } finally {
+            deflaters.shutdownNow();
+        }
+    }
+
+    private void submitBlock(boolean last) throws IOException {
+        byte[] input = block;
+        int inputLength = blockLength;
+        byte[] inputDictionary = dictionary;
+        crc.update(input, 0, inputLength);
+        size += inputLength;
+        blocksInFlight.add(deflaters.submit(() -> deflate(input, inputLength, inputDictionary, last)));
+        if (inputLength >= DICTIONARY_SIZE) {
+            dictionary = Arrays.copyOfRange(input, inputLength - DICTIONARY_SIZE, inputLength);
+        }
+        block = new byte[blockSize];
+        blockLength = 0;
+        while (blocksInFlight.size() >= maxBlocksInFlight) {
+            writeNextCompressedBlock();
+        }
+    }
+
+    private byte[] deflate(byte[] input, int inputLength, byte[] inputDictionary, boolean last) {
+        var deflater = new Deflater(level, true);
+        try {
+            if (inputDictionary != null) {
+                deflater.setDictionary(inputDictionary);
+            }
+            deflater.setInput(input, 0, inputLength);
+            if (last) {
+                deflater.finish();
+            }
+            byte[] output = new byte[inputLength / 2 + 1024];
+            int outputLength = 0;
+            while (true) {
+                outputLength += deflater.deflate(output, outputLength, output.length - outputLength,
+                        last ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH);
+                // The flush is complete when the output buffer is not filled up.
+                if (last ? deflater.finished() : outputLength < output.length) {
+                    return Arrays.copyOf(output, outputLength);
+                }
+                if (outputLength == output.length) {
+                    output = Arrays.copyOf(output, 2 * output.length);
+                }
+            }
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private void writeNextCompressedBlock() throws IOException {
+        try {
+            byte[] compressedBlock = blocksInFlight.remove().get();
+            writeBytes(compressedBlock);
+            compressedSize += compressedBlock.length;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while deflating", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to deflate", e.getCause());
+        }
+    }
+
+    private void writeLocalHeader() throws IOException {
+        writeInt(LOCSIG);
+        writeShort(20);
+        writeShort(FLAG_DATA_DESCRIPTOR | FLAG_UTF8);
+        writeShort(DEFLATED);
+        writeInt(dosTime);
+        writeInt(0);
+        writeInt(0);
+        writeInt(0);
+        writeShort(entryName.length);
+        writeShort(0);
+        writeBytes(entryName);
+    }
+
+    private void writeDataDescriptor() throws IOException {
+        writeInt(EXTSIG);
+        writeInt(crc.getValue());
+        if (compressedSize >= ZIP64_MAGICVAL || size >= ZIP64_MAGICVAL) {
+            writeLong(compressedSize);
+            writeLong(size);
+        } else {
+            writeInt(compressedSize);
+            writeInt(size);
+        }
+    }
+
+    /**
+     * Writes the central directory of the single entry, and returns its offset.
+     */
+    private long writeCentralHeader() throws IOException {
+        long centralHeaderOffset = written;
+        boolean zip64Size = size >= ZIP64_MAGICVAL;
+        boolean zip64CompressedSize = compressedSize >= ZIP64_MAGICVAL;
+        int zip64ExtraLength = (zip64Size ? 8 : 0) + (zip64CompressedSize ? 8 : 0);
+        boolean zip64 = zip64ExtraLength > 0;
+        int version = zip64 ? 45 : 20;
+
+        writeInt(CENSIG);
+        writeShort(version);
+        writeShort(version);
+        writeShort(FLAG_DATA_DESCRIPTOR | FLAG_UTF8);
+        writeShort(DEFLATED);
+        writeInt(dosTime);
+        writeInt(crc.getValue());
+        writeInt(zip64CompressedSize ? ZIP64_MAGICVAL : compressedSize);
+        writeInt(zip64Size ? ZIP64_MAGICVAL : size);
+        writeShort(entryName.length);
+        writeShort(zip64 ? zip64ExtraLength + 4 : 0);
+        writeShort(0);
+        writeShort(0);
+        writeShort(0);
+        writeInt(0);
+        // The entry is the first one in the archive, so the offset of its local header is zero.
+        writeInt(0);
+        writeBytes(entryName);
+        if (zip64) {
+            writeShort(ZIP64_EXTID);
+            writeShort(zip64ExtraLength);
+            if (zip64Size) {
+                writeLong(size);
+            }
+            if (zip64CompressedSize) {
+                writeLong(compressedSize);
+            }
+        }
+        return centralHeaderOffset;
+    }
+
+    private void writeEnd(long centralHeaderOffset) throws IOException {
+        long centralHeaderLength = written - centralHeaderOffset;
+        boolean zip64 = centralHeaderOffset >= ZIP64_MAGICVAL;
+        if (zip64) {
+            long zip64EndOffset = written;
+            writeInt(ZIP64_ENDSIG);
+            writeLong(44);
+            writeShort(45);
+            writeShort(45);
+            writeInt(0);
+            writeInt(0);
+            writeLong(1);
+            writeLong(1);
+            writeLong(centralHeaderLength);
+            writeLong(centralHeaderOffset);
+
+            writeInt(ZIP64_LOCSIG);
+            writeInt(0);
+            writeLong(zip64EndOffset);
+            writeInt(1);
+        }
+        writeInt(ENDSIG);
+        writeShort(0);
+        writeShort(0);
+        writeShort(1);
+        writeShort(1);
+        writeInt(centralHeaderLength);
+        writeInt(zip64 ? ZIP64_MAGICVAL : centralHeaderOffset);
+        writeShort(0);
+    }
+
+    private void writeShort(int value) throws IOException {
+        outputStream.write(value & 0xff);
+        outputStream.write(value >>> 8 & 0xff);
+        written += 2;
+    }
+
+    private void writeInt(long value) throws IOException {
+        writeShort((int) (value & 0xffff));
+        writeShort((int) (value >>> 16 & 0xffff));
+    }
+
+    private void writeLong(long value) throws IOException {
+        writeInt(value & 0xffffffffL);
+        writeInt(value >>> 32);
+    }
+
+    private void writeBytes(byte[] bytes) throws IOException {
+        outputStream.write(bytes, 0, bytes.length);
+        written += bytes.length;
+    }
+
+    private static int toDosTime(LocalDateTime time) {
+        if (time.getYear() < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+        return (time.getYear() - 1980) << 25
+                | time.getMonthValue() << 21
+                | time.getDayOfMonth() << 16
+                | time.getHour() << 11
+                | time.getMinute() << 5
+                | time.getSecond() >> 1;
+    }
+}
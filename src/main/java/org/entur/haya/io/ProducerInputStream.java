@@ -0,0 +1,170 @@
+package org.entur.haya.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Input stream over the bytes written by a producer running on its own thread.
+ * The bytes are handed over in chunks through a bounded queue, so the producer and the consumer
+ * work at the same time, and at most {@code capacity} chunks are held in memory.
+ * <p>
+ * A failure in the producer is rethrown to the consumer instead of ending the stream early,
+ * and closing the stream before the end stops the producer.
+ */
+public final class ProducerInputStream extends InputStream {
+
+    @FunctionalInterface
+    public interface Producer {
+        void produce(OutputStream outputStream) throws Exception;
+    }
+
+    private static final byte[] END_OF_STREAM = new byte[0];
+
+    private final BlockingQueue<byte[]> chunks;
+    private final Thread producerThread;
+
+    private volatile Throwable producerFailure;
+    private volatile boolean closed;
+
+    private byte[] currentChunk;
+    private int position;
+
+    private ProducerInputStream(String name, int chunkSize, int capacity, Producer producer) {
+        this.chunks = new ArrayBlockingQueue<>(capacity);
+        this.producerThread = new Thread(() -> runProducer(producer, chunkSize), name);
+    }
+
+    public static ProducerInputStream start(String name, int chunkSize, int capacity, Producer producer) {
+        var producerInputStream = new ProducerInputStream(name, chunkSize, capacity, producer);
+        producerInputStream.producerThread.start();
+        return producerInputStream;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!hasRemaining()) {
+            return -1;
+        }
+        return currentChunk[position++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        if (!hasRemaining()) {
+            return -1;
+        }
+        int count = Math.min(length, currentChunk.length - position);
+        System.arraycopy(currentChunk, position, bytes, offset, count);
+        position += count;
+        return count;
+    }
+
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            producerThread.interrupt();
+        }
+    }
+
+    private boolean hasRemaining() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        while (currentChunk == null || position == currentChunk.length) {
+            if (currentChunk == END_OF_STREAM) {
+                if (producerFailure != null) {
+                    throw new IOException("Producer " + producerThread.getName() + " failed", producerFailure);
+                }
+                return false;
+            }
+            try {
+                currentChunk = chunks.take();
+                position = 0;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the producer");
+            }
+        }
+        return true;
+    }
+
+    private void runProducer(Producer producer, int chunkSize) {
+        try (var outputStream = new ChunkOutputStream(chunkSize)) {
+            producer.produce(outputStream);
+        } catch (Throwable e) {
+            producerFailure = e;
+        } finally {
+            try {
+                put(END_OF_STREAM);
+            } catch (IOException e) {
+                // The consumer has closed the stream, and will not read the end.
+            }
+        }
+    }
+
+    private void put(byte[] chunk) throws IOException {
+        try {
+            while (!chunks.offer(chunk, 1, TimeUnit.SECONDS)) {
+                if (closed) {
+                    throw new IOException("Stream closed by the consumer");
+                }
+            }
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Stream closed by the consumer");
+        }
+    }
+
+    private final class ChunkOutputStream extends OutputStream {
+
+        private final byte[] buffer;
+        private int count;
+
+        private ChunkOutputStream(int chunkSize) {
+            this.buffer = new byte[chunkSize];
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (count == buffer.length) {
+                flushChunk();
+            }
+            buffer[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            while (length > 0) {
+                if (count == buffer.length) {
+                    flushChunk();
+                }
+                int copied = Math.min(length, buffer.length - count);
+                System.arraycopy(bytes, offset, buffer, count, copied);
+                count += copied;
+                offset += copied;
+                length -= copied;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            flushChunk();
+        }
+
+        private void flushChunk() throws IOException {
+            if (count > 0) {
+                put(Arrays.copyOf(buffer, count));
+                count = 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package org.entur.haya.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.entur.haya.adminUnitsCache.EnrichmentStatistics;
+import org.entur.haya.io.CountingInputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import static net.logstash.logback.argument.StructuredArguments.entries;
+
+/**
+ * Timers of the stages of the batch run, and counters of the documents, the enrichment paths and the bytes
+ * read and written, summed up in a structured log event at the end of the run.
+ * <p>
+ * The enrichment, CSV, zip and upload stages run at the same time, the documents being streamed through them.
+ * The enrichment time is summed over the enricher threads, the CSV and zip times are the time the writer thread
+ * spent in each, without waiting for the stages before or after it, and the upload time is the time of the
+ * whole streaming export.
+ */
+@Component
+public class HayaMetrics {
+
+    private static final Logger logger = LoggerFactory.getLogger(HayaMetrics.class);
+
+    public enum Stage {
+        DOWNLOAD("download"),
+        UNZIP("unzip"),
+        SNAPSHOT_LOAD("snapshotLoad"),
+        NETEX_PARSE("netexParse"),
+        CACHE_BUILD("cacheBuild"),
+        SPATIAL_ORDER("spatialOrder"),
+        ENRICHMENT("enrichment"),
+        CSV("csv"),
+        ZIP("zip"),
+        UPLOAD("upload");
+
+        private final String tag;
+
+        Stage(String tag) {
+            this.tag = tag;
+        }
+
+        public String tag() {
+            return tag;
+        }
+    }
+
+    private final long startNanos = System.nanoTime();
+    private final Map<Stage, Timer> stageTimers = new EnumMap<>(Stage.class);
+    private final EnrichmentStatistics enrichmentStatistics = new EnrichmentStatistics();
+    private final Counter documentsWritten;
+    private final Counter documentsDropped;
+    private final Counter bytesIn;
+    private final Counter bytesOut;
+    private final Counter csvBytes;
+
+    public HayaMetrics(MeterRegistry meterRegistry) {
+        for (Stage stage : Stage.values()) {
+            stageTimers.put(stage, Timer.builder("haya.stage.duration")
+                    .description("Time spent in a stage of the batch run")
+                    .tag("stage", stage.tag())
+                    .register(meterRegistry));
+        }
+        this.documentsWritten = Counter.builder("haya.documents.written")
+                .description("Documents written to the CSV file")
+                .register(meterRegistry);
+        this.documentsDropped = Counter.builder("haya.documents.dropped")
+                .description("Enriched documents left out of the CSV file, as their parent is still unknown")
+                .register(meterRegistry);
+        this.bytesIn = Counter.builder("haya.bytes.in")
+                .description("Bytes of the admin units and pelias documents files downloaded")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        this.bytesOut = Counter.builder("haya.bytes.out")
+                .description("Bytes of the zipped CSV file uploaded")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        this.csvBytes = Counter.builder("haya.csv.bytes")
+                .description("Bytes of the CSV file before zipping")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        registerEnrichmentMetrics(meterRegistry);
+        Gauge.builder("haya.memory.heap.peak", HayaMetrics::peakHeapBytes)
+                .description("Sum of the peak usage of the heap memory pools")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    private void registerEnrichmentMetrics(MeterRegistry meterRegistry) {
+        FunctionCounter.builder("haya.enrichment.documents", enrichmentStatistics, EnrichmentStatistics::parentChainHits)
+                .description("Documents enriched from the parent chain of their parent id")
+                .tag("path", "parentChain")
+                .register(meterRegistry);
+        FunctionCounter.builder("haya.enrichment.documents", enrichmentStatistics, EnrichmentStatistics::reverseGeocoded)
+                .description("Documents enriched by reverse geocoding their center point")
+                .tag("path", "reverseGeocoding")
+                .register(meterRegistry);
+        FunctionCounter.builder("haya.enrichment.countries", enrichmentStatistics, EnrichmentStatistics::countriesByCountryCode)
+                .description("Countries taken from the parent chain, by the country code of the locality or county")
+                .tag("source", "countryCode")
+                .register(meterRegistry);
+        FunctionCounter.builder("haya.enrichment.countries", enrichmentStatistics, EnrichmentStatistics::countriesByReverseGeocoding)
+                .description("Countries found by reverse geocoding")
+                .tag("source", "reverseGeocoding")
+                .register(meterRegistry);
+        FunctionCounter.builder("haya.enrichment.polygon.tests", enrichmentStatistics, EnrichmentStatistics::polygonTests)
+                .description("Point in polygon tests made while enriching")
+                .register(meterRegistry);
+        FunctionCounter.builder("haya.documents.enriched", enrichmentStatistics, EnrichmentStatistics::documents)
+                .description("Documents that went through the enrichment")
+                .register(meterRegistry);
+    }
+
+    public <T> T time(Stage stage, Supplier<T> supplier) {
+        long start = System.nanoTime();
+        try {
+            return supplier.get();
+        } finally {
+            record(stage, System.nanoTime() - start);
+        }
+    }
+
+    public void time(Stage stage, Runnable runnable) {
+        time(stage, () -> {
+            runnable.run();
+            return null;
+        });
+    }
+
+    public void record(Stage stage, long nanos) {
+        stageTimers.get(stage).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Returns the same stream, handing the time spent getting each element to the given consumer,
+     * without the time spent on the element after it is handed over.
+     */
+    public static <T> Stream<T> timed(Stream<T> stream, LongConsumer nanos) {
+        Iterator<T> iterator = stream.iterator();
+        Iterator<T> timedIterator = new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                long start = System.nanoTime();
+                boolean hasNext = iterator.hasNext();
+                nanos.accept(System.nanoTime() - start);
+                return hasNext;
+            }
+
+            @Override
+            public T next() {
+                long start = System.nanoTime();
+                T next = iterator.next();
+                nanos.accept(System.nanoTime() - start);
+                return next;
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(timedIterator, Spliterator.ORDERED), false)
+                .onClose(stream::close);
+    }
+
+    /**
+     * The statistics shared by all the enrichments of the run.
+     */
+    public EnrichmentStatistics enrichmentStatistics() {
+        return enrichmentStatistics;
+    }
+
+    public InputStream countBytesIn(InputStream inputStream) {
+        return inputStream != null ? new CountingInputStream(inputStream, bytesIn::increment) : null;
+    }
+
+    public void addBytesOut(long bytes) {
+        bytesOut.increment(bytes);
+    }
+
+    public void addCsvBytes(long bytes) {
+        csvBytes.increment(bytes);
+    }
+
+    public void addDocumentsWritten(long documents) {
+        documentsWritten.increment(documents);
+    }
+
+    public void addDocumentsDropped(long documents) {
+        documentsDropped.increment(documents);
+    }
+
+    /**
+     * An upper bound of the peak heap usage, as the pools do not all peak at the same time.
+     */
+    public static long peakHeapBytes() {
+        return ManagementFactory.getMemoryPoolMXBeans().stream()
+                .filter(pool -> pool.getType() == MemoryType.HEAP)
+                .map(MemoryPoolMXBean::getPeakUsage)
+                .mapToLong(usage -> usage != null ? usage.getUsed() : 0)
+                .sum();
+    }
+
+    public Map<String, Object> summary() {
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        long documents = enrichmentStatistics.documents();
+
+        var stages = new LinkedHashMap<String, Long>();
+        stageTimers.forEach((stage, timer) -> stages.put(stage.tag(), Math.round(timer.totalTime(TimeUnit.MILLISECONDS))));
+
+        var summary = new LinkedHashMap<String, Object>();
+        summary.put("durationSeconds", Math.round(seconds));
+        summary.put("stageMillis", stages);
+        summary.put("documentsEnriched", documents);
+        summary.put("documentsWritten", Math.round(documentsWritten.count()));
+        summary.put("documentsDropped", Math.round(documentsDropped.count()));
+        summary.put("documentsPerSecond", seconds > 0 ? Math.round(documents / seconds) : 0);
+        summary.put("documentsFromParentChain", enrichmentStatistics.parentChainHits());
+        summary.put("documentsByReverseGeocoding", enrichmentStatistics.reverseGeocoded());
+        summary.put("countriesByCountryCode", enrichmentStatistics.countriesByCountryCode());
+        summary.put("countriesByReverseGeocoding", enrichmentStatistics.countriesByReverseGeocoding());
+        summary.put("polygonTestsPerDocument", documents > 0 ? (double) enrichmentStatistics.polygonTests() / documents : 0);
+        summary.put("bytesIn", Math.round(bytesIn.count()));
+        summary.put("bytesOut", Math.round(bytesOut.count()));
+        summary.put("csvBytes", Math.round(csvBytes.count()));
+        summary.put("peakHeapBytes", peakHeapBytes());
+        return summary;
+    }
+
+    /**
+     * Logs the summary of the run, with each entry as a field of the logstash event.
+     */
+    public void logSummary() {
+        logger.info("Batch run summary: {}", entries(summary()));
+    }
+}
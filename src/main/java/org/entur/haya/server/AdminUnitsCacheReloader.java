@@ -0,0 +1,82 @@
+package org.entur.haya.server;
+
+import org.entur.haya.HayaService;
+import org.entur.haya.adminUnitsCache.AdminUnitsCache;
+import org.entur.haya.adminUnitsCache.EnrichmentStatistics;
+import org.entur.haya.adminUnitsCache.ParentsInfoEnricher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Checks the admin units file every haya.server.reload.interval milliseconds, and when its version has changed,
+ * builds the new cache while the current one keeps answering, and swaps them in one step.
+ * The file is downloaded only when its update time or size has changed, to be hashed into its version.
+ * A failed reload keeps the current cache.
+ * <p>
+ * The requests are counted in statistics of their own, apart from the run metrics of the batch import.
+ */
+@Component
+@ConditionalOnProperty(name = "haya.mode", havingValue = "server")
+public class AdminUnitsCacheReloader {
+
+    private static final Logger logger = LoggerFactory.getLogger(AdminUnitsCacheReloader.class);
+
+    private record LoadedAdminUnits(String metadata, String version, ParentsInfoEnricher parentsInfoEnricher) {
+    }
+
+    private final HayaService hayaService;
+    private final EnrichmentStatistics statistics = new EnrichmentStatistics();
+    private final AtomicReference<LoadedAdminUnits> loadedAdminUnits = new AtomicReference<>();
+
+    public AdminUnitsCacheReloader(HayaService hayaService) {
+        this.hayaService = hayaService;
+    }
+
+    @Scheduled(initialDelay = 0, fixedDelayString = "${haya.server.reload.interval:600000}")
+    public void reloadIfChanged() {
+        try {
+            // Without metadata, the file is downloaded and hashed every time.
+            String metadata = hayaService.getAdminUnitsFileMetadata();
+            LoadedAdminUnits current = loadedAdminUnits.get();
+            if (current != null && metadata != null && metadata.equals(current.metadata())) {
+                logger.debug("Admin units file " + metadata + " unchanged");
+                return;
+            }
+            Path zipFile = hayaService.downloadAdminUnitsFile();
+            String version = hayaService.getAdminUnitsVersion(zipFile);
+            if (current != null && current.version().equals(version)) {
+                logger.debug("Admin units version " + version + " unchanged");
+                loadedAdminUnits.set(new LoadedAdminUnits(metadata, version, current.parentsInfoEnricher()));
+                return;
+            }
+            logger.info("Loading admin units version " + version);
+            AdminUnitsCache adminUnitsCache = hayaService.buildAdminUnitCacheFromZipFile(zipFile);
+            loadedAdminUnits.set(new LoadedAdminUnits(metadata, version,
+                    hayaService.createParentsInfoEnricher(adminUnitsCache, statistics)));
+            logger.info("Serving admin units version " + version);
+        } catch (Exception e) {
+            logger.warn("Failed to reload the admin units cache, keeping the current one", e);
+        }
+    }
+
+    /**
+     * The counts of the reverse geocoding requests, across all the caches loaded so far.
+     */
+    public EnrichmentStatistics statistics() {
+        return statistics;
+    }
+
+    /**
+     * The enricher of the current cache, or null until the first cache is loaded.
+     */
+    public ParentsInfoEnricher parentsInfoEnricher() {
+        LoadedAdminUnits current = loadedAdminUnits.get();
+        return current != null ? current.parentsInfoEnricher() : null;
+    }
+}
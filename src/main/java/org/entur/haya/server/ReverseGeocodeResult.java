@@ -0,0 +1,15 @@
+package org.entur.haya.server;
+
+import org.entur.haya.csv.PeliasCSV;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The parents found for a point, keyed by parent type, as in the parent_json column of the CSV file.
+ */
+public record ReverseGeocodeResult(double lat, double lon, Map<String, List<PeliasCSV.PeliasParent>> parent) {
+
+    public record Point(double lat, double lon) {
+    }
+}
@@ -0,0 +1,122 @@
+package org.entur.haya.server;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import org.entur.geocoder.model.GeoPoint;
+import org.entur.haya.adminUnitsCache.ParentsInfoEnricher;
+import org.entur.haya.csv.PeliasCSV;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reverse geocoding of single points, and of batches of up to haya.server.batch.maximumSize points,
+ * answered as for orphan documents by the enrichment of the batch import.
+ * <p>
+ * The latencies are recorded by the haya.server.reverse.geocode timer, with their 50th, 95th and 99th percentiles,
+ * which are also logged every haya.server.latency.logInterval milliseconds, with the polygon tests per point.
+ */
+@RestController
+@RequestMapping("/reverse-geocode")
+@ConditionalOnProperty(name = "haya.mode", havingValue = "server")
+public class ReverseGeocodingController {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReverseGeocodingController.class);
+
+    @Value("${haya.server.batch.maximumSize:1000}")
+    private int batchMaximumSize;
+
+    private final AdminUnitsCacheReloader adminUnitsCacheReloader;
+    private final Timer singleTimer;
+    private final Timer batchTimer;
+
+    public ReverseGeocodingController(AdminUnitsCacheReloader adminUnitsCacheReloader, MeterRegistry meterRegistry) {
+        this.adminUnitsCacheReloader = adminUnitsCacheReloader;
+        this.singleTimer = latencyTimer("single", meterRegistry);
+        this.batchTimer = latencyTimer("batch", meterRegistry);
+    }
+
+    private static Timer latencyTimer(String endpoint, MeterRegistry meterRegistry) {
+        return Timer.builder("haya.server.reverse.geocode")
+                .description("Latency of the reverse geocoding requests")
+                .tag("endpoint", endpoint)
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(meterRegistry);
+    }
+
+    @GetMapping
+    public ReverseGeocodeResult reverseGeocode(@RequestParam double lat, @RequestParam double lon) {
+        return singleTimer.record(() -> reverseGeocode(parentsInfoEnricher(), new ReverseGeocodeResult.Point(lat, lon)));
+    }
+
+    @PostMapping
+    public List<ReverseGeocodeResult> reverseGeocode(@RequestBody List<ReverseGeocodeResult.Point> points) {
+        if (points.size() > batchMaximumSize) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "At most " + batchMaximumSize + " points per request, got " + points.size());
+        }
+        return batchTimer.record(() -> {
+            // The same cache for all the points of the batch, even if it is reloaded meanwhile.
+            ParentsInfoEnricher parentsInfoEnricher = parentsInfoEnricher();
+            return points.stream()
+                    .map(point -> reverseGeocode(parentsInfoEnricher, point))
+                    .toList();
+        });
+    }
+
+    private ParentsInfoEnricher parentsInfoEnricher() {
+        ParentsInfoEnricher parentsInfoEnricher = adminUnitsCacheReloader.parentsInfoEnricher();
+        if (parentsInfoEnricher == null) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "The admin units cache is not loaded yet");
+        }
+        return parentsInfoEnricher;
+    }
+
+    private static ReverseGeocodeResult reverseGeocode(ParentsInfoEnricher parentsInfoEnricher, ReverseGeocodeResult.Point point) {
+        if (point == null || !(Math.abs(point.lat()) <= 90) || !(Math.abs(point.lon()) <= 180)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid point " + point);
+        }
+        var parents = parentsInfoEnricher.findParents(new GeoPoint(point.lat(), point.lon()));
+        return new ReverseGeocodeResult(point.lat(), point.lon(),
+                PeliasCSV.transformParentFieldsToPeliasParent(parents.parents()));
+    }
+
+    @Scheduled(initialDelayString = "${haya.server.latency.logInterval:60000}",
+            fixedDelayString = "${haya.server.latency.logInterval:60000}")
+    public void logLatency() {
+        logLatency("single", singleTimer);
+        logLatency("batch", batchTimer);
+        var statistics = adminUnitsCacheReloader.statistics();
+        if (statistics.documents() > 0) {
+            logger.info("Reverse geocoded " + statistics.documents() + " points, with "
+                    + String.format("%.2f", (double) statistics.polygonTests() / statistics.documents()) + " polygon tests per point");
+        }
+    }
+
+    private static void logLatency(String endpoint, Timer timer) {
+        var snapshot = timer.takeSnapshot();
+        if (snapshot.count() == 0) {
+            return;
+        }
+        var latency = new StringBuilder();
+        for (ValueAtPercentile valueAtPercentile : snapshot.percentileValues()) {
+            latency.append(", p").append(Math.round(valueAtPercentile.percentile() * 100))
+                    .append(' ').append(String.format("%.3f", valueAtPercentile.value(TimeUnit.MILLISECONDS))).append(" ms");
+        }
+        logger.info("Reverse geocoding latency, " + endpoint + ": " + snapshot.count() + " requests" + latency);
+    }
+}
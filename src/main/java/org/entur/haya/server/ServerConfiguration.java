@@ -0,0 +1,15 @@
+package org.entur.haya.server;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+/**
+ * With haya.mode=server, Haya keeps running, and answers the reverse geocoding requests
+ * from the admin units cache, reloaded when the admin units file changes.
+ */
+@Configuration
+@EnableScheduling
+@ConditionalOnProperty(name = "haya.mode", havingValue = "server")
+public class ServerConfiguration {
+}
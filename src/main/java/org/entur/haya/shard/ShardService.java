@@ -0,0 +1,226 @@
+package org.entur.haya.shard;
+
+import org.entur.geocoder.blobStore.BlobStoreFiles;
+import org.entur.geocoder.model.PeliasDocument;
+import org.entur.haya.HayaService;
+import org.entur.haya.blobStore.HayaBlobStoreService;
+import org.entur.haya.csv.PeliasCSV;
+import org.entur.haya.metrics.HayaMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.retry.annotation.Backoff;
+import org.springframework.retry.annotation.Retryable;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Splits the import across haya.shard.count shards. Each shard enriches a contiguous range of the import files,
+ * and uploads their CSV rows as a part, and the first shard merges the parts of all the shards
+ * into the same CSV file as a single run.
+ */
+@Service
+public class ShardService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ShardService.class);
+
+    @Value("${haya.workdir:/tmp/haya/geocoder}")
+    private String hayaWorkDir;
+
+    @Value("${haya.shard.count:1}")
+    private int shardCount;
+
+    @Value("${haya.shard.index:0}")
+    private int shardIndex;
+
+    @Value("${haya.shard.runId:}")
+    private String shardRunId;
+
+    @Value("${blobstore.gcs.haya.shard.folder:shards}")
+    private String shardFolder;
+
+    @Value("${haya.shard.merge.pollInterval:30000}")
+    private long shardMergePollInterval;
+
+    @Value("${haya.shard.merge.timeout:14400000}")
+    private long shardMergeTimeout;
+
+    @Value("${haya.import.incremental:false}")
+    private boolean incrementalImport;
+
+    @Value("${haya.enrichment.spatialOrder.enabled:false}")
+    private boolean spatialOrderEnabled;
+
+    private final HayaService hayaService;
+    private final HayaBlobStoreService hayaBlobStoreService;
+    private final HayaMetrics metrics;
+
+    public ShardService(HayaService hayaService, HayaBlobStoreService hayaBlobStoreService, HayaMetrics metrics) {
+        this.hayaService = hayaService;
+        this.hayaBlobStoreService = hayaBlobStoreService;
+        this.metrics = metrics;
+    }
+
+    public boolean isSharded() {
+        return shardCount > 1;
+    }
+
+    /**
+     * The first shard merges the parts of all the shards.
+     */
+    public boolean isMergeShard() {
+        return shardIndex == 0;
+    }
+
+    /**
+     * Returns the files enriched by this shard, a contiguous range of the files sorted by their local names,
+     * the order in which a single run reads them, so that the parts put together in shard order
+     * are the CSV rows of a single run.
+     */
+    public List<BlobStoreFiles.File> selectShardFiles(List<BlobStoreFiles.File> files) {
+        if (shardIndex < 0 || shardIndex >= shardCount) {
+            throw new IllegalStateException("Invalid shard index " + shardIndex + " for " + shardCount + " shards");
+        }
+        if (shardRunId.isBlank()) {
+            throw new IllegalStateException("haya.shard.runId must be set, the same for all the shards of a run");
+        }
+        if (incrementalImport) {
+            throw new IllegalStateException("The incremental import cannot be sharded");
+        }
+        if (spatialOrderEnabled) {
+            // Each shard would sort its own documents, and the parts put together would not be in spatial order.
+            throw new IllegalStateException("The documents cannot be sorted in spatial order in a sharded run, "
+                    + "disable haya.enrichment.spatialOrder.enabled");
+        }
+        List<BlobStoreFiles.File> sortedFiles = files.stream()
+                .sorted(Comparator.comparing(file -> HayaService.getLocalFileName(file.getName())))
+                .toList();
+        int from = (int) ((long) sortedFiles.size() * shardIndex / shardCount);
+        int to = (int) ((long) sortedFiles.size() * (shardIndex + 1) / shardCount);
+        logger.info("Shard " + shardIndex + " of " + shardCount + " enriching " + (to - from) + " of " + sortedFiles.size() + " files");
+        return sortedFiles.subList(from, to);
+    }
+
+    /**
+     * Writes the CSV rows of the enriched documents of this shard, without the header, to be merged by the first shard.
+     */
+    public Path writeShardPart(Stream<PeliasDocument> peliasDocuments) {
+        logger.info("Writing the CSV rows of shard " + shardIndex);
+        try {
+            Path folder = Files.createDirectories(Paths.get(hayaWorkDir, "shards"));
+            Path part = folder.resolve(Paths.get(getShardPartName(shardIndex)).getFileName());
+            try (OutputStream outputStream = new GZIPOutputStream(Files.newOutputStream(part), 65536)) {
+                metrics.addDocumentsWritten(PeliasCSV.writeRows(peliasDocuments, outputStream, metrics::addDocumentsDropped));
+            }
+            return part;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Retryable(
+            value = Exception.class,
+            maxAttemptsExpression = "${haya.retry.maxAttempts:3}",
+            backoff = @Backoff(
+                    delayExpression = "${haya.retry.maxDelay:5000}",
+                    multiplierExpression = "${haya.retry.backoff.multiplier:3}"))
+    public void uploadShardPart(Path part) {
+        logger.info("Uploading the CSV rows of shard " + shardIndex);
+        try (InputStream inputStream = Files.newInputStream(part)) {
+            hayaBlobStoreService.uploadBlob(getShardPartName(shardIndex), inputStream);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Waits for the parts of the other shards, up to haya.shard.merge.timeout milliseconds, and downloads them,
+     * returning the parts of all the shards in shard order.
+     */
+    public List<Path> downloadShardParts(Path ownPart) {
+        long deadline = System.currentTimeMillis() + shardMergeTimeout;
+        var parts = new ArrayList<Path>();
+        for (int index = 0; index < shardCount; index++) {
+            if (index == shardIndex) {
+                parts.add(ownPart);
+                continue;
+            }
+            String partName = getShardPartName(index);
+            Path part = ownPart.resolveSibling(Paths.get(partName).getFileName());
+            while (!downloadShardPart(partName, part)) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw new IllegalStateException("Timed out waiting for the part of shard " + index + ": " + partName);
+                }
+                logger.info("Waiting for the part of shard " + index + ": " + partName);
+                try {
+                    Thread.sleep(shardMergePollInterval);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while waiting for the shard parts", e);
+                }
+            }
+            parts.add(part);
+        }
+        return parts;
+    }
+
+    private boolean downloadShardPart(String partName, Path part) {
+        try (InputStream inputStream = hayaBlobStoreService.getBlob(partName)) {
+            if (inputStream == null) {
+                return false;
+            }
+            Files.copy(inputStream, part, StandardCopyOption.REPLACE_EXISTING);
+            return true;
+        } catch (Exception e) {
+            logger.warn("Failed to download the shard part " + partName, e);
+            return false;
+        }
+    }
+
+    /**
+     * Zips the CSV header and the parts of the shards, in shard order.
+     */
+    public InputStream createZippedPeliasCSVFromShardParts(List<Path> parts, String filename) {
+        logger.info("Create zipped Pelias CSV file from the parts of " + parts.size() + " shards");
+        return hayaService.createZippedPeliasCSVFromRows(parts, filename);
+    }
+
+    /**
+     * Deletes the parts of all the shards of this run, once the merged file is uploaded.
+     * A part that fails to be deleted is only logged, as the merged file is already there.
+     */
+    public void deleteShardParts(List<Path> parts) {
+        for (int index = 0; index < shardCount; index++) {
+            String partName = getShardPartName(index);
+            try {
+                hayaBlobStoreService.deleteBlob(partName);
+            } catch (Exception e) {
+                logger.warn("Failed to delete the shard part " + partName, e);
+            }
+        }
+        for (Path part : parts) {
+            try {
+                Files.deleteIfExists(part);
+            } catch (IOException e) {
+                logger.warn("Failed to delete " + part, e);
+            }
+        }
+    }
+
+    private String getShardPartName(int index) {
+        return shardFolder + "/" + shardRunId + "/part_" + index + "_of_" + shardCount + ".csv.gz";
+    }
+}
@@ -0,0 +1,46 @@
+package org.entur.haya.spatialOrder;
+
+/**
+ * Position of a point along a Hilbert curve filling the world extent, on a grid of 2^ORDER by 2^ORDER cells,
+ * about 2.4 meters wide along the equator. The points close to each other along the curve are close to each
+ * other on the map, more so than along a Z-order curve, which jumps between the quadrants.
+ */
+public final class HilbertCurve {
+
+    public static final int ORDER = 24;
+
+    private static final long SIDE = 1L << ORDER;
+
+    private HilbertCurve() {
+    }
+
+    /**
+     * @return the position along the curve, from 0 to 4^ORDER - 1.
+     */
+    public static long key(double lon, double lat) {
+        long x = cell(lon, -180, 360);
+        long y = cell(lat, -90, 180);
+        long key = 0;
+        for (long s = SIDE >>> 1; s > 0; s >>>= 1) {
+            long rx = (x & s) != 0 ? 1 : 0;
+            long ry = (y & s) != 0 ? 1 : 0;
+            key += s * s * ((3 * rx) ^ ry);
+            // Rotates the quadrant, so that the curve in it starts and ends next to the adjacent quadrants.
+            if (ry == 0) {
+                if (rx == 1) {
+                    x = SIDE - 1 - x;
+                    y = SIDE - 1 - y;
+                }
+                long t = x;
+                x = y;
+                y = t;
+            }
+        }
+        return key;
+    }
+
+    private static long cell(double value, double min, double extent) {
+        long cell = (long) Math.floor((value - min) / extent * SIDE);
+        return Math.min(SIDE - 1, Math.max(0, cell));
+    }
+}
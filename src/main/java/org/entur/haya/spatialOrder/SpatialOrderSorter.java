@@ -0,0 +1,238 @@
+package org.entur.haya.spatialOrder;
+
+import com.opencsv.CSVParser;
+import com.opencsv.CSVParserWriter;
+import com.opencsv.CSVReader;
+import com.opencsv.CSVReaderBuilder;
+import com.opencsv.exceptions.CsvValidationException;
+import org.entur.haya.csv.CSVHeaders;
+import org.entur.haya.io.ExternalSorter;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.stream.Stream;
+
+/**
+ * Rewrites the records of CSV files of pelias documents in the order of the {@link HilbertCurve} key of their
+ * center points, so that the documents next to each other in the files are mostly next to each other on the map,
+ * and the reverse geocoding of one document finds the polygons of the one before it still in the CPU caches,
+ * and its cell in the reverse geocoding cache.
+ * <p>
+ * The records are sorted as rows of cells, without being parsed into documents, with an {@link ExternalSorter}
+ * which spills to the working directory. The files with the same header are sorted together, into one file.
+ * <p>
+ * The rows are read with the default parser of OpenCSV, as the import reads them, backslash escapes included,
+ * and written back by the same parser, so that the import reads the same cells from the sorted files.
+ */
+public final class SpatialOrderSorter {
+
+    /**
+     * The records without a valid center point are sorted last, in their input order.
+     */
+    private static final long NO_KEY = Long.MAX_VALUE;
+
+    private record KeyedRecord(long key, String[] cells) {
+    }
+
+    private static final Comparator<KeyedRecord> byKey = Comparator.comparingLong(KeyedRecord::key);
+
+    private static final ExternalSorter.Codec<KeyedRecord> recordCodec = new ExternalSorter.Codec<>() {
+        @Override
+        public void write(DataOutputStream outputStream, KeyedRecord record) throws IOException {
+            outputStream.writeLong(record.key());
+            outputStream.writeInt(record.cells().length);
+            for (String cell : record.cells()) {
+                byte[] bytes = cell.getBytes(StandardCharsets.UTF_8);
+                outputStream.writeInt(bytes.length);
+                outputStream.write(bytes);
+            }
+        }
+
+        @Override
+        public KeyedRecord read(DataInputStream inputStream) throws IOException {
+            long key = inputStream.readLong();
+            var cells = new String[inputStream.readInt()];
+            for (int i = 0; i < cells.length; i++) {
+                byte[] bytes = new byte[inputStream.readInt()];
+                inputStream.readFully(bytes);
+                cells[i] = new String(bytes, StandardCharsets.UTF_8);
+            }
+            return new KeyedRecord(key, cells);
+        }
+    };
+
+    private final Path workDirectory;
+    private final int sortBufferSize;
+
+    public SpatialOrderSorter(Path workDirectory, int sortBufferSize) {
+        this.workDirectory = workDirectory;
+        this.sortBufferSize = sortBufferSize;
+    }
+
+    /**
+     * Writes the records of the given CSV files in spatial order to new CSV files in the working directory,
+     * one per distinct header, in the order the headers are first met. The new files are left to the caller to delete.
+     */
+    public List<Path> sort(List<Path> csvFiles) throws IOException {
+        Map<List<String>, List<Path>> csvFilesByHeader = new LinkedHashMap<>();
+        for (Path csvFile : csvFiles) {
+            String[] header = readHeader(csvFile);
+            if (header != null) {
+                csvFilesByHeader.computeIfAbsent(Arrays.asList(header), h -> new ArrayList<>()).add(csvFile);
+            }
+        }
+
+        Files.createDirectories(workDirectory);
+        List<Path> sortedFiles = new ArrayList<>();
+        try {
+            for (Map.Entry<List<String>, List<Path>> entry : csvFilesByHeader.entrySet()) {
+                Path sortedFile = Files.createTempFile(workDirectory, "spatial-order-", ".csv");
+                sortedFiles.add(sortedFile);
+                sort(entry.getKey(), entry.getValue(), sortedFile);
+            }
+            return sortedFiles;
+        } catch (IOException | RuntimeException e) {
+            for (Path sortedFile : sortedFiles) {
+                Files.deleteIfExists(sortedFile);
+            }
+            throw e;
+        }
+    }
+
+    private void sort(List<String> header, List<Path> csvFiles, Path sortedFile) throws IOException {
+        var sorter = new ExternalSorter<>(byKey, recordCodec, sortBufferSize, workDirectory);
+        try (var records = new Records(csvFiles);
+             Stream<KeyedRecord> sortedRecords = sorter.sort(toKeyedRecords(header, records));
+             var writer = new CSVParserWriter(Files.newBufferedWriter(sortedFile, StandardCharsets.UTF_8), new CSVParser(), "\n")) {
+            writer.writeNext(header.toArray(String[]::new));
+            for (Iterator<KeyedRecord> iterator = sortedRecords.iterator(); iterator.hasNext(); ) {
+                writer.writeNext(iterator.next().cells());
+            }
+            if (writer.checkError()) {
+                throw new IOException("Failed to write " + sortedFile, writer.getException());
+            }
+        }
+    }
+
+    private static Iterator<KeyedRecord> toKeyedRecords(List<String> header, Iterator<String[]> records) {
+        int latitude = header.indexOf(CSVHeaders.LATITUDE);
+        int longitude = header.indexOf(CSVHeaders.LONGITUDE);
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return records.hasNext();
+            }
+
+            @Override
+            public KeyedRecord next() {
+                String[] cells = records.next();
+                return new KeyedRecord(key(cells, latitude, longitude), cells);
+            }
+        };
+    }
+
+    private static long key(String[] cells, int latitude, int longitude) {
+        if (latitude < 0 || longitude < 0 || cells.length <= Math.max(latitude, longitude)) {
+            return NO_KEY;
+        }
+        try {
+            double lat = Double.parseDouble(cells[latitude]);
+            double lon = Double.parseDouble(cells[longitude]);
+            if (lat < -90 || lat > 90 || lon < -180 || lon > 180) {
+                return NO_KEY;
+            }
+            return HilbertCurve.key(lon, lat);
+        } catch (NumberFormatException e) {
+            return NO_KEY;
+        }
+    }
+
+    private static String[] readHeader(Path csvFile) throws IOException {
+        try (CSVReader reader = openReader(csvFile)) {
+            return readNext(reader);
+        }
+    }
+
+    private static CSVReader openReader(Path csvFile) throws IOException {
+        return new CSVReaderBuilder(new InputStreamReader(Files.newInputStream(csvFile), StandardCharsets.UTF_8)).build();
+    }
+
+    private static String[] readNext(CSVReader reader) throws IOException {
+        try {
+            return reader.readNext();
+        } catch (CsvValidationException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * The records of the files one after the other, without their headers, each file being opened
+     * when the one before it is read to the end.
+     */
+    private static final class Records implements Iterator<String[]>, AutoCloseable {
+
+        private final Iterator<Path> csvFiles;
+
+        private CSVReader reader;
+        private String[] nextRecord;
+
+        private Records(List<Path> csvFiles) {
+            this.csvFiles = csvFiles.iterator();
+        }
+
+        @Override
+        public boolean hasNext() {
+            try {
+                while (nextRecord == null) {
+                    if (reader != null) {
+                        nextRecord = readNext(reader);
+                        if (nextRecord != null) {
+                            break;
+                        }
+                    }
+                    close();
+                    if (!csvFiles.hasNext()) {
+                        return false;
+                    }
+                    reader = openReader(csvFiles.next());
+                    readNext(reader);
+                }
+                return true;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public String[] next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            String[] current = nextRecord;
+            nextRecord = null;
+            return current;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (reader != null) {
+                reader.close();
+                reader = null;
+            }
+        }
+    }
+}
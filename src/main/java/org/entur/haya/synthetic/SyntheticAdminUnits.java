@@ -0,0 +1,238 @@
+package org.entur.haya.synthetic;
+
+import org.entur.geocoder.model.PeliasId;
+import org.locationtech.jts.densify.Densifier;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.Polygon;
+import org.locationtech.jts.operation.union.CascadedPolygonUnion;
+import org.locationtech.jts.triangulate.VoronoiDiagramBuilder;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Synthetic admin units: a rough outline of Norway split in localities, as Voronoi cells of random points,
+ * grouped in counties, and two neighbouring countries, written as a NeTEx TopographicPlace export.
+ * <p>
+ * The boundaries are densified to a vertex every densifyDistance degrees, which sets the vertex counts.
+ * The same arguments give the same admin units.
+ */
+public final class SyntheticAdminUnits {
+
+    private static final double[][] NORWAY_OUTLINE = {
+            {5.0, 58.0}, {7.0, 57.9}, {8.5, 58.3}, {10.5, 59.0}, {11.4, 58.9}, {12.0, 60.0}, {12.5, 61.5},
+            {12.2, 63.0}, {14.0, 64.5}, {14.5, 66.0}, {16.0, 68.0}, {19.0, 69.0}, {21.0, 69.0}, {25.0, 68.6},
+            {28.0, 69.0}, {31.0, 70.0}, {29.0, 71.0}, {25.0, 71.2}, {20.0, 70.2}, {16.0, 69.5}, {13.0, 68.0},
+            {12.0, 66.0}, {10.0, 64.0}, {7.0, 63.0}, {5.0, 62.0}, {4.6, 60.0}, {5.0, 58.0}};
+
+    private static final String ID_PREFIX = "KVE:TopographicPlace:";
+
+    private static final GeometryFactory geometryFactory = new GeometryFactory();
+
+    private final double densifyDistance;
+    private final Polygon norway;
+    private final Polygon sweden;
+    private final Polygon finland;
+    private final List<County> counties = new ArrayList<>();
+
+    private record County(String id, Polygon polygon, Map<String, Polygon> localities) {
+    }
+
+    public record AdminUnitRef(PeliasId id, String name) {
+    }
+
+    public SyntheticAdminUnits(int localityCount, int countyCount, double densifyDistance, long seed) {
+        this.densifyDistance = densifyDistance;
+        var random = new Random(seed);
+        this.norway = geometryFactory.createPolygon(toCoordinates(NORWAY_OUTLINE));
+
+        List<Coordinate> localitySeeds = randomPointsIn(norway, localityCount, random);
+        List<Coordinate> countySeeds = randomPointsIn(norway, countyCount, random);
+
+        var voronoiDiagramBuilder = new VoronoiDiagramBuilder();
+        voronoiDiagramBuilder.setSites(localitySeeds);
+        voronoiDiagramBuilder.setClipEnvelope(expand(norway.getEnvelopeInternal()));
+        Geometry cells = voronoiDiagramBuilder.getDiagram(geometryFactory);
+
+        Map<Integer, List<Polygon>> localitiesByCounty = new LinkedHashMap<>();
+        for (int i = 0; i < cells.getNumGeometries(); i++) {
+            Geometry cell = cells.getGeometryN(i);
+            Polygon locality = largestPolygon(cell.intersection(norway));
+            if (locality != null) {
+                int county = nearest(countySeeds, (Coordinate) cell.getUserData());
+                localitiesByCounty.computeIfAbsent(county, key -> new ArrayList<>()).add(locality);
+            }
+        }
+
+        int countyNumber = 0;
+        for (List<Polygon> localities : localitiesByCounty.values()) {
+            countyNumber++;
+            String countyId = String.format(Locale.ROOT, "%02d", countyNumber);
+            var localitiesById = new LinkedHashMap<String, Polygon>();
+            int localityNumber = 0;
+            for (Polygon locality : localities) {
+                localityNumber++;
+                localitiesById.put(countyId + String.format(Locale.ROOT, "%02d", localityNumber), locality);
+            }
+            counties.add(new County(countyId, largestPolygon(CascadedPolygonUnion.union(localities)), localitiesById));
+        }
+
+        this.sweden = largestPolygon(toPolygon(new Envelope(11.0, 24.0, 55.3, 69.0)).difference(norway));
+        this.finland = largestPolygon(toPolygon(new Envelope(20.0, 31.5, 59.8, 70.0)).difference(norway).difference(sweden));
+    }
+
+    /**
+     * The extent of the localities and counties.
+     */
+    public Envelope extent() {
+        return norway.getEnvelopeInternal();
+    }
+
+    public List<AdminUnitRef> localities() {
+        return counties.stream()
+                .flatMap(county -> county.localities().keySet().stream())
+                .map(id -> new AdminUnitRef(PeliasId.of(ID_PREFIX + id), localityName(id)))
+                .toList();
+    }
+
+    public List<AdminUnitRef> counties() {
+        return counties.stream()
+                .map(county -> new AdminUnitRef(PeliasId.of(ID_PREFIX + county.id()), countyName(county.id())))
+                .toList();
+    }
+
+    public void writeNetex(Writer writer) throws IOException {
+        writer.write("""
+                <?xml version="1.0" encoding="UTF-8"?>
+                <PublicationDelivery xmlns="http://www.netex.org.uk/netex" xmlns:gml="http://www.opengis.net/gml/3.2" version="1.0">
+                  <PublicationTimestamp>2022-01-01T00:00:00</PublicationTimestamp>
+                  <ParticipantRef>KVE</ParticipantRef>
+                  <dataObjects>
+                    <SiteFrame id="KVE:SiteFrame:1" version="1">
+                      <topographicPlaces>
+                """);
+        writeTopographicPlace(writer, "SE", "Sweden", null, "country", "se", null, sweden);
+        writeTopographicPlace(writer, "FI", "Finland", null, "country", "fi", null, finland);
+        for (County county : counties) {
+            writeTopographicPlace(writer, county.id(), countyName(county.id()), "NO-" + county.id(), "county", "no", null, county.polygon());
+            for (var locality : county.localities().entrySet()) {
+                writeTopographicPlace(writer, locality.getKey(), localityName(locality.getKey()), null, "municipality", "no", county.id(), locality.getValue());
+            }
+        }
+        writer.write("""
+                      </topographicPlaces>
+                    </SiteFrame>
+                  </dataObjects>
+                </PublicationDelivery>
+                """);
+    }
+
+    private static String countyName(String id) {
+        return "County " + id;
+    }
+
+    private static String localityName(String id) {
+        return "Locality " + id;
+    }
+
+    private void writeTopographicPlace(Writer writer, String id, String name, String isoCode, String type,
+                                       String countryRef, String parentId, Polygon polygon) throws IOException {
+        writer.write("      <TopographicPlace id=\"" + ID_PREFIX + id + "\" version=\"1\">\n");
+        writer.write("        <ValidBetween><FromDate>2020-01-01T00:00:00</FromDate></ValidBetween>\n");
+        writer.write("        <Descriptor><Name>" + name + "</Name></Descriptor>\n");
+        writer.write("        <gml:Polygon gml:id=\"KVE_" + id + "\"><gml:exterior><gml:LinearRing><gml:posList>");
+        writer.write(toPosList(polygon));
+        writer.write("</gml:posList></gml:LinearRing></gml:exterior></gml:Polygon>\n");
+        if (isoCode != null) {
+            writer.write("        <IsoCode>" + isoCode + "</IsoCode>\n");
+        }
+        writer.write("        <TopographicPlaceType>" + type + "</TopographicPlaceType>\n");
+        writer.write("        <CountryRef ref=\"" + countryRef + "\"/>\n");
+        if (parentId != null) {
+            writer.write("        <ParentTopographicPlaceRef ref=\"" + ID_PREFIX + parentId + "\" version=\"1\"/>\n");
+        }
+        writer.write("      </TopographicPlace>\n");
+    }
+
+    /**
+     * The densified exterior ring as lat lon pairs with 5 decimals, about a meter,
+     * leaving out the vertices that round to the previous one.
+     */
+    private String toPosList(Polygon polygon) {
+        Geometry densified = Densifier.densify(polygon.getExteriorRing(), densifyDistance);
+        var posList = new StringBuilder();
+        String previous = null;
+        for (Coordinate coordinate : densified.getCoordinates()) {
+            String position = String.format(Locale.ROOT, "%.5f %.5f", coordinate.y, coordinate.x);
+            if (!position.equals(previous)) {
+                if (previous != null) {
+                    posList.append(' ');
+                }
+                posList.append(position);
+                previous = position;
+            }
+        }
+        return posList.toString();
+    }
+
+    private static List<Coordinate> randomPointsIn(Polygon polygon, int count, Random random) {
+        Envelope envelope = polygon.getEnvelopeInternal();
+        var points = new ArrayList<Coordinate>();
+        while (points.size() < count) {
+            var point = new Coordinate(envelope.getMinX() + random.nextDouble() * envelope.getWidth(),
+                    envelope.getMinY() + random.nextDouble() * envelope.getHeight());
+            if (polygon.covers(geometryFactory.createPoint(point))) {
+                points.add(point);
+            }
+        }
+        return points;
+    }
+
+    private static int nearest(List<Coordinate> seeds, Coordinate coordinate) {
+        int nearest = 0;
+        for (int i = 1; i < seeds.size(); i++) {
+            if (seeds.get(i).distance(coordinate) < seeds.get(nearest).distance(coordinate)) {
+                nearest = i;
+            }
+        }
+        return nearest;
+    }
+
+    private static Polygon largestPolygon(Geometry geometry) {
+        Polygon largest = null;
+        for (int i = 0; i < geometry.getNumGeometries(); i++) {
+            if (geometry.getGeometryN(i) instanceof Polygon polygon && !polygon.isEmpty()
+                    && (largest == null || polygon.getArea() > largest.getArea())) {
+                largest = polygon;
+            }
+        }
+        return largest;
+    }
+
+    private static Envelope expand(Envelope envelope) {
+        var expanded = new Envelope(envelope);
+        expanded.expandBy(1.0);
+        return expanded;
+    }
+
+    private static Polygon toPolygon(Envelope envelope) {
+        return (Polygon) geometryFactory.toGeometry(envelope);
+    }
+
+    private static Coordinate[] toCoordinates(double[][] lonLats) {
+        var coordinates = new Coordinate[lonLats.length];
+        for (int i = 0; i < lonLats.length; i++) {
+            coordinates[i] = new Coordinate(lonLats[i][0], lonLats[i][1]);
+        }
+        return coordinates;
+    }
+}
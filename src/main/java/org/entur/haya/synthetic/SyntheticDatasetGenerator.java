@@ -0,0 +1,145 @@
+package org.entur.haya.synthetic;
+
+import org.entur.haya.blobStore.HayaBlobStoreService;
+import org.entur.haya.blobStore.KakkaBlobStoreService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Uploads a synthetic admin units file to the kakka bucket, and synthetic pelias documents files to the
+ * import folder of the haya bucket, before the import runs, so that the whole import can be run offline
+ * at the scale of the production data, with the local-disk-blobstore or in-memory-blobstore profile.
+ */
+@Component
+@Profile("synthetic-dataset")
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class SyntheticDatasetGenerator implements ApplicationRunner {
+
+    private static final Logger logger = LoggerFactory.getLogger(SyntheticDatasetGenerator.class);
+
+    private final KakkaBlobStoreService kakkaBlobStoreService;
+    private final HayaBlobStoreService hayaBlobStoreService;
+
+    @Value("${blobstore.gcs.kakka.adminUnits.file:tiamat/geocoder/tiamat_export_geocoder_latest.zip}")
+    private String adminUnitsFile;
+
+    @Value("${blobstore.gcs.haya.import.folder:import}")
+    private String importFolder;
+
+    @Value("${haya.workdir:/tmp/haya/geocoder}")
+    private String hayaWorkDir;
+
+    @Value("${haya.synthetic.seed:1}")
+    private long seed;
+
+    @Value("${haya.synthetic.localities:357}")
+    private int localities;
+
+    @Value("${haya.synthetic.counties:15}")
+    private int counties;
+
+    @Value("${haya.synthetic.densifyDistance:0.001}")
+    private double densifyDistance;
+
+    @Value("${haya.synthetic.documents:1000000}")
+    private long documents;
+
+    @Value("${haya.synthetic.documentFiles:4}")
+    private int documentFiles;
+
+    @Value("${haya.synthetic.parents.orphan:0.3}")
+    private double orphanWeight;
+
+    @Value("${haya.synthetic.parents.unknown:0.1}")
+    private double unknownWeight;
+
+    @Value("${haya.synthetic.parents.locality:0.5}")
+    private double localityWeight;
+
+    @Value("${haya.synthetic.parents.county:0.1}")
+    private double countyWeight;
+
+    public SyntheticDatasetGenerator(KakkaBlobStoreService kakkaBlobStoreService,
+                                     HayaBlobStoreService hayaBlobStoreService) {
+        this.kakkaBlobStoreService = kakkaBlobStoreService;
+        this.hayaBlobStoreService = hayaBlobStoreService;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) throws IOException {
+        Path folder = Files.createDirectories(Paths.get(hayaWorkDir, "synthetic"));
+
+        logger.info("Generating " + localities + " synthetic localities in " + counties + " counties");
+        var adminUnits = new SyntheticAdminUnits(localities, counties, densifyDistance, seed);
+        Path adminUnitsZip = writeZipFile(folder.resolve("adminUnits.zip"), "tiamat_export_geocoder_latest.xml", adminUnits::writeNetex);
+        upload(adminUnitsZip, adminUnitsFile, kakkaBlobStoreService::uploadBlob);
+
+        Map<SyntheticPeliasDocuments.Parent, Double> parentMix = new LinkedHashMap<>();
+        parentMix.put(SyntheticPeliasDocuments.Parent.ORPHAN, orphanWeight);
+        parentMix.put(SyntheticPeliasDocuments.Parent.UNKNOWN, unknownWeight);
+        parentMix.put(SyntheticPeliasDocuments.Parent.LOCALITY, localityWeight);
+        parentMix.put(SyntheticPeliasDocuments.Parent.COUNTY, countyWeight);
+        var peliasDocuments = new SyntheticPeliasDocuments(
+                adminUnits.extent(), adminUnits.localities(), adminUnits.counties(), parentMix, seed);
+
+        logger.info("Generating " + documents + " synthetic pelias documents in " + documentFiles + " files, parent mix " + parentMix);
+        long firstId = 0;
+        for (int file = 0; file < documentFiles; file++) {
+            int count = (int) ((documents * (file + 1)) / documentFiles - firstId);
+            long fileFirstId = firstId;
+            String name = "synthetic_" + file;
+            Path documentsZip = writeZipFile(folder.resolve(name + ".zip"), name + ".csv",
+                    writer -> peliasDocuments.writeCsv(writer, fileFirstId, count));
+            upload(documentsZip, importFolder + "/" + name + ".zip", hayaBlobStoreService::uploadBlob);
+            firstId += count;
+        }
+    }
+
+    private interface Content {
+        void write(Writer writer) throws IOException;
+    }
+
+    private interface Upload {
+        void upload(String name, InputStream inputStream);
+    }
+
+    private static Path writeZipFile(Path zipFile, String entryName, Content content) throws IOException {
+        try (var zipOutputStream = new ZipOutputStream(Files.newOutputStream(zipFile));
+             Writer writer = new BufferedWriter(new OutputStreamWriter(zipOutputStream, StandardCharsets.UTF_8), 65536)) {
+            zipOutputStream.putNextEntry(new ZipEntry(entryName));
+            content.write(writer);
+        }
+        return zipFile;
+    }
+
+    private static void upload(Path file, String name, Upload upload) {
+        logger.info("Uploading " + name + " (" + file.toFile().length() + " bytes)");
+        try (InputStream inputStream = Files.newInputStream(file)) {
+            upload.upload(name, inputStream);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package org.entur.haya.synthetic;
+
+import org.entur.geocoder.model.ParentType;
+import org.entur.haya.csv.CSVHeaders;
+import org.locationtech.jts.geom.Envelope;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+/**
+ * Synthetic pelias documents at random points of an extent, written as CSV rows, with a given mix of
+ * parents: none, an UNKNOWN parent, a locality or a county. The UNKNOWN parents reference localities,
+ * as they are resolved by id first.
+ */
+public final class SyntheticPeliasDocuments {
+
+    private static final List<String> HEADERS = List.of(
+            CSVHeaders.ID, CSVHeaders.INDEX, CSVHeaders.TYPE, CSVHeaders.NAME,
+            CSVHeaders.LATITUDE, CSVHeaders.LONGITUDE, CSVHeaders.POPULARITY,
+            CSVHeaders.SOURCE, CSVHeaders.SOURCE_ID, CSVHeaders.LAYER, CSVHeaders.PARENT);
+
+    public enum Parent {
+        ORPHAN, UNKNOWN, LOCALITY, COUNTY
+    }
+
+    private final Envelope extent;
+    private final List<SyntheticAdminUnits.AdminUnitRef> localities;
+    private final List<SyntheticAdminUnits.AdminUnitRef> counties;
+    private final Map<Parent, Double> parentMix;
+    private final double parentMixTotal;
+    private final Random random;
+
+    /**
+     * @param parentMix The relative weight of each kind of parent.
+     */
+    public SyntheticPeliasDocuments(Envelope extent,
+                                    List<SyntheticAdminUnits.AdminUnitRef> localities,
+                                    List<SyntheticAdminUnits.AdminUnitRef> counties,
+                                    Map<Parent, Double> parentMix,
+                                    long seed) {
+        this.extent = extent;
+        this.localities = localities;
+        this.counties = counties;
+        this.parentMix = parentMix;
+        this.parentMixTotal = parentMix.values().stream().mapToDouble(Double::doubleValue).sum();
+        this.random = new Random(seed);
+        if (parentMixTotal <= 0) {
+            throw new IllegalArgumentException("The parent mix has no positive weight: " + parentMix);
+        }
+    }
+
+    /**
+     * Writes the header and the given number of rows, with ids starting at firstId.
+     */
+    public void writeCsv(Writer writer, long firstId, int count) throws IOException {
+        writer.write(toCsvRow(HEADERS));
+        for (long id = firstId; id < firstId + count; id++) {
+            String parentJson = switch (nextParent()) {
+                case ORPHAN -> "";
+                case UNKNOWN -> toParentJson(ParentType.UNKNOWN, localities.get(random.nextInt(localities.size())));
+                case LOCALITY -> toParentJson(ParentType.LOCALITY, localities.get(random.nextInt(localities.size())));
+                case COUNTY -> toParentJson(ParentType.COUNTY, counties.get(random.nextInt(counties.size())));
+            };
+            double lon = extent.getMinX() + random.nextDouble() * extent.getWidth();
+            double lat = extent.getMinY() + random.nextDouble() * extent.getHeight();
+            writer.write(toCsvRow(List.of(
+                    "NSR:StopPlace:" + id, "pelias", "venue", "Stop place " + id,
+                    String.format(Locale.ROOT, "%.6f", lat), String.format(Locale.ROOT, "%.6f", lon),
+                    String.valueOf(random.nextInt(1000)),
+                    "nsr", "NSR:StopPlace:" + id, "venue", parentJson)));
+        }
+    }
+
+    private Parent nextParent() {
+        double weight = random.nextDouble() * parentMixTotal;
+        Parent parent = Parent.ORPHAN;
+        for (var entry : parentMix.entrySet()) {
+            parent = entry.getKey();
+            weight -= entry.getValue();
+            if (weight < 0) {
+                break;
+            }
+        }
+        return parent;
+    }
+
+    private static String toParentJson(ParentType parentType, SyntheticAdminUnits.AdminUnitRef adminUnit) {
+        return "{\"" + parentType.value() + "\":[{\"source\":\"" + adminUnit.id().source()
+                + "\",\"id\":\"" + adminUnit.id().id() + "\",\"name\":\"" + adminUnit.name() + "\",\"abbr\":null}]}";
+    }
+
+    private static String toCsvRow(List<String> cells) {
+        return cells.stream()
+                .map(cell -> "\"" + cell.replace("\"", "\"\"") + "\"")
+                .collect(Collectors.joining(",", "", "\n"));
+    }
+}
@@ -0,0 +1,46 @@
+package org.entur.haya;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.core.env.StandardEnvironment;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class HayaApplicationTest {
+
+    @Test
+    void startsTheWebServerInServerMode() {
+        var environment = environment(Map.of("haya.mode", "server", "spring.main.web-application-type", "NONE"));
+
+        HayaApplication.startWebServerInServerMode(environment);
+
+        assertThat(webApplicationType(environment)).isEqualTo(WebApplicationType.SERVLET);
+    }
+
+    @Test
+    void keepsTheWebApplicationTypeOfTheBatchImport() {
+        var environment = environment(Map.of("spring.main.web-application-type", "NONE"));
+
+        HayaApplication.startWebServerInServerMode(environment);
+
+        assertThat(webApplicationType(environment)).isEqualTo(WebApplicationType.NONE);
+    }
+
+    private static StandardEnvironment environment(Map<String, Object> properties) {
+        var environment = new StandardEnvironment();
+        environment.getPropertySources().addLast(new MapPropertySource("configmap", new HashMap<>(properties)));
+        return environment;
+    }
+
+    /**
+     * The property as bound to the SpringApplication, once the environment is prepared.
+     */
+    private static WebApplicationType webApplicationType(StandardEnvironment environment) {
+        return Binder.get(environment).bind("spring.main.web-application-type", WebApplicationType.class).orElse(null);
+    }
+}
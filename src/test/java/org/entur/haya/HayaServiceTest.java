@@ -0,0 +1,117 @@
+package org.entur.haya;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.entur.geocoder.model.GeoPoint;
+import org.entur.haya.adminUnitsCache.AdminUnitsCache;
+import org.entur.haya.adminUnitsCache.ParentsInfoEnricher;
+import org.entur.haya.adminUnitsCache.ReverseGeocodingCache;
+import org.entur.haya.adminUnitsCache.TopographicPlaceReader;
+import org.entur.haya.blobStore.HayaBlobStoreService;
+import org.entur.haya.blobStore.KakkaBlobStoreService;
+import org.entur.haya.metrics.HayaMetrics;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.locationtech.jts.geom.Envelope;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+import java.util.zip.GZIPInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.springframework.test.util.ReflectionTestUtils.setField;
+
+/**
+ * The enricher created from the haya.enrichment properties, with the hierarchical reverse geocoding
+ * or with the reverse geocoding cache, which cannot be combined.
+ */
+class HayaServiceTest {
+
+    private static final String ADMIN_UNITS_FIXTURE = "/fixtures/admin-units.xml.gz";
+
+    private static AdminUnitsCache adminUnitsCache;
+    private static List<GeoPoint> points;
+
+    private HayaService hayaService;
+
+    @BeforeAll
+    static void readFixture() throws IOException {
+        try (InputStream inputStream = new GZIPInputStream(HayaServiceTest.class.getResourceAsStream(ADMIN_UNITS_FIXTURE))) {
+            adminUnitsCache = AdminUnitsCache.buildNewCache(TopographicPlaceReader.read(inputStream));
+        }
+        var envelope = new Envelope();
+        adminUnitsCache.localities().values().forEach(adminUnit -> envelope.expandToInclude(adminUnit.geometry().getEnvelopeInternal()));
+        var random = new Random(3);
+        points = IntStream.range(0, 1000)
+                .mapToObj(i -> new GeoPoint(
+                        envelope.getMinY() + random.nextDouble() * envelope.getHeight(),
+                        envelope.getMinX() + random.nextDouble() * envelope.getWidth()))
+                .toList();
+    }
+
+    @BeforeEach
+    void createHayaService() {
+        hayaService = new HayaService(mock(KakkaBlobStoreService.class), mock(HayaBlobStoreService.class),
+                new HayaMetrics(new SimpleMeterRegistry()), new SimpleMeterRegistry());
+        setField(hayaService, "reverseGeocodingCachePrecision", 0.01);
+        setField(hayaService, "reverseGeocodingCacheMaximumSize", 100_000);
+    }
+
+    @Test
+    void enrichesWithTheHierarchicalReverseGeocoding() {
+        setField(hayaService, "hierarchicalReverseGeocoding", true);
+        hayaService.checkEnrichmentSettings();
+
+        assertThat(hayaService.getEnrichmentKey()).endsWith("_hierarchical");
+        assertThat(hayaService.getReverseGeocodingCache(adminUnitsCache)).isNull();
+        var parentsInfoEnricher = hayaService.createParentsInfoEnricher(adminUnitsCache);
+        assertFindsTheSameParents(parentsInfoEnricher, new ParentsInfoEnricher(adminUnitsCache, true));
+
+        // The descent tests only the counties of the country and the localities of the county.
+        var flatParentsInfoEnricher = new ParentsInfoEnricher(adminUnitsCache);
+        points.forEach(flatParentsInfoEnricher::findParents);
+        assertThat(parentsInfoEnricher.statistics().polygonTests()).isLessThan(flatParentsInfoEnricher.statistics().polygonTests());
+    }
+
+    @Test
+    void enrichesWithTheReverseGeocodingCache() {
+        setField(hayaService, "reverseGeocodingCacheEnabled", true);
+        hayaService.checkEnrichmentSettings();
+
+        assertThat(hayaService.getEnrichmentKey()).doesNotContain("_hierarchical");
+        ReverseGeocodingCache cache = hayaService.getReverseGeocodingCache(adminUnitsCache);
+        assertThat(cache).isNotNull().isSameAs(hayaService.getReverseGeocodingCache(adminUnitsCache));
+        assertFindsTheSameParents(hayaService.createParentsInfoEnricher(adminUnitsCache), new ParentsInfoEnricher(adminUnitsCache));
+        assertThat(cache.hits() + cache.misses()).isPositive();
+    }
+
+    @Test
+    void rejectsTheReverseGeocodingCacheWithTheHierarchicalReverseGeocoding() {
+        setField(hayaService, "hierarchicalReverseGeocoding", true);
+        setField(hayaService, "reverseGeocodingCacheEnabled", true);
+
+        assertThatThrownBy(hayaService::checkEnrichmentSettings)
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("haya.enrichment.hierarchicalReverseGeocoding")
+                .hasMessageContaining("haya.enrichment.reverseGeocodingCache.enabled");
+        assertThatThrownBy(() -> new ParentsInfoEnricher(adminUnitsCache, true, new ReverseGeocodingCache(adminUnitsCache, 0.01, 100)))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private static void assertFindsTheSameParents(ParentsInfoEnricher actual, ParentsInfoEnricher expected) {
+        int found = 0;
+        for (GeoPoint point : points) {
+            var parents = actual.findParents(point);
+            assertThat(parents.parents()).as("Parents of %s", point).isEqualTo(expected.findParents(point).parents());
+            if (!parents.isOrphan()) {
+                found++;
+            }
+        }
+        assertThat(found).isGreaterThan(points.size() / 10);
+    }
+}
@@ -0,0 +1,83 @@
+package org.entur.haya.adminUnitsCache;
+
+import org.entur.geocoder.model.PeliasId;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.locationtech.jts.geom.Point;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.entur.haya.adminUnitsCache.AdminUnitsFixture.id;
+
+/**
+ * The cache read back from a snapshot must have the same admin units as the cache built from the NeTEx file
+ * of the benchmark fixture, in the same order, and answer the point lookups the same way.
+ */
+class AdminUnitsCacheSnapshotTest {
+
+    private static AdminUnitsCache built;
+    private static AdminUnitsCache snapshot;
+
+    @BeforeAll
+    static void writeAndReadSnapshot(@TempDir Path workDir) throws IOException {
+        built = AdminUnitsFixture.read();
+        Path snapshotFile = workDir.resolve("adminUnitsCache.bin");
+        try (OutputStream outputStream = Files.newOutputStream(snapshotFile)) {
+            AdminUnitsCacheSnapshot.write(built, outputStream);
+        }
+        snapshot = AdminUnitsCacheSnapshot.read(snapshotFile);
+    }
+
+    @Test
+    void readsTheSameAdminUnits() {
+        assertThat(built.localities()).isNotEmpty();
+        assertThat(built.counties()).isNotEmpty();
+        assertSameAdminUnits(snapshot.countries(), built.countries());
+        assertSameAdminUnits(snapshot.counties(), built.counties());
+        assertSameAdminUnits(snapshot.localities(), built.localities());
+    }
+
+    @Test
+    void resolvesTheSameParentChains() {
+        assertThat(snapshot.parentChains()).isEqualTo(built.parentChains());
+    }
+
+    @Test
+    void findsTheSameAdminUnitsForPoints() {
+        List<Point> points = AdminUnitsFixture.grid(built, 100);
+        int found = 0;
+        for (Point point : points) {
+            AdminUnit locality = built.getLocalityForPoint(point);
+            assertThat(id(snapshot.getLocalityForPoint(point))).as("Locality of %s", point).isEqualTo(id(locality));
+            assertThat(id(snapshot.getCountyForPoint(point))).as("County of %s", point).isEqualTo(id(built.getCountyForPoint(point)));
+            assertThat(id(snapshot.getCountryForPoint(point))).as("Country of %s", point).isEqualTo(id(built.getCountryForPoint(point)));
+            assertThat(snapshot.getAdminUnitsForPoint(point)).as("Admin units of %s", point).isEqualTo(built.getAdminUnitsForPoint(point));
+            if (locality != null) {
+                found++;
+            }
+        }
+        assertThat(found).isGreaterThan(points.size() / 10);
+    }
+
+    private static void assertSameAdminUnits(Map<PeliasId, AdminUnit> actual, Map<PeliasId, AdminUnit> expected) {
+        assertThat(new ArrayList<>(actual.keySet())).containsExactlyElementsOf(expected.keySet());
+        for (AdminUnit adminUnit : expected.values()) {
+            AdminUnit read = actual.get(adminUnit.id());
+            assertThat(read.name()).isEqualTo(adminUnit.name());
+            assertThat(read.isoCode()).isEqualTo(adminUnit.isoCode());
+            assertThat(read.parentId()).isEqualTo(adminUnit.parentId());
+            assertThat(read.countryRef()).isEqualTo(adminUnit.countryRef());
+            assertThat(read.adminUnitType()).isEqualTo(adminUnit.adminUnitType());
+            assertThat(read.geometry().getCoordinates()).as("Coordinates of %s", adminUnit.id())
+                    .containsExactly(adminUnit.geometry().getCoordinates());
+        }
+    }
+}
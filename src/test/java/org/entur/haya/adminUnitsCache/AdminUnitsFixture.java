@@ -0,0 +1,108 @@
+package org.entur.haya.adminUnitsCache;
+
+import org.entur.geocoder.model.PeliasId;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.CoordinateSequence;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.Point;
+import org.locationtech.jts.geom.Polygon;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * The admin units of the benchmark fixture, and the points to look them up at.
+ */
+final class AdminUnitsFixture {
+
+    private static final String ADMIN_UNITS_FIXTURE = "/fixtures/admin-units.xml.gz";
+
+    private static final GeometryFactory geometryFactory = new GeometryFactory();
+
+    private AdminUnitsFixture() {
+    }
+
+    static AdminUnitsCache read() throws IOException {
+        try (InputStream inputStream = new GZIPInputStream(AdminUnitsFixture.class.getResourceAsStream(ADMIN_UNITS_FIXTURE))) {
+            return AdminUnitsCache.buildNewCache(TopographicPlaceReader.read(inputStream));
+        }
+    }
+
+    /**
+     * The points of a regular grid over the admin units, some of them on the vertices of the polygons.
+     */
+    static List<Point> grid(AdminUnitsCache adminUnitsCache, int size) {
+        var envelope = new Envelope();
+        adminUnitsCache.localities().values().forEach(adminUnit -> envelope.expandToInclude(adminUnit.geometry().getEnvelopeInternal()));
+        var points = new ArrayList<Point>();
+        for (int i = 0; i <= size; i++) {
+            for (int j = 0; j <= size; j++) {
+                points.add(point(
+                        envelope.getMinX() + envelope.getWidth() * i / size,
+                        envelope.getMinY() + envelope.getHeight() * j / size));
+            }
+        }
+        adminUnitsCache.localities().values().forEach(adminUnit ->
+                points.add(geometryFactory.createPoint(adminUnit.geometry().getExteriorRing().getCoordinateN(0))));
+        return points;
+    }
+
+    /**
+     * The vertices of the polygons of the given admin units, and the middle of their edges, which are on the borders
+     * they share with their neighbours.
+     */
+    static List<Point> boundaryPoints(Collection<AdminUnit> adminUnits) {
+        var points = new ArrayList<Point>();
+        for (AdminUnit adminUnit : adminUnits) {
+            Polygon polygon = adminUnit.geometry();
+            if (polygon == null) {
+                continue;
+            }
+            CoordinateSequence ring = polygon.getExteriorRing().getCoordinateSequence();
+            for (int i = 0; i < ring.size() - 1; i++) {
+                points.add(point(ring.getX(i), ring.getY(i)));
+                points.add(point((ring.getX(i) + ring.getX(i + 1)) / 2, (ring.getY(i) + ring.getY(i + 1)) / 2));
+            }
+        }
+        return points;
+    }
+
+    /**
+     * A cache of the given localities only, in the given order.
+     */
+    static AdminUnitsCache localitiesCache(AdminUnit... localities) {
+        var byId = new LinkedHashMap<PeliasId, AdminUnit>();
+        for (AdminUnit locality : localities) {
+            byId.put(locality.id(), locality);
+        }
+        return new AdminUnitsCache(Map.of(), Map.of(), byId);
+    }
+
+    static AdminUnit locality(String name, Polygon polygon) {
+        return new AdminUnit(new PeliasId("KVE", "TopographicPlace", name), null, null, name, "NOR", polygon, AdminUnitType.LOCALITY);
+    }
+
+    /**
+     * The square of side 1 with the given bottom left corner.
+     */
+    static Polygon square(double x, double y) {
+        return geometryFactory.createPolygon(new Coordinate[]{
+                new Coordinate(x, y), new Coordinate(x + 1, y), new Coordinate(x + 1, y + 1),
+                new Coordinate(x, y + 1), new Coordinate(x, y)});
+    }
+
+    static Point point(double x, double y) {
+        return geometryFactory.createPoint(new Coordinate(x, y));
+    }
+
+    static PeliasId id(AdminUnit adminUnit) {
+        return adminUnit != null ? adminUnit.id() : null;
+    }
+}
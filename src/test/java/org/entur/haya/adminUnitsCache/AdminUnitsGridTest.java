@@ -0,0 +1,119 @@
+package org.entur.haya.adminUnitsCache;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Point;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.entur.haya.adminUnitsCache.AdminUnitsFixture.id;
+import static org.entur.haya.adminUnitsCache.AdminUnitsFixture.localitiesCache;
+import static org.entur.haya.adminUnitsCache.AdminUnitsFixture.locality;
+import static org.entur.haya.adminUnitsCache.AdminUnitsFixture.point;
+import static org.entur.haya.adminUnitsCache.AdminUnitsFixture.square;
+
+/**
+ * The lookups answered from the grids must find the same admin units as the direct lookups,
+ * on the fixture admin units, for the points on the edges and corners of the cells as for the others.
+ */
+class AdminUnitsGridTest {
+
+    private static AdminUnitsCache adminUnitsCache;
+
+    @BeforeAll
+    static void readFixture() throws IOException {
+        adminUnitsCache = AdminUnitsFixture.read();
+    }
+
+    @ParameterizedTest
+    @ValueSource(doubles = {0.01, 0.1, 0.5})
+    void findsTheSameAdminUnitsAsTheDirectLookups(double cellSize) {
+        AdminUnitsCache withGrids = adminUnitsCache.withGrids(cellSize);
+        assertThat(withGrids.localitiesIndex().grid().boundaryCells()).isPositive()
+                .isLessThan(withGrids.localitiesIndex().grid().cells());
+
+        List<Point> points = new ArrayList<>(AdminUnitsFixture.grid(adminUnitsCache, 100));
+        points.addAll(AdminUnitsFixture.boundaryPoints(adminUnitsCache.localities().values()));
+        points.addAll(AdminUnitsFixture.boundaryPoints(adminUnitsCache.counties().values()));
+        points.addAll(cellEdgePoints(cellSize));
+        int found = 0;
+        for (Point point : points) {
+            AdminUnit locality = adminUnitsCache.getLocalityForPoint(point);
+            assertThat(id(withGrids.getLocalityForPoint(point))).as("Locality of %s", point).isEqualTo(id(locality));
+            assertThat(id(withGrids.getCountyForPoint(point))).as("County of %s", point)
+                    .isEqualTo(id(adminUnitsCache.getCountyForPoint(point)));
+            assertThat(id(withGrids.getCountryForPoint(point))).as("Country of %s", point)
+                    .isEqualTo(id(adminUnitsCache.getCountryForPoint(point)));
+            if (locality != null) {
+                found++;
+            }
+        }
+        assertThat(found).isGreaterThan(points.size() / 10);
+    }
+
+    @Test
+    void findsTheFirstOfTheAdminUnitsSharingABorderOnACellEdge() {
+        AdminUnit west = locality("West", square(0, 0));
+        AdminUnit east = locality("East", square(1, 0));
+
+        for (List<AdminUnit> localities : List.of(List.of(west, east), List.of(east, west))) {
+            var cache = localitiesCache(localities.toArray(AdminUnit[]::new));
+            var withGrids = cache.withGrids(0.5);
+            for (double y = -0.25; y <= 1.25; y += 0.25) {
+                for (double x = -0.5; x <= 2.5; x += 0.25) {
+                    for (Point point : List.of(point(x, y), point(Math.nextDown(x), Math.nextUp(y)))) {
+                        assertThat(id(withGrids.getLocalityForPoint(point))).as("Locality of %s", point)
+                                .isEqualTo(id(cache.getLocalityForPoint(point)));
+                    }
+                }
+            }
+            assertThat(id(withGrids.getLocalityForPoint(point(1, 0.5)))).isEqualTo(localities.get(0).id());
+        }
+    }
+
+    @Test
+    void findsTheAdminUnitsAtTheMinimumOfTheExtent() {
+        // 579 * 0.1 is rounded up past 57.9.
+        var cache = localitiesCache(locality("North", square(6.5, 57.9)));
+        var withGrids = cache.withGrids(0.1);
+
+        for (Point point : List.of(point(7, 57.9), point(6.5, 57.9), point(6.5, 58.4))) {
+            assertThat(id(withGrids.getLocalityForPoint(point))).as("Locality of %s", point)
+                    .isNotNull()
+                    .isEqualTo(id(cache.getLocalityForPoint(point)));
+        }
+    }
+
+    /**
+     * The corners and the middle of the edges of cells spread over the localities, as the grid of the localities
+     * lays them out, and the points right next to them.
+     */
+    private static List<Point> cellEdgePoints(double cellSize) {
+        var envelope = new Envelope();
+        adminUnitsCache.localities().values().forEach(adminUnit -> envelope.expandToInclude(adminUnit.geometry().getEnvelopeInternal()));
+        double minX = Math.floor(envelope.getMinX() / cellSize) * cellSize;
+        double minY = Math.floor(envelope.getMinY() / cellSize) * cellSize;
+        int columns = (int) Math.floor((envelope.getMaxX() - minX) / cellSize) + 1;
+        int rows = (int) Math.floor((envelope.getMaxY() - minY) / cellSize) + 1;
+
+        var points = new ArrayList<Point>();
+        for (int column = 0; column <= columns; column += Math.max(1, columns / 60)) {
+            for (int row = 0; row <= rows; row += Math.max(1, rows / 60)) {
+                double x = minX + column * cellSize;
+                double y = minY + row * cellSize;
+                points.add(point(x, y));
+                points.add(point(x + cellSize / 2, y));
+                points.add(point(x, y + cellSize / 2));
+                points.add(point(Math.nextDown(x), Math.nextDown(y)));
+                points.add(point(Math.nextUp(x), Math.nextUp(y)));
+            }
+        }
+        return points;
+    }
+}
@@ -0,0 +1,96 @@
+package org.entur.haya.adminUnitsCache;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.locationtech.jts.geom.Point;
+import org.locationtech.jts.geom.prep.PreparedGeometry;
+import org.locationtech.jts.geom.prep.PreparedGeometryFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.entur.haya.adminUnitsCache.AdminUnitsFixture.id;
+import static org.entur.haya.adminUnitsCache.AdminUnitsFixture.localitiesCache;
+import static org.entur.haya.adminUnitsCache.AdminUnitsFixture.locality;
+import static org.entur.haya.adminUnitsCache.AdminUnitsFixture.point;
+import static org.entur.haya.adminUnitsCache.AdminUnitsFixture.square;
+
+/**
+ * The STRtree lookups must find the same admin units as the linear scan over the polygons they replace,
+ * the first admin unit covering the point in the order of the cache maps, on the shared borders included.
+ */
+class AdminUnitsIndexTest {
+
+    private static AdminUnitsCache adminUnitsCache;
+
+    @BeforeAll
+    static void readFixture() throws IOException {
+        adminUnitsCache = AdminUnitsFixture.read();
+    }
+
+    @Test
+    void findsTheSameLocalitiesAsALinearScan() {
+        assertSameAsLinearScan(adminUnitsCache.localities().values(), adminUnitsCache::getLocalityForPoint);
+    }
+
+    @Test
+    void findsTheSameCountiesAsALinearScan() {
+        assertSameAsLinearScan(adminUnitsCache.counties().values(), adminUnitsCache::getCountyForPoint);
+    }
+
+    @Test
+    void findsTheSameCountriesAsALinearScan() {
+        assertSameAsLinearScan(adminUnitsCache.countries().values(), adminUnitsCache::getCountryForPoint);
+    }
+
+    @Test
+    void findsTheFirstOfTheAdminUnitsSharingABorder() {
+        AdminUnit west = locality("West", square(0, 0));
+        AdminUnit east = locality("East", square(1, 0));
+        List<Point> border = List.of(point(1, 0), point(1, 0.5), point(1, 1));
+
+        for (List<AdminUnit> localities : List.of(List.of(west, east), List.of(east, west))) {
+            var cache = localitiesCache(localities.toArray(AdminUnit[]::new));
+            for (Point point : border) {
+                assertThat(id(cache.getLocalityForPoint(point))).as("Locality of %s", point).isEqualTo(localities.get(0).id());
+            }
+            assertThat(id(cache.getLocalityForPoint(point(0.5, 0.5)))).isEqualTo(west.id());
+            assertThat(id(cache.getLocalityForPoint(point(1.5, 0.5)))).isEqualTo(east.id());
+            assertThat(cache.getLocalityForPoint(point(2.5, 0.5))).isNull();
+        }
+    }
+
+    private static void assertSameAsLinearScan(Collection<AdminUnit> adminUnits, Function<Point, AdminUnit> lookup) {
+        List<Point> points = new ArrayList<>(AdminUnitsFixture.grid(adminUnitsCache, 100));
+        points.addAll(AdminUnitsFixture.boundaryPoints(adminUnits));
+        Map<AdminUnit, PreparedGeometry> polygons = new LinkedHashMap<>();
+        adminUnits.stream()
+                .filter(adminUnit -> adminUnit.geometry() != null)
+                .forEach(adminUnit -> polygons.put(adminUnit, PreparedGeometryFactory.prepare(adminUnit.geometry())));
+        int found = 0;
+        for (Point point : points) {
+            AdminUnit expected = linearScan(polygons, point);
+            assertThat(id(lookup.apply(point))).as("Admin unit of %s", point).isEqualTo(id(expected));
+            if (expected != null) {
+                found++;
+            }
+        }
+        assertThat(found).isGreaterThan(points.size() / 10);
+    }
+
+    /**
+     * The lookup before the index, the prepared polygons only making it faster.
+     */
+    private static AdminUnit linearScan(Map<AdminUnit, PreparedGeometry> polygons, Point point) {
+        return polygons.entrySet().stream()
+                .filter(entry -> entry.getValue().covers(point))
+                .map(Map.Entry::getKey)
+                .findFirst().orElse(null);
+    }
+}
@@ -0,0 +1,163 @@
+package org.entur.haya.adminUnitsCache;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.CoordinateSequence;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.Polygon;
+import org.locationtech.jts.geom.prep.PreparedGeometry;
+import org.locationtech.jts.geom.prep.PreparedGeometryFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * The point in polygon test of PackedPolygon must give the same answer as the prepared JTS polygon it replaces,
+ * boundary included, on the admin units of the benchmark fixture and on polygons with horizontal edges.
+ */
+class PackedPolygonTest {
+
+    private static final String ADMIN_UNITS_FIXTURE = "/fixtures/admin-units.xml.gz";
+
+    private static final GeometryFactory geometryFactory = new GeometryFactory();
+
+    private static List<Polygon> fixturePolygons;
+
+    @BeforeAll
+    static void readFixture() throws IOException {
+        try (InputStream inputStream = new GZIPInputStream(PackedPolygonTest.class.getResourceAsStream(ADMIN_UNITS_FIXTURE));
+             Stream<AdminUnit> adminUnits = TopographicPlaceReader.read(inputStream).map(AdminUnit::makeAdminUnit)) {
+            fixturePolygons = adminUnits
+                    .map(AdminUnit::geometry)
+                    .filter(polygon -> polygon != null)
+                    .toList();
+        }
+        assertThat(fixturePolygons).isNotEmpty();
+    }
+
+    @Test
+    void coversTheSameRandomPointsAsJts() {
+        var random = new Random(1);
+        for (Polygon polygon : fixturePolygons) {
+            var envelope = polygon.getEnvelopeInternal();
+            List<Coordinate> points = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                points.add(new Coordinate(
+                        envelope.getMinX() + random.nextDouble() * envelope.getWidth(),
+                        envelope.getMinY() + random.nextDouble() * envelope.getHeight()));
+            }
+            assertSameAsJts(polygon, points);
+        }
+    }
+
+    @Test
+    void coversTheVerticesAndThePointsOnTheEdgesAsJts() {
+        for (Polygon polygon : fixturePolygons) {
+            assertSameAsJts(polygon, boundaryPoints(polygon));
+        }
+    }
+
+    /**
+     * Points at the latitude of the vertices, where the ray to the right goes through vertices and along edges.
+     */
+    @Test
+    void coversThePointsAtTheLatitudeOfTheVerticesAsJts() {
+        var random = new Random(2);
+        for (Polygon polygon : fixturePolygons) {
+            var envelope = polygon.getEnvelopeInternal();
+            CoordinateSequence ring = polygon.getExteriorRing().getCoordinateSequence();
+            List<Coordinate> points = new ArrayList<>();
+            for (int i = 0; i < ring.size(); i += Math.max(1, ring.size() / 50)) {
+                points.add(new Coordinate(envelope.getMinX() + random.nextDouble() * envelope.getWidth(), ring.getY(i)));
+                points.add(new Coordinate(ring.getX(i) - 1e-9, ring.getY(i)));
+                points.add(new Coordinate(ring.getX(i) + 1e-9, ring.getY(i)));
+            }
+            assertSameAsJts(polygon, points);
+        }
+    }
+
+    @Test
+    void coversThePointsOnAndAroundHorizontalEdgesAsJts() {
+        // A comb, with horizontal edges at the top and bottom of each tooth, and in the gaps between them.
+        Polygon comb = polygon(0, 0, 10, 0, 10, 4, 8, 4, 8, 2, 6, 2, 6, 4, 4, 4, 4, 2, 2, 2, 2, 4, 0, 4, 0, 0);
+        // A square with collinear vertices on its horizontal edges.
+        Polygon square = polygon(0, 0, 1, 0, 2, 0, 2, 1, 2, 2, 1, 2, 0, 2, 0, 0);
+        for (Polygon polygon : List.of(comb, square)) {
+            List<Coordinate> points = new ArrayList<>(boundaryPoints(polygon));
+            var envelope = polygon.getEnvelopeInternal();
+            for (double x = envelope.getMinX() - 1; x <= envelope.getMaxX() + 1; x += 0.25) {
+                for (double y = envelope.getMinY() - 1; y <= envelope.getMaxY() + 1; y += 0.25) {
+                    points.add(new Coordinate(x, y));
+                }
+            }
+            assertSameAsJts(polygon, points);
+        }
+    }
+
+    @Test
+    void coversTheSamePointsWhenSharingThePackedCoordinates() {
+        Polygon polygon = fixturePolygons.get(0);
+        Polygon packed = PackedPolygon.createPolygon(polygon.getExteriorRing().getCoordinateSequence());
+        assertSameAsJts(packed, boundaryPoints(packed));
+    }
+
+    @Test
+    void countsTheTestsPastTheEnvelopeOnTheGivenStatistics() {
+        Polygon polygon = fixturePolygons.get(0);
+        PackedPolygon packed = PackedPolygon.of(polygon);
+        var envelope = polygon.getEnvelopeInternal();
+        var statistics = new EnrichmentStatistics();
+
+        packed.covers(envelope.getMinX() - 1, envelope.getMinY() - 1, statistics);
+        assertThat(statistics.polygonTests()).isZero();
+
+        packed.covers(envelope.centre().x, envelope.centre().y, statistics);
+        packed.covers(envelope.getMinX(), envelope.getMinY(), statistics);
+        assertThat(statistics.polygonTests()).isEqualTo(2);
+    }
+
+    private static void assertSameAsJts(Polygon polygon, List<Coordinate> points) {
+        PreparedGeometry prepared = PreparedGeometryFactory.prepare(polygon);
+        PackedPolygon packed = PackedPolygon.of(polygon);
+        for (Coordinate point : points) {
+            assertThat(packed.covers(point.x, point.y, null))
+                    .as("Covers %s", point)
+                    .isEqualTo(prepared.covers(geometryFactory.createPoint(point)));
+        }
+    }
+
+    /**
+     * The vertices, and the points between them on each edge.
+     */
+    private static List<Coordinate> boundaryPoints(Polygon polygon) {
+        CoordinateSequence ring = polygon.getExteriorRing().getCoordinateSequence();
+        List<Coordinate> points = new ArrayList<>();
+        for (int i = 0; i < ring.size() - 1; i++) {
+            double x1 = ring.getX(i);
+            double y1 = ring.getY(i);
+            double x2 = ring.getX(i + 1);
+            double y2 = ring.getY(i + 1);
+            points.add(new Coordinate(x1, y1));
+            for (double t : new double[]{0.25, 0.5, 0.75}) {
+                points.add(new Coordinate(x1 + t * (x2 - x1), y1 + t * (y2 - y1)));
+            }
+        }
+        return points;
+    }
+
+    private static Polygon polygon(double... coordinates) {
+        var ring = new Coordinate[coordinates.length / 2];
+        for (int i = 0; i < ring.length; i++) {
+            ring[i] = new Coordinate(coordinates[2 * i], coordinates[2 * i + 1]);
+        }
+        return geometryFactory.createPolygon(ring);
+    }
+}
@@ -0,0 +1,89 @@
+package org.entur.haya.adminUnitsCache;
+
+import org.entur.geocoder.model.GeoPoint;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.locationtech.jts.geom.Point;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.entur.haya.adminUnitsCache.AdminUnitsFixture.id;
+
+/**
+ * The cached reverse geocoding must give the same admin units and the same parents as the lookups without
+ * the cache, on the fixture admin units, for the points in the cached cells as for those in the boundary cells.
+ */
+class ReverseGeocodingCacheTest {
+
+    private static AdminUnitsCache adminUnitsCache;
+    private static List<Point> points;
+
+    @BeforeAll
+    static void readFixture() throws IOException {
+        adminUnitsCache = AdminUnitsFixture.read();
+        points = new ArrayList<>(AdminUnitsFixture.grid(adminUnitsCache, 100));
+        points.addAll(AdminUnitsFixture.boundaryPoints(adminUnitsCache.localities().values()));
+        points.addAll(AdminUnitsFixture.boundaryPoints(adminUnitsCache.counties().values()));
+    }
+
+    @Test
+    void findsTheSameAdminUnitsAsTheLookupsWithoutTheCache() {
+        var cache = new ReverseGeocodingCache(adminUnitsCache, 0.01, 100_000);
+
+        // Twice, the second time from the cached cells.
+        for (int i = 0; i < 2; i++) {
+            for (Point point : points) {
+                GeoPoint geoPoint = geoPoint(point);
+                assertThat(id(cache.getLocalityForPoint(geoPoint))).as("Locality of %s", point)
+                        .isEqualTo(id(adminUnitsCache.getLocalityForPoint(point)));
+                assertThat(id(cache.getCountyForPoint(geoPoint))).as("County of %s", point)
+                        .isEqualTo(id(adminUnitsCache.getCountyForPoint(point)));
+                assertThat(id(cache.getCountryForPoint(geoPoint))).as("Country of %s", point)
+                        .isEqualTo(id(adminUnitsCache.getCountryForPoint(point)));
+            }
+        }
+        assertThat(cache.hits()).isGreaterThanOrEqualTo(points.size() * 3L);
+        assertThat(cache.boundaryLookups()).isPositive();
+    }
+
+    @Test
+    void enrichesWithTheSameParentsAsWithoutTheCache() {
+        assertSameParents(new ReverseGeocodingCache(adminUnitsCache, 0.01, 100_000));
+    }
+
+    @Test
+    void enrichesWithTheSameParentsWithCoarseCells() {
+        var cache = new ReverseGeocodingCache(adminUnitsCache, 0.5, 100_000);
+        assertSameParents(cache);
+        assertThat(cache.boundaryLookups()).isGreaterThan(cache.hits() / 10);
+    }
+
+    @Test
+    void enrichesWithTheSameParentsWhenStartingOver() {
+        var cache = new ReverseGeocodingCache(adminUnitsCache, 0.01, 10);
+        assertSameParents(cache);
+        assertThat(cache.size()).isLessThanOrEqualTo(30);
+    }
+
+    private static void assertSameParents(ReverseGeocodingCache cache) {
+        var cached = new ParentsInfoEnricher(adminUnitsCache, false, cache);
+        var uncached = new ParentsInfoEnricher(adminUnitsCache);
+        int found = 0;
+        for (Point point : points) {
+            var parents = cached.findParents(geoPoint(point));
+            assertThat(parents.parents()).as("Parents of %s", point).isEqualTo(uncached.findParents(geoPoint(point)).parents());
+            if (!parents.isOrphan()) {
+                found++;
+            }
+        }
+        assertThat(found).isGreaterThan(points.size() / 10);
+        assertThat(cache.hits()).isPositive();
+    }
+
+    private static GeoPoint geoPoint(Point point) {
+        return new GeoPoint(point.getY(), point.getX());
+    }
+}
@@ -0,0 +1,60 @@
+package org.entur.haya.adminUnitsCache;
+
+import org.entur.geocoder.model.PeliasId;
+import org.entur.netex.NetexParser;
+import org.entur.netex.index.api.NetexEntitiesIndex;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * The cache built while streaming the TopographicPlaces of the benchmark fixture must have the same admin units
+ * as the cache built from the NetexEntitiesIndex of the whole file, parsed by the NetexParser.
+ */
+class TopographicPlaceReaderTest {
+
+    private static final String ADMIN_UNITS_FIXTURE = "/fixtures/admin-units.xml.gz";
+
+    @Test
+    void buildsTheSameCacheAsTheNetexParser() throws IOException {
+        AdminUnitsCache streamed;
+        try (InputStream inputStream = openFixture()) {
+            streamed = AdminUnitsCache.buildNewCache(TopographicPlaceReader.read(inputStream));
+        }
+        NetexEntitiesIndex netexEntitiesIndex;
+        try (InputStream inputStream = openFixture()) {
+            netexEntitiesIndex = new NetexParser().parse(inputStream);
+        }
+        AdminUnitsCache parsed = AdminUnitsCache.buildNewCache(netexEntitiesIndex);
+
+        assertThat(parsed.localities()).isNotEmpty();
+        assertThat(parsed.counties()).isNotEmpty();
+        assertSameAdminUnits(streamed.countries(), parsed.countries());
+        assertSameAdminUnits(streamed.counties(), parsed.counties());
+        assertSameAdminUnits(streamed.localities(), parsed.localities());
+        assertThat(streamed.parentChains()).isEqualTo(parsed.parentChains());
+    }
+
+    private static void assertSameAdminUnits(Map<PeliasId, AdminUnit> actual, Map<PeliasId, AdminUnit> expected) {
+        assertThat(actual.keySet()).isEqualTo(expected.keySet());
+        for (AdminUnit adminUnit : expected.values()) {
+            AdminUnit streamed = actual.get(adminUnit.id());
+            assertThat(streamed.name()).isEqualTo(adminUnit.name());
+            assertThat(streamed.isoCode()).isEqualTo(adminUnit.isoCode());
+            assertThat(streamed.parentId()).isEqualTo(adminUnit.parentId());
+            assertThat(streamed.countryRef()).isEqualTo(adminUnit.countryRef());
+            assertThat(streamed.adminUnitType()).isEqualTo(adminUnit.adminUnitType());
+            assertThat(streamed.geometry().getCoordinates()).as("Coordinates of %s", adminUnit.id())
+                    .containsExactly(adminUnit.geometry().getCoordinates());
+        }
+    }
+
+    private static InputStream openFixture() throws IOException {
+        return new GZIPInputStream(TopographicPlaceReaderTest.class.getResourceAsStream(ADMIN_UNITS_FIXTURE));
+    }
+}
@@ -0,0 +1,101 @@
+package org.entur.haya.csv;
+
+import com.opencsv.CSVReaderBuilder;
+import com.opencsv.RFC4180ParserBuilder;
+import com.opencsv.CSVWriter;
+import com.opencsv.exceptions.CsvException;
+import org.entur.geocoder.model.GeoPoint;
+import org.entur.geocoder.model.ParentType;
+import org.entur.geocoder.model.Parents;
+import org.entur.geocoder.model.PeliasDocument;
+import org.entur.geocoder.model.PeliasId;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * CSVRowEncoder replaces the CSVWriter of OpenCSV, and must write the same bytes as CSVWriter with its defaults
+ * through a UTF-8 writer, which the CSV importer of Pelias reads.
+ */
+class CSVRowEncoderTest {
+
+    private static final List<String[]> rows = List.of(
+            new String[]{"plain", "with \"quotes\"", "\"", "\"\"", "a,b", ",", ""},
+            new String[]{"line\nbreak", "carriage\rreturn", "crlf\r\n", "back\\slash", "\\\"", "\\"},
+            new String[]{null, "", null},
+            new String[]{"Tromsø", "Škoda", "東京", "emoji 🚌", "lone \uD800 high", "lone \uDC00 low", "\uDC00\uD800"},
+            new String[]{"{\"name\":\"Oslo \\\"S\\\"\",\"list\":[\"a\",\"b\"]}"});
+
+    @Test
+    void writesTheSameBytesAsCSVWriter() throws IOException {
+        var encoded = new ByteArrayOutputStream();
+        var rowEncoder = new CSVRowEncoder(encoded);
+        for (String[] row : rows) {
+            for (String cell : row) {
+                rowEncoder.writeCell(cell);
+            }
+            rowEncoder.endRow();
+        }
+        rowEncoder.flush();
+
+        assertThat(encoded.toByteArray()).isEqualTo(writeWithCSVWriter(rows));
+    }
+
+    @Test
+    void writesTheSameBytesAsCSVWriterForTheDocuments() throws IOException, CsvException {
+        var written = new ByteArrayOutputStream();
+        PeliasCSV.write(Stream.of(peliasDocument("Storgata \"1\", 2\r\nOslo\\Sentrum"), peliasDocument("Tromsø 🚌 \uD800")), written);
+
+        // Read back without the backslash escapes of the default parser, which CSVWriter does not write,
+        // and keeping the carriage returns in the cells.
+        List<String[]> rows;
+        try (var csvReader = new CSVReaderBuilder(new InputStreamReader(new ByteArrayInputStream(written.toByteArray()), StandardCharsets.UTF_8))
+                .withCSVParser(new RFC4180ParserBuilder().build())
+                .withKeepCarriageReturn(true)
+                .build()) {
+            rows = csvReader.readAll();
+        }
+
+        assertThat(rows).hasSize(3);
+        assertThat(written.toByteArray()).isEqualTo(writeWithCSVWriter(rows));
+    }
+
+    private static byte[] writeWithCSVWriter(List<String[]> rows) throws IOException {
+        var outputStream = new ByteArrayOutputStream();
+        try (var csvWriter = new CSVWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8))) {
+            rows.forEach(csvWriter::writeNext);
+        }
+        return outputStream.toByteArray();
+    }
+
+    private static PeliasDocument peliasDocument(String name) {
+        var parents = new Parents();
+        parents.addOrReplaceParent(ParentType.LOCALITY, new PeliasId("KVE", "TopographicPlace", "KVE:TopographicPlace:0301"), "Oslo \"by\"");
+
+        PeliasDocument peliasDocument = mock(PeliasDocument.class);
+        when(peliasDocument.getPeliasId()).thenReturn(new PeliasId("openstreetmap", "address", "OSM:1"));
+        when(peliasDocument.getIndex()).thenReturn("pelias");
+        when(peliasDocument.getDefaultName()).thenReturn(name);
+        when(peliasDocument.getDefaultAlias()).thenReturn(name);
+        when(peliasDocument.getPopularity()).thenReturn(20L);
+        when(peliasDocument.getCategories()).thenReturn(List.of("street", "\"quoted\""));
+        when(peliasDocument.getDescriptionMap()).thenReturn(Map.of("nor", name));
+        when(peliasDocument.getAlternativeNames()).thenReturn(Map.of("en", name));
+        when(peliasDocument.getAlternativeAlias()).thenReturn(Map.of("en", name));
+        when(peliasDocument.getCenterPoint()).thenReturn(new GeoPoint(59.91, 10.75));
+        when(peliasDocument.getParents()).thenReturn(parents);
+        return peliasDocument;
+    }
+}
@@ -0,0 +1,84 @@
+package org.entur.haya.csv;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * JsonStrings must write the same JSON as the ObjectMapper of CSVValue it stands in for.
+ */
+class JsonStringsTest {
+
+    private static final List<String> strings = List.of(
+            "",
+            "Oslo",
+            "with \"quotes\"",
+            "back\\slash \\\" \\u0041",
+            "line\nbreak\r\ttab\bback\fform",
+            "/slash and </script>",
+            "Tromsø Škoda 東京    \u007F \u0080 ÿ",
+            "emoji 🚌 and 𝄞",
+            "lone \uD800 high",
+            "lone \uDC00 low",
+            "\uDC00\uD800 reversed",
+            controlCharacters());
+
+    @Test
+    void writesTheStringsAsJackson() throws JsonProcessingException {
+        for (String string : strings) {
+            assertThat(JsonStrings.toJson(string)).as("JSON of %s", string).isEqualTo(CSVValue.mapper.writeValueAsString(string));
+        }
+    }
+
+    @Test
+    void writesTheListsOfStringsAsJackson() throws JsonProcessingException {
+        assertThat(JsonStrings.toJson(strings)).isEqualTo(CSVValue.mapper.writeValueAsString(strings));
+        assertThat(JsonStrings.toJson(List.of())).isEqualTo(CSVValue.mapper.writeValueAsString(List.of()));
+        assertThat(JsonStrings.toJson(List.of("street"))).isEqualTo(CSVValue.mapper.writeValueAsString(List.of("street")));
+    }
+
+    @Test
+    void writesTheMapsOfStringsAsJackson() throws JsonProcessingException {
+        var map = new LinkedHashMap<String, String>();
+        for (int i = 0; i < strings.size(); i++) {
+            map.put(strings.get(i), strings.get(strings.size() - 1 - i));
+        }
+        assertThat(JsonStrings.toJson(map)).isEqualTo(CSVValue.mapper.writeValueAsString(map));
+        assertThat(JsonStrings.toJson(Map.of())).isEqualTo(CSVValue.mapper.writeValueAsString(Map.of()));
+    }
+
+    @Test
+    void leavesTheOtherValuesToJackson() throws JsonProcessingException {
+        var mapWithNull = new HashMap<String, String>();
+        mapWithNull.put("nor", null);
+        List<Object> others = List.of(
+                Arrays.asList("a", null),
+                List.of("a", 1),
+                Map.of("a", 1),
+                Map.of(1, "a"),
+                Map.of("a", List.of("b")),
+                mapWithNull,
+                new PeliasCSV.PeliasParent("KVE", "KVE:TopographicPlace:0301", "Oslo \"by\"", null),
+                42L);
+        for (Object value : others) {
+            assertThat(JsonStrings.toJson(value)).as("JSON of %s", value).isNull();
+            assertThat(new CSVValue(value, true).toString()).as("CSV value of %s", value)
+                    .isEqualTo(CSVValue.mapper.writeValueAsString(value));
+        }
+    }
+
+    private static String controlCharacters() {
+        var characters = new ArrayList<String>();
+        IntStream.range(0, 0x20).forEach(c -> characters.add(String.valueOf((char) c)));
+        return String.join("", characters);
+    }
+}
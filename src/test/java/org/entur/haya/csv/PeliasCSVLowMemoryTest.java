@@ -0,0 +1,75 @@
+package org.entur.haya.csv;
+
+import org.entur.geocoder.model.GeoPoint;
+import org.entur.geocoder.model.ParentType;
+import org.entur.geocoder.model.Parents;
+import org.entur.geocoder.model.PeliasDocument;
+import org.entur.geocoder.model.PeliasId;
+import org.entur.haya.io.MeteredOutputStream;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * Writes a few million documents with a heap far smaller than their rows, which only passes
+ * if the rows are written as the documents come, without being collected first.
+ * Run by the low-memory surefire execution, with -Xmx64m.
+ */
+@Tag("low-memory")
+class PeliasCSVLowMemoryTest {
+
+    private static final int DOCUMENTS = 3_000_000;
+    private static final int DISTINCT_DOCUMENTS = 1000;
+
+    @Test
+    void writesMillionsOfDocumentsInConstantMemory() throws IOException {
+        assumeTrue(Runtime.getRuntime().maxMemory() <= 128L * 1024 * 1024, "Needs a small heap, see the low-memory surefire execution");
+
+        List<PeliasDocument> peliasDocuments = IntStream.range(0, DISTINCT_DOCUMENTS)
+                .mapToObj(PeliasCSVLowMemoryTest::peliasDocument)
+                .toList();
+        Stream<PeliasDocument> documents = IntStream.range(0, DOCUMENTS)
+                .mapToObj(i -> peliasDocuments.get(i % DISTINCT_DOCUMENTS));
+
+        var outputStream = new MeteredOutputStream(OutputStream.nullOutputStream());
+        long rows = PeliasCSV.write(documents, outputStream);
+
+        assertThat(rows).isEqualTo(DOCUMENTS);
+        // Well over the heap, had the rows been kept.
+        assertThat(outputStream.bytes()).isGreaterThan(Runtime.getRuntime().maxMemory());
+    }
+
+    /**
+     * A stub only mock, which does not record its invocations.
+     */
+    private static PeliasDocument peliasDocument(int i) {
+        var parents = new Parents();
+        parents.addOrReplaceParent(ParentType.COUNTY, new PeliasId("KVE", "TopographicPlace", "KVE:TopographicPlace:" + (i % 10)), "County " + (i % 10));
+        parents.addOrReplaceParent(ParentType.LOCALITY, new PeliasId("KVE", "TopographicPlace", "KVE:TopographicPlace:" + (100 + i % 100)), "Locality " + (i % 100));
+
+        PeliasDocument peliasDocument = mock(PeliasDocument.class, withSettings().stubOnly());
+        when(peliasDocument.getPeliasId()).thenReturn(new PeliasId("openstreetmap", "address", "OSM:" + i));
+        when(peliasDocument.getIndex()).thenReturn("pelias");
+        when(peliasDocument.getDefaultName()).thenReturn("Storgata " + i);
+        when(peliasDocument.getPopularity()).thenReturn(20L);
+        when(peliasDocument.getCategories()).thenReturn(List.of("street"));
+        when(peliasDocument.getDescriptionMap()).thenReturn(Map.of());
+        when(peliasDocument.getAlternativeNames()).thenReturn(Map.of("en", "Main street " + i));
+        when(peliasDocument.getAlternativeAlias()).thenReturn(Map.of());
+        when(peliasDocument.getCenterPoint()).thenReturn(new GeoPoint(59.9 + i * 1e-5, 10.7 + i * 1e-5));
+        when(peliasDocument.getParents()).thenReturn(parents);
+        return peliasDocument;
+    }
+}
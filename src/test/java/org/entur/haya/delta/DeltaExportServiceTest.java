@@ -0,0 +1,48 @@
+package org.entur.haya.delta;
+
+import org.entur.haya.blobStore.HayaBlobStoreService;
+import org.entur.haya.blobStore.MoradinBlobStoreService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.util.ReflectionTestUtils.setField;
+
+class DeltaExportServiceTest {
+
+    @TempDir
+    Path workDir;
+
+    @Test
+    void deletesTheLatestDeltaFileWhenThereIsNoLatestFile() {
+        var hayaBlobStoreService = mock(HayaBlobStoreService.class);
+        var moradinBlobStoreService = mock(MoradinBlobStoreService.class);
+        when(moradinBlobStoreService.getLatestBlob()).thenReturn(null);
+        var deltaExportService = new DeltaExportService(hayaBlobStoreService, moradinBlobStoreService);
+        setField(deltaExportService, "hayaWorkDir", workDir.toString());
+
+        assertThat(deltaExportService.createAndUploadDeltaFile("haya_export_geocoder_1")).isFalse();
+
+        verify(moradinBlobStoreService).deleteLatestDeltaBlob();
+        verify(hayaBlobStoreService, never()).uploadBlob(anyString(), any());
+    }
+
+    @Test
+    void logsTheFailureToDeleteTheLatestDeltaFile() {
+        var moradinBlobStoreService = mock(MoradinBlobStoreService.class);
+        when(moradinBlobStoreService.deleteLatestDeltaBlob()).thenThrow(new IllegalStateException("Unavailable"));
+        var deltaExportService = new DeltaExportService(mock(HayaBlobStoreService.class), moradinBlobStoreService);
+
+        deltaExportService.deleteLatestDeltaFile();
+
+        verify(moradinBlobStoreService).deleteLatestDeltaBlob();
+    }
+}
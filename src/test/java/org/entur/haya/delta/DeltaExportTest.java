@@ -0,0 +1,141 @@
+package org.entur.haya.delta;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class DeltaExportTest {
+
+    private static final String HEADER = "\"id\",\"source\",\"layer\",\"name\"\n";
+
+    @TempDir
+    Path workDir;
+
+    @Test
+    void writesTheAddedChangedAndDeletedRows() throws IOException {
+        String previous = HEADER
+                + row("1", "Oslo")
+                + row("2", "Bergen")
+                + row("3", "Trondheim");
+        String next = HEADER
+                + row("4", "Tromsø")
+                + row("2", "Bergen sentrum")
+                + row("1", "Oslo");
+
+        Map<String, String> delta = new HashMap<>();
+        DeltaExport.Counts counts = write(previous, next, delta);
+
+        assertThat(counts).isEqualTo(new DeltaExport.Counts(1, 1, 1));
+        assertThat(delta.get(DeltaExport.ADDED)).isEqualTo(HEADER + row("4", "Tromsø"));
+        assertThat(delta.get(DeltaExport.CHANGED)).isEqualTo(HEADER + row("2", "Bergen sentrum"));
+        assertThat(delta.get(DeltaExport.DELETED)).isEqualTo(HEADER + row("3", "Trondheim"));
+    }
+
+    @Test
+    void pairsTheRowsWithTheSameIdInOrder() throws IOException {
+        String previous = HEADER
+                + row("1", "Storgata")
+                + row("1", "Kirkegata")
+                + row("2", "Torget")
+                + row("2", "Brygga");
+        String next = HEADER
+                + row("1", "Storgata")
+                + row("1", "Kongens gate")
+                + row("1", "Havnegata")
+                + row("2", "Torget");
+
+        Map<String, String> delta = new HashMap<>();
+        DeltaExport.Counts counts = write(previous, next, delta);
+
+        assertThat(counts).isEqualTo(new DeltaExport.Counts(1, 1, 1));
+        assertThat(delta.get(DeltaExport.ADDED)).isEqualTo(HEADER + row("1", "Havnegata"));
+        assertThat(delta.get(DeltaExport.CHANGED)).isEqualTo(HEADER + row("1", "Kongens gate"));
+        assertThat(delta.get(DeltaExport.DELETED)).isEqualTo(HEADER + row("2", "Brygga"));
+    }
+
+    @Test
+    void keepsTheQuotedLineBreaksAndQuotesInTheRows() throws IOException {
+        String previous = HEADER
+                + row("1", "Første linje\nandre linje")
+                + row("2", "Sagt \"\"hei\"\"\r\npå")
+                + row("3", "Uendret\n");
+        String next = HEADER
+                + row("1", "Første linje\nny linje")
+                + row("3", "Uendret\n")
+                + row("4", "Ny,\n\"\"rad\"\"");
+
+        Map<String, String> delta = new HashMap<>();
+        DeltaExport.Counts counts = write(previous, next, delta);
+
+        assertThat(counts).isEqualTo(new DeltaExport.Counts(1, 1, 1));
+        assertThat(delta.get(DeltaExport.ADDED)).isEqualTo(HEADER + row("4", "Ny,\n\"\"rad\"\""));
+        assertThat(delta.get(DeltaExport.CHANGED)).isEqualTo(HEADER + row("1", "Første linje\nny linje"));
+        assertThat(delta.get(DeltaExport.DELETED)).isEqualTo(HEADER + row("2", "Sagt \"\"hei\"\"\r\npå"));
+    }
+
+    @Test
+    void writesAnEmptyDeltaForTheSameRows() throws IOException {
+        String rows = HEADER + row("1", "Oslo") + row("2", "Bergen");
+
+        Map<String, String> delta = new HashMap<>();
+        DeltaExport.Counts counts = write(rows, rows, delta);
+
+        assertThat(counts).isEqualTo(new DeltaExport.Counts(0, 0, 0));
+        assertThat(delta).containsOnly(
+                Map.entry(DeltaExport.ADDED, HEADER),
+                Map.entry(DeltaExport.CHANGED, HEADER),
+                Map.entry(DeltaExport.DELETED, HEADER));
+    }
+
+    @Test
+    void rejectsAHeaderWithoutTheId() {
+        String rows = "\"source\",\"layer\",\"name\"\n\"osm\",\"address\",\"Oslo\"\n";
+
+        assertThatThrownBy(() -> write(rows, rows, new HashMap<>()))
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("id column");
+    }
+
+    /**
+     * With a sort buffer of two rows, so that the rows are spilled to the working directory.
+     */
+    private DeltaExport.Counts write(String previous, String next, Map<String, String> delta) throws IOException {
+        var outputStream = new ByteArrayOutputStream();
+        DeltaExport.Counts counts = new DeltaExport(workDir, 2).write(zip(previous), zip(next), outputStream);
+        try (var zipInputStream = new ZipInputStream(new ByteArrayInputStream(outputStream.toByteArray()))) {
+            ZipEntry entry;
+            while ((entry = zipInputStream.getNextEntry()) != null) {
+                delta.put(entry.getName(), new String(zipInputStream.readAllBytes(), StandardCharsets.UTF_8));
+            }
+        }
+        return counts;
+    }
+
+    private static String row(String id, String name) {
+        return "\"" + id + "\",\"openstreetmap\",\"address\",\"" + name + "\"\n";
+    }
+
+    private static InputStream zip(String csv) throws IOException {
+        var outputStream = new ByteArrayOutputStream();
+        try (var zipOutputStream = new ZipOutputStream(outputStream)) {
+            zipOutputStream.putNextEntry(new ZipEntry("haya.csv"));
+            zipOutputStream.write(csv.getBytes(StandardCharsets.UTF_8));
+            zipOutputStream.closeEntry();
+        }
+        return new ByteArrayInputStream(outputStream.toByteArray());
+    }
+}
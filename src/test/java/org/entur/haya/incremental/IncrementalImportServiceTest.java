@@ -0,0 +1,138 @@
+package org.entur.haya.incremental;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.entur.geocoder.blobStore.BlobStoreFiles;
+import org.entur.haya.HayaService;
+import org.entur.haya.adminUnitsCache.AdminUnitsCache;
+import org.entur.haya.blobStore.HayaBlobStoreService;
+import org.entur.haya.metrics.HayaMetrics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.util.ReflectionTestUtils.setField;
+
+/**
+ * The enriched rows stored by the previous run are reused only for the same import file, enriched with the same
+ * admin units and enrichment settings, and the documents of the file are enriched again otherwise.
+ */
+class IncrementalImportServiceTest {
+
+    private static final String IMPORT_FILE = "import/osm.zip";
+    private static final String ADMIN_UNITS_VERSION = "0b7d2f0e1c9b4d55a5e2a0f5b3c0d9e1";
+    private static final String ENRICHMENT = "csv1";
+    private static final String STORED_ROWS = "incremental/enriched/stored.csv.gz";
+
+    @TempDir
+    Path workDir;
+
+    private HayaService hayaService;
+    private HayaBlobStoreService hayaBlobStoreService;
+    private IncrementalImportService incrementalImportService;
+    private BlobStoreFiles.File file;
+    private String checksum;
+    private byte[] storedRows;
+
+    @BeforeEach
+    void createIncrementalImportService() throws IOException {
+        hayaService = mock(HayaService.class);
+        hayaBlobStoreService = mock(HayaBlobStoreService.class);
+        incrementalImportService = new IncrementalImportService(hayaService, hayaBlobStoreService, new HayaMetrics(new SimpleMeterRegistry()));
+        setField(incrementalImportService, "hayaWorkDir", workDir.toString());
+        setField(incrementalImportService, "incrementalFolder", "incremental");
+
+        file = mock(BlobStoreFiles.File.class);
+        when(file.getName()).thenReturn(IMPORT_FILE);
+        when(file.getFileNameOnly()).thenReturn("osm.zip");
+        Path archive = Files.createDirectories(workDir.resolve("pelias-document-zip")).resolve(HayaService.getLocalFileName(IMPORT_FILE));
+        Files.writeString(archive, "the documents of the import file");
+        checksum = HayaService.md5Checksum(archive);
+
+        storedRows = gzip("\"stored\",\"row\"\n");
+        when(hayaBlobStoreService.getBlob(STORED_ROWS)).thenAnswer(invocation -> new ByteArrayInputStream(storedRows));
+        when(hayaService.getEnrichmentKey()).thenReturn(ENRICHMENT);
+        when(hayaService.readPeliasDocumentsFromZipArchive(any())).thenReturn(Stream.empty());
+        when(hayaService.enrichWithParentInfo(any(), any())).thenReturn(Stream.empty());
+    }
+
+    @Test
+    void reusesTheStoredRowsOfTheSameFileAndAdminUnits() throws IOException {
+        var previousInput = new ImportManifest.Input(IMPORT_FILE, checksum, ADMIN_UNITS_VERSION, ENRICHMENT, STORED_ROWS);
+
+        ImportManifest.Input input = prepareEnrichedRows(previousInput, ADMIN_UNITS_VERSION);
+
+        assertThat(input).isEqualTo(previousInput);
+        assertThat(Files.readAllBytes(incrementalImportService.getEnrichedRowsFile(IMPORT_FILE))).isEqualTo(storedRows);
+        verify(hayaService, never()).enrichWithParentInfo(any(), any());
+        verify(hayaBlobStoreService, never()).uploadBlob(anyString(), any(InputStream.class));
+    }
+
+    @Test
+    void enrichesTheFileAgainWhenItHasChanged() {
+        var previousInput = new ImportManifest.Input(IMPORT_FILE, "5d41402abc4b2a76b9719d911017c592", ADMIN_UNITS_VERSION, ENRICHMENT, STORED_ROWS);
+
+        assertEnrichedAgain(prepareEnrichedRows(previousInput, ADMIN_UNITS_VERSION), ADMIN_UNITS_VERSION);
+    }
+
+    @Test
+    void enrichesTheFileAgainWhenTheAdminUnitsHaveChanged() {
+        var previousInput = new ImportManifest.Input(IMPORT_FILE, checksum, ADMIN_UNITS_VERSION, ENRICHMENT, STORED_ROWS);
+        String newAdminUnitsVersion = "9e107d9d372bb6826bd81d3542a419d6";
+
+        assertEnrichedAgain(prepareEnrichedRows(previousInput, newAdminUnitsVersion), newAdminUnitsVersion);
+    }
+
+    @Test
+    void enrichesTheFileAgainWhenTheEnrichmentSettingsHaveChanged() {
+        var previousInput = new ImportManifest.Input(IMPORT_FILE, checksum, ADMIN_UNITS_VERSION, "csv1_hierarchical", STORED_ROWS);
+
+        assertEnrichedAgain(prepareEnrichedRows(previousInput, ADMIN_UNITS_VERSION), ADMIN_UNITS_VERSION);
+    }
+
+    @Test
+    void enrichesTheFileAgainWhenTheStoredRowsAreMissing() {
+        var previousInput = new ImportManifest.Input(IMPORT_FILE, checksum, ADMIN_UNITS_VERSION, ENRICHMENT, STORED_ROWS);
+        when(hayaBlobStoreService.getBlob(STORED_ROWS)).thenReturn(null);
+
+        assertEnrichedAgain(prepareEnrichedRows(previousInput, ADMIN_UNITS_VERSION), ADMIN_UNITS_VERSION);
+    }
+
+    private ImportManifest.Input prepareEnrichedRows(ImportManifest.Input previousInput, String adminUnitsVersion) {
+        return incrementalImportService.prepareEnrichedRows(file, new ImportManifest(List.of(previousInput)),
+                adminUnitsVersion, mock(AdminUnitsCache.class));
+    }
+
+    private void assertEnrichedAgain(ImportManifest.Input input, String adminUnitsVersion) {
+        String enrichedRows = "incremental/enriched/" + checksum + "_" + adminUnitsVersion + "_" + ENRICHMENT + ".csv.gz";
+        assertThat(input).isEqualTo(new ImportManifest.Input(IMPORT_FILE, checksum, adminUnitsVersion, ENRICHMENT, enrichedRows));
+        verify(hayaService).enrichWithParentInfo(any(), any());
+        verify(hayaBlobStoreService).uploadBlob(eq(enrichedRows), any(InputStream.class));
+    }
+
+    private static byte[] gzip(String rows) throws IOException {
+        var gzipped = new ByteArrayOutputStream();
+        try (var outputStream = new GZIPOutputStream(gzipped)) {
+            outputStream.write(rows.getBytes(StandardCharsets.UTF_8));
+        }
+        return gzipped.toByteArray();
+    }
+}
@@ -0,0 +1,133 @@
+package org.entur.haya.io;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ExternalSorterTest {
+
+    private record Value(int key, int position) {
+    }
+
+    private static final ExternalSorter.Codec<Value> codec = new ExternalSorter.Codec<>() {
+        @Override
+        public void write(DataOutputStream outputStream, Value value) throws IOException {
+            outputStream.writeInt(value.key());
+            outputStream.writeInt(value.position());
+        }
+
+        @Override
+        public Value read(DataInputStream inputStream) throws IOException {
+            return new Value(inputStream.readInt(), inputStream.readInt());
+        }
+    };
+
+    private static final Comparator<Value> byKey = Comparator.comparingInt(Value::key);
+
+    @TempDir
+    Path tempDirectory;
+
+    /**
+     * From all the values in memory to a run per value, with the last run full or not.
+     */
+    @ParameterizedTest
+    @ValueSource(ints = {1, 7, 100, 1000, 10_000})
+    void sortsStablyWhateverTheNumberOfRuns(int maxInMemory) throws IOException {
+        List<Value> values = randomValues(1000, 50);
+
+        assertThat(sort(values, maxInMemory)).containsExactlyElementsOf(sortedStably(values));
+        assertThat(spilledRuns()).isEmpty();
+    }
+
+    @Test
+    void sortsNoValues() throws IOException {
+        assertThat(sort(List.of(), 10)).isEmpty();
+    }
+
+    @Test
+    void spillsToTheTempDirectoryUntilTheSortedValuesAreClosed() throws IOException {
+        List<Value> values = randomValues(100, 1000);
+        var sorter = new ExternalSorter<>(byKey, codec, 10, tempDirectory);
+
+        try (Stream<Value> sorted = sorter.sort(values.iterator())) {
+            assertThat(spilledRuns()).hasSize(10);
+            assertThat(sorted.limit(5)).containsExactlyElementsOf(sortedStably(values).subList(0, 5));
+        }
+        assertThat(spilledRuns()).isEmpty();
+    }
+
+    @Test
+    void deletesTheSpilledRunsWhenTheValuesFailToBeRead() {
+        Iterator<Value> failing = new Iterator<>() {
+            private int next;
+
+            @Override
+            public boolean hasNext() {
+                return true;
+            }
+
+            @Override
+            public Value next() {
+                if (next == 25) {
+                    throw new IllegalStateException("Malformed value");
+                }
+                return new Value(next, next++);
+            }
+        };
+        var sorter = new ExternalSorter<>(byKey, codec, 10, tempDirectory);
+
+        assertThatThrownBy(() -> sorter.sort(failing)).isInstanceOf(IllegalStateException.class);
+        assertThat(spilledRuns()).isEmpty();
+    }
+
+    private List<Value> sort(List<Value> values, int maxInMemory) throws IOException {
+        var sorter = new ExternalSorter<>(byKey, codec, maxInMemory, tempDirectory);
+        try (Stream<Value> sorted = sorter.sort(values.iterator())) {
+            return sorted.toList();
+        }
+    }
+
+    /**
+     * Values with many equal keys, numbered in input order.
+     */
+    private static List<Value> randomValues(int count, int distinctKeys) {
+        var random = new Random(count);
+        var values = new ArrayList<Value>();
+        for (int i = 0; i < count; i++) {
+            values.add(new Value(random.nextInt(distinctKeys), i));
+        }
+        return values;
+    }
+
+    private static List<Value> sortedStably(List<Value> values) {
+        var sorted = new ArrayList<>(values);
+        // Collections.sort is a stable merge sort.
+        Collections.sort(sorted, byKey);
+        return sorted;
+    }
+
+    private List<Path> spilledRuns() {
+        try (Stream<Path> files = Files.list(tempDirectory)) {
+            return files.toList();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package org.entur.haya.io;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * The archives must read back with both the streaming and the central directory readers of the JDK,
+ * whatever the number of blocks and threads.
+ */
+class ParallelDeflateZipOutputStreamTest {
+
+    private static final int BLOCK_SIZE = 64 * 1024;
+
+    @TempDir
+    Path tempDirectory;
+
+    @ParameterizedTest
+    @ValueSource(ints = {0, 1, BLOCK_SIZE - 1, BLOCK_SIZE, BLOCK_SIZE + 1, 10 * BLOCK_SIZE + 12345})
+    void roundTripsCsvLikeData(int length) throws IOException {
+        assertRoundTrip(csvLikeData(length), 4);
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 2, 8})
+    void roundTripsIncompressibleDataOnAnyNumberOfThreads(int threads) throws IOException {
+        var data = new byte[7 * BLOCK_SIZE + 3];
+        new Random(threads).nextBytes(data);
+        assertRoundTrip(data, threads);
+    }
+
+    @Test
+    void roundTripsDataWrittenByteByByte() throws IOException {
+        byte[] data = csvLikeData(3 * BLOCK_SIZE);
+        var zipped = new ByteArrayOutputStream();
+        try (var outputStream = new ParallelDeflateZipOutputStream(zipped, "haya.csv", 2, BLOCK_SIZE)) {
+            for (byte b : data) {
+                outputStream.write(b);
+            }
+        }
+        assertThat(readWithZipInputStream(zipped.toByteArray(), "haya.csv")).isEqualTo(data);
+    }
+
+    @Test
+    void rejectsBlocksSmallerThanTheDictionary() {
+        assertThatThrownBy(() -> new ParallelDeflateZipOutputStream(new ByteArrayOutputStream(), "haya.csv", 1, 1024))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private void assertRoundTrip(byte[] data, int threads) throws IOException {
+        var zipped = new ByteArrayOutputStream();
+        try (var outputStream = new ParallelDeflateZipOutputStream(zipped, "haya_æøå.csv", threads, BLOCK_SIZE)) {
+            outputStream.write(data);
+        }
+
+        assertThat(readWithZipInputStream(zipped.toByteArray(), "haya_æøå.csv")).isEqualTo(data);
+
+        Path zipFile = Files.write(tempDirectory.resolve("haya.zip"), zipped.toByteArray());
+        try (var archive = new ZipFile(zipFile.toFile(), StandardCharsets.UTF_8)) {
+            assertThat(archive.size()).isEqualTo(1);
+            ZipEntry entry = archive.getEntry("haya_æøå.csv");
+            assertThat(entry).isNotNull();
+            assertThat(entry.getMethod()).isEqualTo(ZipEntry.DEFLATED);
+            assertThat(entry.getSize()).isEqualTo(data.length);
+            assertThat(entry.getCrc()).isEqualTo(crc(data));
+            try (InputStream inputStream = archive.getInputStream(entry)) {
+                assertThat(inputStream.readAllBytes()).isEqualTo(data);
+            }
+        }
+    }
+
+    private static byte[] readWithZipInputStream(byte[] zipped, String entryName) throws IOException {
+        try (var zipInputStream = new ZipInputStream(new ByteArrayInputStream(zipped), StandardCharsets.UTF_8)) {
+            ZipEntry entry = zipInputStream.getNextEntry();
+            assertThat(entry).isNotNull();
+            assertThat(entry.getName()).isEqualTo(entryName);
+            byte[] data = zipInputStream.readAllBytes();
+            assertThat(zipInputStream.getNextEntry()).isNull();
+            return data;
+        }
+    }
+
+    /**
+     * Repetitive rows, so that the blocks refer back to the dictionary of the block before them.
+     */
+    private static byte[] csvLikeData(int length) {
+        var random = new Random(length);
+        var csv = new StringBuilder();
+        while (csv.length() < length) {
+            csv.append("NSR:StopPlace:").append(random.nextInt(100_000))
+                    .append(",pelias,venue,Stasjon ").append(random.nextInt(1000))
+                    .append(",59.").append(random.nextInt(1_000_000))
+                    .append(",10.").append(random.nextInt(1_000_000)).append('\n');
+        }
+        return csv.substring(0, length).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static long crc(byte[] data) {
+        var crc = new CRC32();
+        crc.update(data);
+        return crc.getValue();
+    }
+}
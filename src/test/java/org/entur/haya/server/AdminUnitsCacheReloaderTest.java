@@ -0,0 +1,130 @@
+package org.entur.haya.server;
+
+import org.entur.haya.HayaService;
+import org.entur.haya.adminUnitsCache.AdminUnitsCache;
+import org.entur.haya.adminUnitsCache.ParentsInfoEnricher;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class AdminUnitsCacheReloaderTest {
+
+    private static final Path ZIP_FILE = Path.of("admin-units.zip");
+
+    private HayaService hayaService;
+    private AdminUnitsCacheReloader reloader;
+
+    @BeforeEach
+    void createReloader() {
+        hayaService = mock(HayaService.class);
+        when(hayaService.downloadAdminUnitsFile()).thenReturn(ZIP_FILE);
+        reloader = new AdminUnitsCacheReloader(hayaService);
+    }
+
+    @Test
+    void hasNoEnricherUntilTheFirstCacheIsLoaded() {
+        when(hayaService.getAdminUnitsFileMetadata()).thenThrow(new IllegalStateException("Unavailable"));
+
+        reloader.reloadIfChanged();
+
+        assertThat(reloader.parentsInfoEnricher()).isNull();
+    }
+
+    @Test
+    void loadsTheCache() {
+        ParentsInfoEnricher enricher = load("2022-05-01T00:00:00Z/1000", "md5-1");
+
+        assertThat(reloader.parentsInfoEnricher()).isSameAs(enricher);
+        verify(hayaService).createParentsInfoEnricher(any(), any());
+    }
+
+    @Test
+    void doesNotDownloadTheFileWhenItsMetadataIsUnchanged() {
+        load("2022-05-01T00:00:00Z/1000", "md5-1");
+
+        reloader.reloadIfChanged();
+
+        verify(hayaService, times(1)).downloadAdminUnitsFile();
+        verify(hayaService, times(1)).buildAdminUnitCacheFromZipFile(ZIP_FILE);
+    }
+
+    @Test
+    void keepsTheCacheWhenTheChecksumIsUnchanged() {
+        ParentsInfoEnricher enricher = load("2022-05-01T00:00:00Z/1000", "md5-1");
+
+        when(hayaService.getAdminUnitsFileMetadata()).thenReturn("2022-05-02T00:00:00Z/1000");
+        reloader.reloadIfChanged();
+        // The new metadata is kept, so the file is not downloaded again.
+        reloader.reloadIfChanged();
+
+        assertThat(reloader.parentsInfoEnricher()).isSameAs(enricher);
+        verify(hayaService, times(2)).downloadAdminUnitsFile();
+        verify(hayaService, times(1)).buildAdminUnitCacheFromZipFile(ZIP_FILE);
+    }
+
+    @Test
+    void downloadsTheFileEveryTimeWithoutMetadata() {
+        load(null, "md5-1");
+
+        reloader.reloadIfChanged();
+
+        verify(hayaService, times(2)).downloadAdminUnitsFile();
+        verify(hayaService, times(1)).buildAdminUnitCacheFromZipFile(ZIP_FILE);
+    }
+
+    @Test
+    void answersFromTheCurrentCacheWhileTheNewOneIsBuilt() {
+        ParentsInfoEnricher current = load("2022-05-01T00:00:00Z/1000", "md5-1");
+
+        var newCache = new AdminUnitsCache(Map.of(), Map.of(), Map.of());
+        ParentsInfoEnricher newEnricher = mock(ParentsInfoEnricher.class);
+        when(hayaService.getAdminUnitsFileMetadata()).thenReturn("2022-05-02T00:00:00Z/2000");
+        when(hayaService.getAdminUnitsVersion(ZIP_FILE)).thenReturn("md5-2");
+        when(hayaService.buildAdminUnitCacheFromZipFile(ZIP_FILE)).thenAnswer(invocation -> {
+            assertThat(reloader.parentsInfoEnricher()).isSameAs(current);
+            return newCache;
+        });
+        when(hayaService.createParentsInfoEnricher(newCache, reloader.statistics())).thenReturn(newEnricher);
+
+        reloader.reloadIfChanged();
+
+        assertThat(reloader.parentsInfoEnricher()).isSameAs(newEnricher);
+    }
+
+    @Test
+    void keepsTheCurrentCacheWhenTheReloadFails() {
+        ParentsInfoEnricher current = load("2022-05-01T00:00:00Z/1000", "md5-1");
+
+        when(hayaService.getAdminUnitsFileMetadata()).thenReturn("2022-05-02T00:00:00Z/2000");
+        when(hayaService.getAdminUnitsVersion(ZIP_FILE)).thenReturn("md5-2");
+        when(hayaService.buildAdminUnitCacheFromZipFile(ZIP_FILE)).thenThrow(new IllegalStateException("Malformed NeTEx"));
+
+        reloader.reloadIfChanged();
+
+        assertThat(reloader.parentsInfoEnricher()).isSameAs(current);
+        verify(hayaService, times(1)).createParentsInfoEnricher(any(), any());
+    }
+
+    /**
+     * Loads a first cache, with the given file metadata and checksum.
+     */
+    private ParentsInfoEnricher load(String metadata, String version) {
+        var adminUnitsCache = new AdminUnitsCache(Map.of(), Map.of(), Map.of());
+        ParentsInfoEnricher enricher = mock(ParentsInfoEnricher.class);
+        when(hayaService.getAdminUnitsFileMetadata()).thenReturn(metadata);
+        when(hayaService.getAdminUnitsVersion(ZIP_FILE)).thenReturn(version);
+        when(hayaService.buildAdminUnitCacheFromZipFile(ZIP_FILE)).thenReturn(adminUnitsCache);
+        when(hayaService.createParentsInfoEnricher(adminUnitsCache, reloader.statistics())).thenReturn(enricher);
+        reloader.reloadIfChanged();
+        return enricher;
+    }
+}
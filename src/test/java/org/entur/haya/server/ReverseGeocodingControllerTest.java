@@ -0,0 +1,106 @@
+package org.entur.haya.server;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.assertj.core.api.ThrowableAssert.ThrowingCallable;
+import org.entur.geocoder.model.GeoPoint;
+import org.entur.geocoder.model.ParentType;
+import org.entur.geocoder.model.Parents;
+import org.entur.geocoder.model.PeliasId;
+import org.entur.haya.adminUnitsCache.ParentsInfoEnricher;
+import org.entur.haya.csv.PeliasCSV;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.util.ReflectionTestUtils.setField;
+
+class ReverseGeocodingControllerTest {
+
+    private static final PeliasId OSLO = new PeliasId("KVE", "TopographicPlace", "KVE:TopographicPlace:0301");
+
+    private AdminUnitsCacheReloader reloader;
+    private ParentsInfoEnricher enricher;
+    private ReverseGeocodingController controller;
+
+    @BeforeEach
+    void createController() {
+        reloader = mock(AdminUnitsCacheReloader.class);
+        enricher = mock(ParentsInfoEnricher.class);
+        var parents = new Parents();
+        parents.addOrReplaceParent(ParentType.LOCALITY, OSLO, "Oslo");
+        when(enricher.findParents(any())).thenReturn(parents);
+        controller = new ReverseGeocodingController(reloader, new SimpleMeterRegistry());
+        setField(controller, "batchMaximumSize", 2);
+    }
+
+    @Test
+    void answersServiceUnavailableUntilTheCacheIsLoaded() {
+        assertThatThrownBy(() -> controller.reverseGeocode(59.91, 10.75))
+                .isInstanceOfSatisfying(ResponseStatusException.class,
+                        e -> assertThat(e.getStatus()).isEqualTo(HttpStatus.SERVICE_UNAVAILABLE));
+    }
+
+    @Test
+    void answersTheParentsOfAPoint() {
+        when(reloader.parentsInfoEnricher()).thenReturn(enricher);
+
+        ReverseGeocodeResult result = controller.reverseGeocode(59.91, 10.75);
+
+        assertThat(result.lat()).isEqualTo(59.91);
+        assertThat(result.lon()).isEqualTo(10.75);
+        assertThat(result.parent()).containsOnlyKeys(ParentType.LOCALITY.value());
+        assertThat(result.parent().get(ParentType.LOCALITY.value()))
+                .containsExactly(new PeliasCSV.PeliasParent("KVE", OSLO.id(), "Oslo", null));
+        verify(enricher).findParents(new GeoPoint(59.91, 10.75));
+    }
+
+    @Test
+    void answersTheParentsOfABatchFromTheSameCache() {
+        when(reloader.parentsInfoEnricher()).thenReturn(enricher);
+
+        List<ReverseGeocodeResult> results = controller.reverseGeocode(List.of(
+                new ReverseGeocodeResult.Point(59.91, 10.75),
+                new ReverseGeocodeResult.Point(63.43, 10.39)));
+
+        assertThat(results).extracting(ReverseGeocodeResult::lat).containsExactly(59.91, 63.43);
+        verify(reloader, times(1)).parentsInfoEnricher();
+        verify(enricher, times(2)).findParents(any());
+    }
+
+    @Test
+    void rejectsTheInvalidPoints() {
+        when(reloader.parentsInfoEnricher()).thenReturn(enricher);
+
+        assertBadRequest(() -> controller.reverseGeocode(91, 10.75));
+        assertBadRequest(() -> controller.reverseGeocode(59.91, -180.5));
+        assertBadRequest(() -> controller.reverseGeocode(Double.NaN, 10.75));
+        assertBadRequest(() -> controller.reverseGeocode(Arrays.asList(new ReverseGeocodeResult.Point(59.91, 10.75), null)));
+    }
+
+    @Test
+    void rejectsTooManyPoints() {
+        when(reloader.parentsInfoEnricher()).thenReturn(enricher);
+
+        assertBadRequest(() -> controller.reverseGeocode(List.of(
+                new ReverseGeocodeResult.Point(59.91, 10.75),
+                new ReverseGeocodeResult.Point(63.43, 10.39),
+                new ReverseGeocodeResult.Point(69.65, 18.96))));
+    }
+
+    private static void assertBadRequest(ThrowingCallable request) {
+        assertThatThrownBy(request)
+                .isInstanceOfSatisfying(ResponseStatusException.class,
+                        e -> assertThat(e.getStatus()).isEqualTo(HttpStatus.BAD_REQUEST));
+    }
+}
@@ -0,0 +1,212 @@
+package org.entur.haya.shard;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.entur.geocoder.model.GeoPoint;
+import org.entur.geocoder.model.ParentType;
+import org.entur.geocoder.model.Parents;
+import org.entur.geocoder.model.PeliasDocument;
+import org.entur.geocoder.model.PeliasId;
+import org.entur.haya.HayaService;
+import org.entur.haya.adminUnitsCache.AdminUnit;
+import org.entur.haya.adminUnitsCache.AdminUnitsCache;
+import org.entur.haya.adminUnitsCache.TopographicPlaceReader;
+import org.entur.haya.blobStore.HayaBlobStoreService;
+import org.entur.haya.blobStore.KakkaBlobStoreService;
+import org.entur.haya.metrics.HayaMetrics;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.locationtech.jts.geom.Envelope;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+import static org.springframework.test.util.ReflectionTestUtils.setField;
+
+/**
+ * The parts of the shards put together must give the same CSV file as a single run over the same documents,
+ * enriched with the admin units of the benchmark fixture.
+ */
+class ShardServiceTest {
+
+    private static final String ADMIN_UNITS_FIXTURE = "/fixtures/admin-units.xml.gz";
+    private static final int DOCUMENTS = 2000;
+
+    private static AdminUnitsCache adminUnitsCache;
+    private static List<GeoPoint> points;
+
+    @TempDir
+    Path workDir;
+
+    private HayaBlobStoreService hayaBlobStoreService;
+    private HayaService hayaService;
+
+    @BeforeAll
+    static void readFixture() throws IOException {
+        try (InputStream inputStream = new GZIPInputStream(ShardServiceTest.class.getResourceAsStream(ADMIN_UNITS_FIXTURE))) {
+            adminUnitsCache = AdminUnitsCache.buildNewCache(TopographicPlaceReader.read(inputStream));
+        }
+        var envelope = new Envelope();
+        try (InputStream inputStream = new GZIPInputStream(ShardServiceTest.class.getResourceAsStream(ADMIN_UNITS_FIXTURE));
+             Stream<AdminUnit> adminUnits = TopographicPlaceReader.read(inputStream).map(AdminUnit::makeAdminUnit)) {
+            adminUnits.map(AdminUnit::geometry)
+                    .filter(polygon -> polygon != null)
+                    .forEach(polygon -> envelope.expandToInclude(polygon.getEnvelopeInternal()));
+        }
+        var random = new Random(1);
+        points = IntStream.range(0, DOCUMENTS)
+                .mapToObj(i -> new GeoPoint(
+                        envelope.getMinY() + random.nextDouble() * envelope.getHeight(),
+                        envelope.getMinX() + random.nextDouble() * envelope.getWidth()))
+                .toList();
+    }
+
+    @BeforeEach
+    void createHayaService() {
+        hayaBlobStoreService = mock(HayaBlobStoreService.class);
+        var metrics = new HayaMetrics(new SimpleMeterRegistry());
+        hayaService = new HayaService(mock(KakkaBlobStoreService.class), hayaBlobStoreService, metrics, new SimpleMeterRegistry());
+        setField(hayaService, "hayaWorkDir", workDir.toString());
+        setField(hayaService, "enrichmentWorkers", 1);
+        setField(hayaService, "outputPipeChunkSize", 65536);
+        setField(hayaService, "outputPipeCapacity", 64);
+        setField(hayaService, "outputDeflateThreads", 1);
+        setField(hayaService, "outputDeflateBlockSize", 131072);
+    }
+
+    @Test
+    void mergesThePartsIntoTheCSVFileOfASingleRun() throws IOException {
+        byte[] singleRun = unzip(hayaService.createZippedPeliasCSV(enrich(peliasDocuments(0, DOCUMENTS)), "haya"));
+
+        // The last shard gets no documents, and uploads an empty part.
+        int shardCount = 4;
+        int[] bounds = {0, 700, 701, DOCUMENTS, DOCUMENTS};
+        var parts = new ArrayList<Path>();
+        for (int index = 0; index < shardCount; index++) {
+            parts.add(shardService(shardCount, index).writeShardPart(enrich(peliasDocuments(bounds[index], bounds[index + 1]))));
+        }
+        byte[] merged = unzip(shardService(shardCount, 0).createZippedPeliasCSVFromShardParts(parts, "haya"));
+
+        assertThat(new String(singleRun).lines().count()).isGreaterThan(DOCUMENTS / 2);
+        assertThat(merged).isEqualTo(singleRun);
+    }
+
+    @Test
+    void countsTheDocumentsDroppedByEachShard() throws IOException {
+        var firstShardMetrics = new HayaMetrics(new SimpleMeterRegistry());
+        var secondShardMetrics = new HayaMetrics(new SimpleMeterRegistry());
+        var parts = List.of(
+                shardService(2, 0, firstShardMetrics).writeShardPart(enrich(peliasDocumentsWithUnknownParents(0, 100))),
+                shardService(2, 1, secondShardMetrics).writeShardPart(enrich(peliasDocumentsWithUnknownParents(100, 150))));
+        unzip(shardService(2, 0, firstShardMetrics).createZippedPeliasCSVFromShardParts(parts, "haya"));
+
+        // Every tenth document keeps its unknown parent.
+        assertThat(firstShardMetrics.summary()).containsEntry("documentsWritten", 90L).containsEntry("documentsDropped", 10L);
+        assertThat(secondShardMetrics.summary()).containsEntry("documentsWritten", 45L).containsEntry("documentsDropped", 5L);
+    }
+
+    @Test
+    void deletesThePartsOfAllTheShards() throws IOException {
+        ShardService shardService = shardService(2, 0);
+        Path part = shardService.writeShardPart(enrich(peliasDocuments(0, 10)));
+        Path otherPart = part.resolveSibling("part_1_of_2.csv.gz");
+        Files.write(otherPart, new byte[0]);
+
+        shardService.deleteShardParts(List.of(part, otherPart));
+
+        verify(hayaBlobStoreService).deleteBlob("shards/run/part_0_of_2.csv.gz");
+        verify(hayaBlobStoreService).deleteBlob("shards/run/part_1_of_2.csv.gz");
+        assertThat(part).doesNotExist();
+        assertThat(otherPart).doesNotExist();
+    }
+
+    @Test
+    void rejectsTheSpatialOrder() {
+        ShardService shardService = shardService(2, 0);
+        setField(shardService, "spatialOrderEnabled", true);
+
+        assertThatThrownBy(() -> shardService.selectShardFiles(List.of()))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("haya.enrichment.spatialOrder.enabled");
+    }
+
+    private ShardService shardService(int shardCount, int shardIndex) {
+        return shardService(shardCount, shardIndex, new HayaMetrics(new SimpleMeterRegistry()));
+    }
+
+    private ShardService shardService(int shardCount, int shardIndex, HayaMetrics metrics) {
+        var shardService = new ShardService(hayaService, hayaBlobStoreService, metrics);
+        setField(shardService, "hayaWorkDir", workDir.toString());
+        setField(shardService, "shardCount", shardCount);
+        setField(shardService, "shardIndex", shardIndex);
+        setField(shardService, "shardRunId", "run");
+        setField(shardService, "shardFolder", "shards");
+        return shardService;
+    }
+
+    private Stream<PeliasDocument> enrich(Stream<PeliasDocument> peliasDocuments) {
+        return hayaService.enrichWithParentInfo(peliasDocuments, adminUnitsCache);
+    }
+
+    /**
+     * New documents for each run, as the enrichment adds the parents to them.
+     */
+    private static Stream<PeliasDocument> peliasDocuments(int from, int to) {
+        return IntStream.range(from, to).mapToObj(ShardServiceTest::peliasDocument);
+    }
+
+    private static Stream<PeliasDocument> peliasDocumentsWithUnknownParents(int from, int to) {
+        return IntStream.range(from, to).mapToObj(i -> {
+            PeliasDocument peliasDocument = peliasDocument(i);
+            if (i % 10 == 0) {
+                var parents = new Parents();
+                parents.addOrReplaceParent(ParentType.UNKNOWN, new PeliasId("KVE", "TopographicPlace", "KVE:TopographicPlace:nowhere"), "Nowhere");
+                when(peliasDocument.getParents()).thenReturn(parents);
+            }
+            return peliasDocument;
+        });
+    }
+
+    private static PeliasDocument peliasDocument(int i) {
+        PeliasDocument peliasDocument = mock(PeliasDocument.class, withSettings().stubOnly());
+        when(peliasDocument.getPeliasId()).thenReturn(new PeliasId("openstreetmap", "address", "OSM:" + i));
+        when(peliasDocument.getIndex()).thenReturn("pelias");
+        when(peliasDocument.getDefaultName()).thenReturn("Storgata " + i);
+        when(peliasDocument.getPopularity()).thenReturn(20L);
+        when(peliasDocument.getCategories()).thenReturn(List.of("street"));
+        when(peliasDocument.getDescriptionMap()).thenReturn(Map.of());
+        when(peliasDocument.getAlternativeNames()).thenReturn(Map.of());
+        when(peliasDocument.getAlternativeAlias()).thenReturn(Map.of());
+        when(peliasDocument.getCenterPoint()).thenReturn(points.get(i));
+        when(peliasDocument.getParents()).thenReturn(new Parents());
+        return peliasDocument;
+    }
+
+    private static byte[] unzip(InputStream zippedCSV) throws IOException {
+        try (var zipInputStream = new ZipInputStream(zippedCSV)) {
+            ZipEntry entry = zipInputStream.getNextEntry();
+            assertThat(entry.getName()).isEqualTo("haya.csv");
+            byte[] csv = zipInputStream.readAllBytes();
+            assertThat(zipInputStream.getNextEntry()).isNull();
+            return csv;
+        }
+    }
+}
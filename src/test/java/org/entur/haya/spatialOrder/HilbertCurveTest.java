@@ -0,0 +1,89 @@
+package org.entur.haya.spatialOrder;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class HilbertCurveTest {
+
+    private static final long SIDE = 1L << HilbertCurve.ORDER;
+    private static final int BLOCK = 64;
+
+    @Test
+    void fillsTheBlockAtTheOriginWithConsecutiveAdjacentCells() {
+        assertFillsBlock(0, 0);
+    }
+
+    @Test
+    void fillsABlockAroundOsloWithConsecutiveAdjacentCells() {
+        long x = cell(10.75, -180, 360);
+        long y = cell(59.91, -90, 180);
+        assertFillsBlock(x - x % BLOCK, y - y % BLOCK);
+    }
+
+    @Test
+    void startsAndEndsAtTheBottomCorners() {
+        assertThat(HilbertCurve.key(-180, -90)).isZero();
+        assertThat(HilbertCurve.key(lon(SIDE - 1), lat(0))).isEqualTo(SIDE * SIDE - 1);
+    }
+
+    @Test
+    void keepsTheKeysWithinTheCurve() {
+        for (double lon = -180; lon <= 180; lon += 7.5) {
+            for (double lat = -90; lat <= 90; lat += 7.5) {
+                assertThat(HilbertCurve.key(lon, lat)).isBetween(0L, SIDE * SIDE - 1);
+            }
+        }
+    }
+
+    @Test
+    void clampsThePointsOutsideTheWorldToTheEdgeCells() {
+        assertThat(HilbertCurve.key(-200, -100)).isEqualTo(HilbertCurve.key(-180, -90));
+        assertThat(HilbertCurve.key(200, 100)).isEqualTo(HilbertCurve.key(180, 90));
+        assertThat(HilbertCurve.key(180, 90)).isEqualTo(HilbertCurve.key(lon(SIDE - 1), lat(SIDE - 1)));
+        assertThat(HilbertCurve.key(10.75, 95)).isEqualTo(HilbertCurve.key(10.75, 90));
+    }
+
+    /**
+     * A block of cells aligned on its size is a quadrant of the curve, so its keys are a range of their own,
+     * along which each cell is next to the one before it.
+     */
+    private static void assertFillsBlock(long x0, long y0) {
+        Map<Long, long[]> cellsByKey = new HashMap<>();
+        for (long x = x0; x < x0 + BLOCK; x++) {
+            for (long y = y0; y < y0 + BLOCK; y++) {
+                long[] previous = cellsByKey.put(HilbertCurve.key(lon(x), lat(y)), new long[]{x, y});
+                assertThat(previous).as("Key of cell %d, %d", x, y).isNull();
+            }
+        }
+
+        long first = cellsByKey.keySet().stream().mapToLong(Long::longValue).min().orElseThrow();
+        assertThat(first % (BLOCK * BLOCK)).isZero();
+        for (long key = first + 1; key < first + BLOCK * BLOCK; key++) {
+            long[] previous = cellsByKey.get(key - 1);
+            long[] cell = cellsByKey.get(key);
+            assertThat(cell).as("Cell of key %d", key).isNotNull();
+            assertThat(Math.abs(cell[0] - previous[0]) + Math.abs(cell[1] - previous[1]))
+                    .as("Distance between the cells of keys %d and %d", key - 1, key)
+                    .isEqualTo(1);
+        }
+    }
+
+    /**
+     * The centers of the cells, away from the rounding at their edges.
+     */
+    private static double lon(long x) {
+        return -180 + (x + 0.5) * 360 / SIDE;
+    }
+
+    private static double lat(long y) {
+        return -90 + (y + 0.5) * 180 / SIDE;
+    }
+
+    private static long cell(double value, double min, double extent) {
+        return (long) Math.floor((value - min) / extent * SIDE);
+    }
+}
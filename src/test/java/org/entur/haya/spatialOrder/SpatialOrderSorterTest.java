@@ -0,0 +1,131 @@
+package org.entur.haya.spatialOrder;
+
+import com.opencsv.CSVReader;
+import com.opencsv.CSVWriter;
+import com.opencsv.exceptions.CsvException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * The sorted files are read by the default CSVReader of OpenCSV, as the import reads them, and must hold
+ * the same rows as the input files, in the order of their keys.
+ */
+class SpatialOrderSorterTest {
+
+    private static final String[] header = {"id", "name", "lat", "lon"};
+
+    @TempDir
+    Path workDirectory;
+
+    @Test
+    void sortsTheRowsByTheKeyOfTheirCenterPoint() throws IOException, CsvException {
+        var random = new Random(42);
+        List<String[]> rows = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            rows.add(row(i, 58 + random.nextDouble() * 13, 4 + random.nextDouble() * 27));
+        }
+
+        List<Path> sortedFiles = new SpatialOrderSorter(workDirectory.resolve("sort"), 16)
+                .sort(List.of(write("first.csv", header, rows.subList(0, 200)), write("second.csv", header, rows.subList(200, 500))));
+
+        assertThat(sortedFiles).hasSize(1);
+        List<String[]> sortedRows = read(sortedFiles.get(0));
+        assertThat(sortedRows.get(0)).containsExactly(header);
+        assertThat(sortedRows.subList(1, sortedRows.size())).usingElementComparator(Arrays::compare)
+                .containsExactlyInAnyOrderElementsOf(rows)
+                .isSortedAccordingTo(Comparator.comparingLong(SpatialOrderSorterTest::key));
+    }
+
+    @Test
+    void keepsTheCellsWithQuotesEscapesAndLineBreaks() throws IOException, CsvException {
+        Path csvFile = workDirectory.resolve("escapes.csv");
+        Files.writeString(csvFile, """
+                "id","name","lat","lon"
+                "1","line
+                break","60","10"
+                "2","with ""quotes"", and a comma","59","10"
+                "3","back\\\\slash \\" and \\,","61","11"
+                "4","\\"\\"\\"","62","12"
+                5,unquoted \\"S\\",69.6,18.9
+                "6","{""name"":""Oslo \\\\""S\\\\"" ""}","59.9","10.7"
+                """);
+        List<String[]> inputRows = read(csvFile);
+
+        List<Path> sortedFiles = new SpatialOrderSorter(workDirectory.resolve("sort"), 2).sort(List.of(csvFile));
+
+        List<String[]> sortedRows = read(sortedFiles.get(0));
+        assertThat(sortedRows).usingElementComparator(Arrays::compare)
+                .hasSize(7)
+                .containsExactlyInAnyOrderElementsOf(inputRows);
+        assertThat(sortedRows).extracting(row -> row[1]).contains(
+                "line\nbreak", "with \"quotes\", and a comma", "back\\slash \" and ,", "\"\"\"", "unquoted \"S\"");
+    }
+
+    @Test
+    void sortsTheFilesWithDifferentHeadersApart() throws IOException, CsvException {
+        String[] otherHeader = {"id", "lon", "lat"};
+        Path csvFile = write("first.csv", header, List.of(row(1, 60, 10), row(2, 59, 5)));
+        Path otherCsvFile = write("other.csv", otherHeader, List.<String[]>of(new String[]{"3", "10", "60"}));
+        Path lastCsvFile = write("last.csv", header, List.<String[]>of(row(4, 70, 25)));
+
+        List<Path> sortedFiles = new SpatialOrderSorter(workDirectory.resolve("sort"), 16)
+                .sort(List.of(csvFile, otherCsvFile, lastCsvFile));
+
+        assertThat(sortedFiles).hasSize(2);
+        assertThat(read(sortedFiles.get(0))).extracting(row -> row[0]).containsExactlyInAnyOrder("id", "1", "2", "4");
+        assertThat(read(sortedFiles.get(1))).extracting(row -> row[0]).containsExactly("id", "3");
+    }
+
+    @Test
+    void sortsTheRowsWithoutACenterPointLastInTheirInputOrder() throws IOException, CsvException {
+        List<String[]> rows = List.of(
+                new String[]{"1", "no lat", "", "10"},
+                row(2, 60, 10),
+                new String[]{"3", "not a number", "north", "10"},
+                new String[]{"4", "outside the world", "95", "10"},
+                new String[]{"5", "too few cells"},
+                row(6, 59, 5));
+
+        List<Path> sortedFiles = new SpatialOrderSorter(workDirectory.resolve("sort"), 2)
+                .sort(List.of(write("rows.csv", header, rows)));
+
+        List<String> ids = read(sortedFiles.get(0)).stream().map(row -> row[0]).toList();
+        assertThat(ids.subList(1, 3)).containsExactlyInAnyOrder("2", "6");
+        assertThat(ids.subList(3, ids.size())).containsExactly("1", "3", "4", "5");
+    }
+
+    private static String[] row(int id, double lat, double lon) {
+        return new String[]{String.valueOf(id), "Stop place " + id, String.valueOf(lat), String.valueOf(lon)};
+    }
+
+    private static long key(String[] row) {
+        return HilbertCurve.key(Double.parseDouble(row[3]), Double.parseDouble(row[2]));
+    }
+
+    private Path write(String name, String[] header, List<String[]> rows) throws IOException {
+        Path csvFile = workDirectory.resolve(name);
+        try (var writer = new CSVWriter(Files.newBufferedWriter(csvFile, StandardCharsets.UTF_8))) {
+            writer.writeNext(header);
+            writer.writeAll(rows);
+        }
+        return csvFile;
+    }
+
+    private static List<String[]> read(Path csvFile) throws IOException, CsvException {
+        try (var reader = new CSVReader(Files.newBufferedReader(csvFile, StandardCharsets.UTF_8))) {
+            return reader.readAll();
+        }
+    }
+}